@@ -34,16 +34,33 @@ public class UESettings {
 	public String outputType = "tcpsource";
 	public String tcpHostPort = "localhost:12345";
 	public String namedPipe = "/tmp/fifofile";
+	public String mmapFile = "/dev/shm/cdcstreams.ring";
+	public String partitionBy = "table";
+	public String protocol = "binary";
+	public String compression = "none";
+	public int compressionLevel = 1;
 	public String separator = "\u001d";
 	public String fixColumnConversionCharacter = " ";
+	public boolean escapeData = false;
 	public String metadataSeparator = "\u0000";
 	public int handshakeAfterMaxTransactions = 100;
 	public int handshakeAfterMaxSeconds = 60;
 	public int handshakeTimeoutMs = 500;
 	public int handshakeMaximumFailures = 0;
+	public int handshakeMaxInFlight = 1;
 	public int tcpConnectionTimeoutSeconds = 120;
 	public int initCDCSourceTimeoutSeconds = 10;
+	public String flushPolicy = "commit";
+	public int flushMaxBytes = 65536;
+	public int flushMaxDelayMicros = 100000;
+	public int heartbeatIntervalSeconds = 30;
+	public String spillDirectory = "";
+	public int spillSegmentBytes = 16777216;
+	public long spillMaxBytes = 268435456;
+	public boolean reconnect = false;
+	public boolean jmxStatistics = true;
 	public boolean debug = false;
+	public int traceBufferSize = 0;
 
 	UETrace trace = new UETrace(true, null);
 
@@ -92,9 +109,16 @@ public class UESettings {
 		outputType = properties.getProperty("outputType", outputType);
 		tcpHostPort = properties.getProperty("tcpHostPort", tcpHostPort);
 		namedPipe = properties.getProperty("namedPipe", namedPipe);
+		mmapFile = properties.getProperty("mmapFile", mmapFile);
+		partitionBy = properties.getProperty("partitionBy", partitionBy);
+		protocol = properties.getProperty("protocol", protocol);
+		compression = properties.getProperty("compression", compression);
+		compressionLevel = Integer
+				.parseInt(properties.getProperty("compressionLevel", Integer.toString(compressionLevel)));
 		separator = properties.getProperty("separator", separator);
 		fixColumnConversionCharacter = properties.getProperty("fixColumnConversionCharacter",
 				fixColumnConversionCharacter);
+		escapeData = Boolean.parseBoolean(properties.getProperty("escapeData", Boolean.toString(escapeData)));
 		metadataSeparator = properties.getProperty("metadataSeparator", metadataSeparator);
 		handshakeAfterMaxTransactions = Integer.parseInt(properties.getProperty("handshakeAfterMaxTransactions",
 				Integer.toString(handshakeAfterMaxTransactions)));
@@ -104,11 +128,28 @@ public class UESettings {
 				.parseInt(properties.getProperty("handshakeTimeoutMs", Integer.toString(handshakeTimeoutMs)));
 		handshakeMaximumFailures = Integer.parseInt(
 				properties.getProperty("handshakeMaximumFailures", Integer.toString(handshakeMaximumFailures)));
+		handshakeMaxInFlight = Integer.parseInt(
+				properties.getProperty("handshakeMaxInFlight", Integer.toString(handshakeMaxInFlight)));
 		tcpConnectionTimeoutSeconds = Integer.parseInt(
 				properties.getProperty("tcpConnectionTimeoutSeconds", Integer.toString(tcpConnectionTimeoutSeconds)));
 		initCDCSourceTimeoutSeconds = Integer.parseInt(
 				properties.getProperty("initCDCSourceTimeoutSeconds", Integer.toString(initCDCSourceTimeoutSeconds)));
+		flushPolicy = properties.getProperty("flushPolicy", flushPolicy);
+		flushMaxBytes = Integer.parseInt(properties.getProperty("flushMaxBytes", Integer.toString(flushMaxBytes)));
+		flushMaxDelayMicros = Integer
+				.parseInt(properties.getProperty("flushMaxDelayMicros", Integer.toString(flushMaxDelayMicros)));
+		heartbeatIntervalSeconds = Integer.parseInt(
+				properties.getProperty("heartbeatIntervalSeconds", Integer.toString(heartbeatIntervalSeconds)));
+		spillDirectory = properties.getProperty("spillDirectory", spillDirectory);
+		spillSegmentBytes = Integer
+				.parseInt(properties.getProperty("spillSegmentBytes", Integer.toString(spillSegmentBytes)));
+		spillMaxBytes = Long.parseLong(properties.getProperty("spillMaxBytes", Long.toString(spillMaxBytes)));
+		reconnect = Boolean.parseBoolean(properties.getProperty("reconnect", Boolean.toString(reconnect)));
+		jmxStatistics = Boolean
+				.parseBoolean(properties.getProperty("jmxStatistics", Boolean.toString(jmxStatistics)));
 		debug = Boolean.parseBoolean(properties.getProperty("debug", Boolean.toString(debug)));
+		traceBufferSize = Integer
+				.parseInt(properties.getProperty("traceBufferSize", Integer.toString(traceBufferSize)));
 
 	}
 
@@ -32,6 +32,9 @@ import com.datamirror.ts.util.trace.Trace;
 public class UETrace {
 	boolean enabled = false;
 	SubscriptionEventPublisherIF eventPublisher = null;
+	// Buffer of messages written by a background thread, null if messages
+	// are written by the calling thread
+	UETraceBuffer buffer = null;
 
 	public UETrace(boolean enabled) {
 		this.enabled = enabled;
@@ -47,6 +50,18 @@ public class UETrace {
 		this.eventPublisher = eventPublisher;
 	}
 
+	/**
+	 * Initializes the tracing facility. If bufferSize is greater than 0 and
+	 * tracing is enabled, trace messages are kept in a buffer of bufferSize
+	 * messages and written by a background thread; messages are discarded
+	 * while the buffer is full.
+	 */
+	public UETrace(boolean enabled, SubscriptionEventPublisherIF eventPublisher, int bufferSize) {
+		this(enabled, eventPublisher);
+		if (enabled && bufferSize > 0)
+			buffer = new UETraceBuffer(bufferSize);
+	}
+
 	/**
 	 * Write message to subscription trace and subscription-level target event
 	 * log (if initialized)
@@ -80,14 +95,97 @@ public class UETrace {
 	 */
 	public void write(String message) {
 		if (enabled) {
-			Trace.traceAlways(message);
+			if (buffer != null)
+				buffer.add(message, null, null, null);
+			else
+				Trace.traceAlways(message);
 		}
 		return;
 	}
 
 	/**
-	 * Cleanup for trace facility -> not used in this implementation
+	 * Writes a trace message in which {} is replaced by the argument. The
+	 * message is only built if tracing is enabled, so the call costs nothing
+	 * otherwise. As the message may be built by another thread, the argument
+	 * must not change after the call.
+	 * 
+	 * @param format
+	 *            - Message to write to the trace, with {} for the argument
+	 */
+	public void write(String format, Object arg) {
+		if (enabled)
+			writeFormatted(format, arg, null, null);
+	}
+
+	/**
+	 * Writes a trace message in which {} is replaced by the number, see
+	 * {@link #write(String, Object)}. The number is only boxed if tracing is
+	 * enabled.
+	 */
+	public void write(String format, long arg) {
+		if (enabled)
+			writeFormatted(format, Long.valueOf(arg), null, null);
+	}
+
+	/**
+	 * Writes a trace message in which the occurrences of {} are replaced by
+	 * the arguments, see {@link #write(String, Object)}.
+	 */
+	public void write(String format, Object arg1, Object arg2) {
+		if (enabled)
+			writeFormatted(format, arg1, arg2, null);
+	}
+
+	/**
+	 * Writes a trace message in which the occurrences of {} are replaced by
+	 * the arguments, see {@link #write(String, Object)}.
+	 */
+	public void write(String format, Object arg1, Object arg2, Object arg3) {
+		if (enabled)
+			writeFormatted(format, arg1, arg2, arg3);
+	}
+
+	private void writeFormatted(String format, Object arg1, Object arg2, Object arg3) {
+		if (buffer != null)
+			buffer.add(format, arg1, arg2, arg3);
+		else
+			Trace.traceAlways(format(format, arg1, arg2, arg3));
+	}
+
+	/**
+	 * Replaces the first three occurrences of {} in the format by the
+	 * arguments.
+	 */
+	static String format(String format, Object arg1, Object arg2, Object arg3) {
+		int placeholder = format.indexOf("{}");
+		if (placeholder < 0)
+			return format;
+		StringBuilder message = new StringBuilder(format.length() + 32);
+		int start = 0;
+		for (int i = 0; i < 3 && placeholder >= 0; i++) {
+			message.append(format, start, placeholder);
+			message.append(i == 0 ? arg1 : (i == 1 ? arg2 : arg3));
+			start = placeholder + 2;
+			placeholder = format.indexOf("{}", start);
+		}
+		message.append(format, start, format.length());
+		return message.toString();
+	}
+
+	/**
+	 * Returns whether trace messages are written; callers can use this to
+	 * avoid building messages that would be discarded.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Cleanup for trace facility, writes the messages that are still buffered
 	 */
 	public void close() {
+		if (buffer != null) {
+			buffer.close();
+		}
 	}
 }
\ No newline at end of file
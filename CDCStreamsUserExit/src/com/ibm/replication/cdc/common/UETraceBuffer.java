@@ -0,0 +1,159 @@
+package com.ibm.replication.cdc.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.datamirror.ts.util.trace.Trace;
+
+/**
+ * Bounded ring buffer of trace messages that are formatted and written to the
+ * IIDR (CDC) trace by a background thread, so that tracing does not hold up
+ * the thread that applies the changes.
+ *
+ * The slots of the ring are allocated once; adding a message only stores the
+ * format and its arguments. If the buffer is full, the message is discarded
+ * and counted, the number of discarded messages is reported with the next
+ * message that is written.
+ *
+ * The ring is lock-free: a thread adding a message claims a slot by advancing
+ * the head index with a compare-and-set and then publishes the slot through
+ * its sequence number, which tells the writer thread that the slot is filled
+ * and tells the adding threads when the writer has emptied it again. Only the
+ * writer thread moves the tail, so it needs no atomic update.
+ */
+public class UETraceBuffer implements Runnable {
+
+	private static final long IDLE_WAIT_NANOS = 100 * 1000000L;
+
+	private final String[] formats;
+	private final Object[] firstArguments;
+	private final Object[] secondArguments;
+	private final Object[] thirdArguments;
+	// Per slot: the sequence of the message that may be added to the slot, or
+	// that sequence + 1 once the message has been added and can be written
+	private final AtomicLongArray sequences;
+	private final int capacity;
+
+	// Sequence of the next message to add, claimed by the adding threads
+	private final AtomicLong head = new AtomicLong();
+	// Sequence of the next message to write, only used by the writer thread
+	private long tail = 0;
+	private final AtomicLong discarded = new AtomicLong();
+	private volatile boolean writerWaiting = false;
+	private volatile boolean stopped = false;
+
+	private final Thread writerThread;
+
+	/**
+	 * Creates the buffer and starts the thread that writes its messages.
+	 *
+	 * @param capacity
+	 *            Maximum number of messages that can be waiting to be written,
+	 *            at least 2 as the sequence of a single slot cannot tell a
+	 *            filled slot from one that has been emptied
+	 */
+	public UETraceBuffer(int capacity) {
+		capacity = Math.max(capacity, 2);
+		this.capacity = capacity;
+		formats = new String[capacity];
+		firstArguments = new Object[capacity];
+		secondArguments = new Object[capacity];
+		thirdArguments = new Object[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int slot = 0; slot < capacity; slot++)
+			sequences.set(slot, slot);
+		writerThread = new Thread(this, "UETraceBuffer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Adds a message to the buffer, or discards it if the buffer is full.
+	 *
+	 * @param format
+	 *            Message in which every {} is replaced by the next argument
+	 */
+	public void add(String format, Object arg1, Object arg2, Object arg3) {
+		if (stopped) {
+			discarded.incrementAndGet();
+			return;
+		}
+		long position;
+		int slot;
+		for (;;) {
+			position = head.get();
+			slot = (int) (position % capacity);
+			long available = sequences.get(slot) - position;
+			if (available == 0) {
+				if (head.compareAndSet(position, position + 1))
+					break;
+			} else if (available < 0) {
+				// The writer has not emptied the slot yet, the buffer is full
+				discarded.incrementAndGet();
+				return;
+			}
+			// Otherwise another thread claimed the slot first, try again
+		}
+		formats[slot] = format;
+		firstArguments[slot] = arg1;
+		secondArguments[slot] = arg2;
+		thirdArguments[slot] = arg3;
+		sequences.set(slot, position + 1);
+		if (writerWaiting)
+			LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Writes the messages in the buffer until the buffer is closed and all
+	 * messages have been written.
+	 */
+	public void run() {
+		for (;;) {
+			int slot = (int) (tail % capacity);
+			if (sequences.get(slot) != tail + 1) {
+				// Stop once no message is left, including messages of which
+				// the slot is claimed but not yet filled
+				if (stopped && head.get() == tail)
+					return;
+				// Announce the wait before checking the slot again, so that a
+				// message added in between either is seen or unparks the wait
+				writerWaiting = true;
+				if (sequences.get(slot) != tail + 1)
+					LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+				writerWaiting = false;
+				if (Thread.interrupted())
+					stopped = true;
+				continue;
+			}
+			String format = formats[slot];
+			Object arg1 = firstArguments[slot];
+			Object arg2 = secondArguments[slot];
+			Object arg3 = thirdArguments[slot];
+			formats[slot] = null;
+			firstArguments[slot] = null;
+			secondArguments[slot] = null;
+			thirdArguments[slot] = null;
+			// Hand the slot back for the message one lap further on
+			sequences.set(slot, tail + capacity);
+			tail++;
+			long discardedMessages = discarded.getAndSet(0);
+			if (discardedMessages > 0)
+				Trace.traceAlways(discardedMessages + " trace messages were discarded because the trace buffer was full");
+			Trace.traceAlways(UETrace.format(format, arg1, arg2, arg3));
+		}
+	}
+
+	/**
+	 * Stops accepting messages and waits until the messages in the buffer have
+	 * been written.
+	 */
+	public void close() {
+		stopped = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException ignore) {
+		}
+	}
+}
\ No newline at end of file
@@ -1,8 +1,9 @@
 package com.ibm.replication.cdc.streams;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,8 +42,21 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 
 	private boolean calledAtSubscriptionLevel = false;
 	private boolean firstTime = true;
-	private String emptyBeforeImage = "";
-	private String emptyAfterImage = "";
+	// Number of table columns in the before and after images, the journal
+	// control columns that follow them are not replicated
+	private int columnCount = 0;
+	// Encoded record type and table name, identical for all records of the
+	// table
+	private byte[] recordPrefix;
+	private CDCStreamsRecordEncoder encoder;
+	// Record encoders and encoded record prefixes of the partitions
+	private CDCStreamsRecordEncoder[] partitionEncoders;
+	private byte[][] partitionRecordPrefixes;
+	// Partition of the table's records, unless they are partitioned by key
+	private int tablePartition = 0;
+	// Number of operations written for the table, obtained with the first
+	// record
+	private LongAdder tableOperations;
 
 	// Context to be shared between all the instances of this class
 	protected SubscriptionContext subscriptionContext;
@@ -51,6 +65,8 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 	private UETrace trace;
 	private UESettings settings;
 	private CDCStreamsWriter streamsWriter;
+	private CDCStreamsWriter[] streamsWriters;
+	private CDCStreamsStatistics statistics;
 	private String publisherID;
 	private long currentTransactions;
 
@@ -58,7 +74,15 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 	private String txTableName = null;
 
 	private String fixColumnsParm = null;
-	private List<String> fixColumns = new ArrayList<String>();
+	private Set<String> fixColumns = new HashSet<String>();
+	// Whether the column at the index is one of the fixColumns, determined
+	// with the first record
+	private boolean[] fixColumn;
+
+	private String keyColumnsParm = null;
+	// Indexes of the key columns that determine the partition of a record,
+	// null if the records are partitioned by table
+	private int[] keyColumnIndexes = null;
 
 	/**
 	 * Subscription-level initialization.
@@ -84,13 +108,39 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		eventPublisher.unsubscribeEvent(SubscriptionEventTypes.ALL_EVENTS);
 		eventPublisher.subscribeEvent(SubscriptionEventTypes.BEFORE_PHYSICAL_COMMIT_EVENT);
 
-		// Open the output stream to write the records to
-		subscriptionContext.streamsWriter = new CDCStreamsWriter(subscriptionContext.settings, trace);
-		streamsWriter = subscriptionContext.streamsWriter;
+		// Keep statistics of the subscription, optionally exposed through JMX
+		subscriptionContext.statistics = new CDCStreamsStatistics();
+		statistics = subscriptionContext.statistics;
+		if (settings.jmxStatistics)
+			statistics.register(publisherID, trace);
 
-		// Start the timer thread to flush the output on a regular basis
+		// Start the timer that keeps the handshake deadline and runs the jobs
+		// flushing the output and sending heartbeats
 		subscriptionContext.timer = new CDCStreamsTimer(settings, trace);
-		new Thread(subscriptionContext.timer).start();
+
+		// Open the output streams to write the records to, one for every
+		// partition if multiple TCP addresses have been specified
+		String[] partitionAddresses = { settings.tcpHostPort };
+		if (settings.outputType.equalsIgnoreCase("tcpsource") || settings.outputType.equalsIgnoreCase("cdcsource"))
+			partitionAddresses = settings.tcpHostPort.split(",");
+		subscriptionContext.streamsWriters = new CDCStreamsWriter[partitionAddresses.length];
+		try {
+			for (int p = 0; p < partitionAddresses.length; p++)
+				subscriptionContext.streamsWriters[p] = new CDCStreamsWriter(settings, trace, publisherID,
+						partitionAddresses[p].trim(), statistics, subscriptionContext.timer);
+		} catch (UserExitException e) {
+			for (CDCStreamsWriter writer : subscriptionContext.streamsWriters) {
+				if (writer != null)
+					writer.close();
+			}
+			subscriptionContext.timer.stop();
+			throw e;
+		}
+		if (partitionAddresses.length > 1)
+			trace.logEvent("Records will be partitioned over " + partitionAddresses.length + " connections by "
+					+ settings.partitionBy + ", commits and handshakes are sent to all connections");
+		subscriptionContext.streamsWriter = subscriptionContext.streamsWriters[0];
+		initContext();
 
 		trace.write("Subscription-level init() end");
 	}
@@ -110,8 +160,8 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		context.eventPublisher = eventPublisher;
 		context.publisherID = new String(eventPublisher.getSourceSystemID());
 		context.settings = new UESettings(eventPublisher.getParameter());
-		context.trace = new UETrace(context.settings.debug, eventPublisher);
-		context.trace.write("Context created for publisher ID " + context.publisherID);
+		context.trace = new UETrace(context.settings.debug, eventPublisher, context.settings.traceBufferSize);
+		context.trace.write("Context created for publisher ID {}", context.publisherID);
 
 		eventPublisher.setUserExitSubscriptionContext(context);
 
@@ -126,6 +176,8 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		trace = subscriptionContext.trace;
 		settings = subscriptionContext.settings;
 		streamsWriter = subscriptionContext.streamsWriter;
+		streamsWriters = subscriptionContext.streamsWriters;
+		statistics = subscriptionContext.statistics;
 		publisherID = subscriptionContext.publisherID;
 	}
 
@@ -138,8 +190,10 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 	 *            - handle to subscription event
 	 */
 	public boolean processSubscriptionEvent(SubscriptionEventIF subscriptionEvent) throws UserExitException {
-		trace.write("Subscription event: " + getSubscriptionEventTypeAsString(subscriptionEvent.getEventType())
-				+ ", commit reason: " + getSubscriptionCommitReasonAsString(subscriptionEvent.getCommitReason()));
+		if (trace.isEnabled())
+			trace.write("Subscription event: {}, commit reason: {}",
+					getSubscriptionEventTypeAsString(subscriptionEvent.getEventType()),
+					getSubscriptionCommitReasonAsString(subscriptionEvent.getCommitReason()));
 
 		// If there are pending operations or transactions, default to not
 		// commit, otherwise allow committing of the bookmark
@@ -150,31 +204,59 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		// If there are pending operations, send commit to Streams and increase
 		// number of pending transactions.
 		if (subscriptionContext.currentTransactionOperations > 0) {
-			trace.write("Number of operations in current transaction (ID=" + subscriptionContext.currentTransactionID
-					+ "): " + subscriptionContext.currentTransactionOperations);
-			// Tell Streams application that a commit has taken place
-			streamsWriter.doCommit(subscriptionContext.currentTransactionTimestamp,
-					subscriptionContext.currentTransactionID);
+			if (trace.isEnabled())
+				trace.write("Number of operations in current transaction (ID={}): {}",
+						subscriptionContext.currentTransactionID, subscriptionContext.currentTransactionOperations);
+			// Tell Streams application that a commit has taken place, on every
+			// partition so that all of them see the transaction boundary
+			for (CDCStreamsWriter writer : streamsWriters)
+				writer.doCommit(subscriptionContext.currentTransactionTimestamp,
+						subscriptionContext.currentTransactionID);
+			statistics.transactionCommitted();
 			currentTransactions++;
-			trace.write("Number of pending transactions: " + currentTransactions);
+			trace.write("Number of pending transactions: {}", currentTransactions);
 			subscriptionContext.currentTransactionOperations = 0;
 		}
 
 		// Check if the handshake must be done
 		if (currentTransactions >= settings.handshakeAfterMaxTransactions
 				|| subscriptionContext.timer.isHandshakeDue()) {
-			trace.write("Handshake will be done. Number of transactions: " + currentTransactions + ", timed handshake: "
-					+ subscriptionContext.timer.isHandshakeDue());
-			commit = streamsWriter.doHandshake();
+			if (trace.isEnabled())
+				trace.write("Handshake will be done. Number of transactions: {}, timed handshake: {}",
+						currentTransactions, subscriptionContext.timer.isHandshakeDue());
+			commit = doHandshake();
 			currentTransactions = 0;
 			subscriptionContext.timer.resetTimer();
 		}
 
-		streamsWriter.flushOutput();
-		trace.write("Commit transaction(s): " + commit);
+		for (CDCStreamsWriter writer : streamsWriters)
+			writer.commitOutput();
+		trace.write("Commit transaction(s): {}", Boolean.valueOf(commit));
 		return commit;
 	}
 
+	/**
+	 * Performs the handshake on all partitions. The handshakes are requested
+	 * on all connections before the acknowledgements are awaited, and the
+	 * bookmark may only be committed if every partition acknowledged.
+	 * 
+	 * @return true if the bookmark can be committed
+	 */
+	private boolean doHandshake() throws UserExitException {
+		for (CDCStreamsWriter writer : streamsWriters)
+			writer.requestHandshake();
+		boolean acknowledged = true;
+		for (CDCStreamsWriter writer : streamsWriters) {
+			if (!writer.completeHandshake())
+				acknowledged = false;
+		}
+		if (acknowledged) {
+			for (CDCStreamsWriter writer : streamsWriters)
+				writer.bookmarkCommitted();
+		}
+		return acknowledged;
+	}
+
 	/**
 	 * Table-level initialization.
 	 * 
@@ -217,7 +299,16 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		if (fixColumnsMatcher.find()) {
 			fixColumnsParm = fixColumnsMatcher.group(1);
 			trace.writeAlways("fixColumns parameter specified: " + fixColumnsParm);
-			fixColumns = new ArrayList<String>(Arrays.asList(fixColumnsParm.split(",")));
+			fixColumns = new HashSet<String>(Arrays.asList(fixColumnsParm.split(",")));
+			if (settings.escapeData)
+				trace.writeAlways("fixColumns parameter is ignored because escapeData is enabled");
+		}
+		// Check if the keyColumns parameter was passed to the user exit
+		Pattern keyColumnsPattern = Pattern.compile("keyColumns=((\\w+,?)*)");
+		Matcher keyColumnsMatcher = keyColumnsPattern.matcher(ueParameter);
+		if (keyColumnsMatcher.find()) {
+			keyColumnsParm = keyColumnsMatcher.group(1);
+			trace.writeAlways("keyColumns parameter specified: " + keyColumnsParm);
 		}
 
 		// Subscribe to Before-Insert/Update/Delete events
@@ -269,79 +360,84 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 			}
 
 			DataRecordIF image = (afterImage != null) ? afterImage : beforeImage;
-			// Generate the empty before image and empty after image based on
-			// the number of table columns replicated
+			// Determine the number of table columns replicated, this is used
+			// for every image and to generate empty before and after images
 			for (int i = 1; i <= image.getColumnCount(); i++) {
 				if (image.getColumnName(i).startsWith("&"))
 					break;
-				if (i != 1)
-					emptyBeforeImage += settings.separator;
-				emptyAfterImage += settings.separator;
-
+				columnCount = i;
 			}
-			trace.write("Empty image: " + emptyBeforeImage);
+			trace.write("Number of replicated columns: {}", columnCount);
+			fixColumn = new boolean[columnCount + 1];
+			for (int i = 1; i <= columnCount; i++)
+				fixColumn[i] = fixColumns.contains(image.getColumnName(i));
+
+			// The record type and table name are the same for every record,
+			// encode them only once for every partition
+			partitionEncoders = new CDCStreamsRecordEncoder[streamsWriters.length];
+			partitionRecordPrefixes = new byte[streamsWriters.length][];
+			for (int p = 0; p < streamsWriters.length; p++) {
+				partitionEncoders[p] = streamsWriters[p].getRecordEncoder();
+				partitionRecordPrefixes[p] = partitionEncoders[p].encodePrefix(CDCStreamsProtocol.DATA, txTableName);
+			}
+			if (streamsWriters.length > 1)
+				initPartitioning(image);
+			tableOperations = statistics.getTableCounter(txTableName);
 			firstTime = false;
 		}
-		trace.write("Table: " + txTableName);
-		trace.write("Timestamp: " + subscriptionContext.currentTransactionTimestamp);
-		trace.write("Transaction ID: " + subscriptionContext.currentTransactionID);
-		trace.write("Operation type: " + entryType);
-		trace.write("User: " + transactionUser);
+		trace.write("Table: {}", txTableName);
+		trace.write("Timestamp: {}", subscriptionContext.currentTransactionTimestamp);
+		trace.write("Transaction ID: {}", subscriptionContext.currentTransactionID);
+		trace.write("Operation type: {}", entryType);
+		trace.write("User: {}", transactionUser);
+
+		// Route the record to its partition; records with the same key (or of
+		// the same table) always go to the same partition to keep their order
+		int partition = tablePartition;
+		if (keyColumnIndexes != null)
+			partition = getKeyPartition((afterImage != null) ? afterImage : beforeImage);
+		encoder = partitionEncoders[partition];
+		recordPrefix = partitionRecordPrefixes[partition];
+		streamsWriters[partition].acquireCredit();
 
 		// Prepare the journal information to be included in the output record,
 		// respectively the fully qualified table name, the timestamp of the
 		// commit, the transaction ID at the source, the type of operation and
 		// finally the user who did the operation at the source
-		String printLine = ("d" + settings.metadataSeparator + txTableName + settings.metadataSeparator
-				+ subscriptionContext.currentTransactionTimestamp + settings.metadataSeparator
-				+ subscriptionContext.currentTransactionID + settings.metadataSeparator + entryType
-				+ settings.metadataSeparator + transactionUser + settings.metadataSeparator);
+		encoder.startRecord(recordPrefix);
+		encoder.appendField(subscriptionContext.currentTransactionTimestamp);
+		encoder.appendField(subscriptionContext.currentTransactionID);
+		encoder.appendField(entryType);
+		encoder.appendField(transactionUser);
+
+		// The data field holds the before-image columns followed by the
+		// after-image columns
+		encoder.startField();
 
 		// Write column-level information for the before-image (update + delete)
 		if (beforeImage != null) {
-			for (int i = 1; i <= beforeImage.getColumnCount(); i++) {
-				// Ensure that only the table's columns are written in the data
-				// section, not the journal control columns
-				if (beforeImage.getColumnName(i).startsWith("&"))
-					break;
-				try {
-					if (i != 1)
-						printLine += settings.separator;
-					if (beforeImage.getObject(i) != null)
-						printLine += getFixedColumnContents(beforeImage.getColumnName(i),
-								beforeImage.getObject(i).toString());
-				} catch (DataTypeConversionException e) {
-					trace.write(e.getMessage());
-				}
-			}
+			appendImage(beforeImage);
 		} else {
 			trace.write("Before image is empty");
-			printLine += emptyBeforeImage;
+			appendEmptyImage();
 		}
 
+		encoder.appendSeparator();
+
 		// Write column-level information for the after-image (insert+update)
 		if (afterImage != null) {
-			for (int i = 1; i <= afterImage.getColumnCount(); i++) {
-				// Ensure that only the table's columns are written in the data
-				// section, not the journal control columns
-				if (afterImage.getColumnName(i).startsWith("&"))
-					break;
-				try {
-					printLine += settings.separator;
-					if (afterImage.getObject(i) != null)
-						printLine += getFixedColumnContents(afterImage.getColumnName(i),
-								afterImage.getObject(i).toString());
-				} catch (DataTypeConversionException e) {
-					trace.write(e.getMessage());
-				}
-			}
+			appendImage(afterImage);
 		} else {
 			trace.write("After image is empty");
-			printLine += emptyAfterImage;
+			appendEmptyImage();
 		}
 
-		// Write the line
-		streamsWriter.writeStreams(printLine);
+		encoder.endField();
+		encoder.endRecord();
+
+		// Write the record
+		streamsWriters[partition].writeEncodedRecord();
+		statistics.operationWritten(tableOperations);
 
 		subscriptionContext.currentTransactionOperations++;
 
@@ -350,22 +446,92 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 	}
 
 	/**
-	 * Checks if the contents of the column must potentially be fixed (separator
-	 * and new line characters removed) and returns the fixed content
+	 * Determines how the records of the table are partitioned: by the hash of
+	 * the key columns if the subscription is partitioned by key and the
+	 * keyColumns parameter has been specified, otherwise by the hash of the
+	 * table name.
+	 * 
+	 * @param image
+	 *            Image of the first record, used to look up the key columns
+	 */
+	private void initPartitioning(DataRecordIF image) throws UserExitException {
+		tablePartition = Math.floorMod(txTableName.hashCode(), streamsWriters.length);
+		if (!settings.partitionBy.equalsIgnoreCase("key"))
+			return;
+		if (keyColumnsParm == null) {
+			trace.writeAlways("No keyColumns parameter specified for table " + txTableName
+					+ ", its records are partitioned by table");
+			return;
+		}
+		String[] keyColumns = keyColumnsParm.split(",");
+		keyColumnIndexes = new int[keyColumns.length];
+		for (int k = 0; k < keyColumns.length; k++) {
+			for (int i = 1; i <= columnCount; i++) {
+				if (image.getColumnName(i).equals(keyColumns[k]))
+					keyColumnIndexes[k] = i;
+			}
+			if (keyColumnIndexes[k] == 0)
+				throw new UserExitException("Key column " + keyColumns[k] + " specified in the keyColumns parameter "
+						+ "does not exist in table " + txTableName);
+		}
+	}
+
+	/**
+	 * Returns the partition of a record that is partitioned by key. For
+	 * updates, the key of the after image determines the partition; changes
+	 * to the key columns are therefore not ordered with the earlier changes
+	 * of the old key.
+	 * 
+	 * @param image
+	 *            After image, or before image for deletes
+	 */
+	private int getKeyPartition(DataRecordIF image) {
+		int hash = 1;
+		for (int index : keyColumnIndexes) {
+			int valueHash = 0;
+			try {
+				Object value = image.getObject(index);
+				if (value instanceof byte[])
+					valueHash = Arrays.hashCode((byte[]) value);
+				else if (value != null)
+					valueHash = value.hashCode();
+			} catch (DataTypeConversionException e) {
+				trace.write(e.getMessage());
+			}
+			hash = 31 * hash + valueHash;
+		}
+		return Math.floorMod(hash ^ (hash >>> 16), streamsWriters.length);
+	}
+
+	/**
+	 * Appends the table columns of the image to the data field of the current
+	 * record. Only the table's columns are written in the data section, not
+	 * the journal control columns.
 	 * 
-	 * @param columnName
-	 *            Name of the column
-	 * @param columnValue
-	 *            Contents of the column
-	 * @return
+	 * @param image
+	 *            Before or after image of the row
 	 */
-	private String getFixedColumnContents(String columnName, String columnValue) {
-		String fixedValue = columnValue;
-		if (!fixColumns.isEmpty() && fixColumns.contains(columnName)) {
-			fixedValue = columnValue.replaceAll("[\r\n" + settings.separator + "]",
-					settings.fixColumnConversionCharacter);
+	private void appendImage(DataRecordIF image) {
+		for (int i = 1; i <= columnCount; i++) {
+			if (i != 1)
+				encoder.appendSeparator();
+			try {
+				Object columnValue = image.getObject(i);
+				if (columnValue != null)
+					encoder.appendColumn(columnValue, fixColumn[i]);
+			} catch (DataTypeConversionException e) {
+				trace.write(e.getMessage());
+			}
 		}
-		return fixedValue;
+	}
+
+	/**
+	 * Appends an image with empty columns to the data field of the current
+	 * record.
+	 */
+	private void appendEmptyImage() {
+		for (int i = 2; i <= columnCount; i++)
+			encoder.appendSeparator();
 	}
 
 	/**
@@ -396,13 +562,18 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 	public void finish() {
 		if (calledAtSubscriptionLevel) {
 			trace.write("finish() start");
-			try {
-				streamsWriter.doFinalize();
-			} catch (UserExitException ignore) {
+			for (CDCStreamsWriter writer : streamsWriters) {
+				try {
+					writer.doFinalize();
+				} catch (UserExitException ignore) {
+				}
 			}
-			streamsWriter.close();
 			subscriptionContext.timer.stop();
+			for (CDCStreamsWriter writer : streamsWriters)
+				writer.close();
+			statistics.unregister();
 			trace.write("finish() end");
+			trace.close();
 		}
 		return;
 	}
@@ -473,7 +644,10 @@ public class CDCStreams implements UserExitIF, SubscriptionUserExitIF {
 		protected String publisherID; // Publisher ID for subscription
 		protected CDCStreamsWriter streamsWriter; // Writes to Streams
 													// application
+		protected CDCStreamsWriter[] streamsWriters; // Writers of all
+														// partitions
 		protected CDCStreamsTimer timer; // Timer to control handshake
+		protected CDCStreamsStatistics statistics; // Exposed through JMX
 		protected String currentTransactionID; // Current transaction ID
 		protected String currentTransactionTimestamp; // Last timestamp of tx
 		protected long currentTransactionOperations; // Number of operations
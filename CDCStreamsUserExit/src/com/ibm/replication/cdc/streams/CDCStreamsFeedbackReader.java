@@ -0,0 +1,297 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import com.ibm.replication.cdc.common.*;
+
+/**
+ * This subclass is used to run a background thread that reads the handshake
+ * acknowledgements and credit sent by the CDCSource operator. It is only
+ * started when more than one handshake may be in flight (handshakeMaxInFlight),
+ * so that the CDC apply thread does not have to wait for the feedback of every
+ * handshake, when CDCSource limits the records by credit, which it grants at
+ * any time, or when the session is resumed after a lost connection, which the
+ * reader may notice first.
+ *
+ * Every handshake record carries a sequence number which is echoed by the
+ * CDCSource operator; the reader keeps track of the highest acknowledged
+ * sequence number and of the credit limit. The thread ends when the feedback
+ * stream is closed, unless the session can be resumed: then it reports the
+ * lost connection and continues with the feedback stream of the new
+ * connection. While the connection is being resumed, waiting for an
+ * acknowledgement or credit does not time out.
+ */
+public class CDCStreamsFeedbackReader implements Runnable {
+	private volatile boolean stop = false;
+	private volatile boolean stopped = false;
+	private volatile String failure = null;
+
+	private final String metadataSeparator;
+	private final Object feedbackLock = new Object();
+	private volatile long acknowledgedSequence = 0;
+	private volatile long creditLimit = 0;
+
+	// Feedback stream of the current connection and the number of times it
+	// has been replaced, guarded by the feedback lock
+	private BufferedReader feedbackStream;
+	private long streamGeneration = 0;
+	private volatile boolean reconnecting = false;
+	private Runnable connectionLostListener = null;
+	private final long reconnectTimeoutMs;
+
+	UETrace trace;
+
+	public CDCStreamsFeedbackReader(BufferedReader feedbackStream, UESettings settings, UETrace trace) {
+		this.feedbackStream = feedbackStream;
+		this.metadataSeparator = settings.metadataSeparator;
+		// Resuming is retried for tcpConnectionTimeoutSeconds, the last attempt
+		// may take as long to connect and initCDCSourceTimeoutSeconds to resume
+		this.reconnectTimeoutMs = 1000L
+				* (2 * settings.tcpConnectionTimeoutSeconds + settings.initCDCSourceTimeoutSeconds)
+				+ settings.handshakeTimeoutMs;
+		this.trace = trace;
+	}
+
+	/**
+	 * Stops the thread; the feedback stream must be closed to end a blocking
+	 * read
+	 */
+	protected void stop() {
+		stop = true;
+		synchronized (feedbackLock) {
+			feedbackLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Makes the reader wait for a new feedback stream when the connection is
+	 * lost, after notifying the listener, instead of failing.
+	 */
+	protected void setConnectionLostListener(Runnable connectionLostListener) {
+		this.connectionLostListener = connectionLostListener;
+	}
+
+	/**
+	 * Registers that the connection is being resumed, so that waiting for
+	 * acknowledgements and credit does not time out meanwhile.
+	 */
+	protected void reconnecting() {
+		reconnecting = true;
+	}
+
+	/**
+	 * Continues reading from the feedback stream of the new connection on
+	 * which the session has been resumed.
+	 */
+	protected void resume(BufferedReader feedbackStream) {
+		synchronized (feedbackLock) {
+			this.feedbackStream = feedbackStream;
+			streamGeneration++;
+			reconnecting = false;
+			feedbackLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Registers that the session could not be resumed.
+	 */
+	protected void fail(String reason) {
+		synchronized (feedbackLock) {
+			failure = reason;
+			reconnecting = false;
+			feedbackLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns if the thread has been stopped
+	 */
+	protected boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns the reason why feedback can no longer be read, or null if the
+	 * reader is still active
+	 */
+	protected String getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Returns the highest handshake sequence number acknowledged by the
+	 * CDCSource operator
+	 */
+	protected long getAcknowledgedSequence() {
+		return acknowledgedSequence;
+	}
+
+	/**
+	 * Returns the total number of data records that the CDCSource operator has
+	 * granted credit for
+	 */
+	protected long getCreditLimit() {
+		return creditLimit;
+	}
+
+	/**
+	 * Waits until the CDCSource operator has granted credit for the given
+	 * total number of data records.
+	 *
+	 * @param dataRecords
+	 *            Total number of data records to be sent
+	 * @param timeoutMs
+	 *            Maximum wait time
+	 * @return true if the credit was granted in time
+	 */
+	protected boolean waitForCredit(long dataRecords, long timeoutMs) {
+		long endTimestamp = System.currentTimeMillis() + timeoutMs;
+		synchronized (feedbackLock) {
+			while (creditLimit < dataRecords && failure == null) {
+				long remainingMs = endTimestamp - System.currentTimeMillis();
+				if (remainingMs <= 0 && reconnecting) {
+					endTimestamp = System.currentTimeMillis() + timeoutMs;
+					remainingMs = timeoutMs;
+				}
+				if (remainingMs <= 0)
+					return false;
+				try {
+					feedbackLock.wait(remainingMs);
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+			return creditLimit >= dataRecords;
+		}
+	}
+
+	/**
+	 * Waits until the handshake with the given sequence number (or a later
+	 * one) has been acknowledged.
+	 *
+	 * @param sequence
+	 *            Handshake sequence number to wait for
+	 * @param timeoutMs
+	 *            Maximum wait time
+	 * @return true if the handshake was acknowledged in time
+	 */
+	protected boolean waitForAcknowledgement(long sequence, long timeoutMs) {
+		long endTimestamp = System.currentTimeMillis() + timeoutMs;
+		synchronized (feedbackLock) {
+			while (acknowledgedSequence < sequence && failure == null) {
+				long remainingMs = endTimestamp - System.currentTimeMillis();
+				if (remainingMs <= 0 && reconnecting) {
+					endTimestamp = System.currentTimeMillis() + timeoutMs;
+					remainingMs = timeoutMs;
+				}
+				if (remainingMs <= 0)
+					return false;
+				try {
+					feedbackLock.wait(remainingMs);
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+			return acknowledgedSequence >= sequence;
+		}
+	}
+
+	/**
+	 * This method is run when the thread is started. It reads feedback lines
+	 * until the stream is closed and registers every handshake acknowledgement
+	 * and credit. If the session can be resumed, it continues with the stream
+	 * of the new connection.
+	 */
+	public void run() {
+		trace.write("Feedback reader started");
+		while (!stop && failure == null) {
+			BufferedReader stream;
+			long generation;
+			synchronized (feedbackLock) {
+				stream = feedbackStream;
+				generation = streamGeneration;
+			}
+			String lostReason = readFeedback(stream);
+			if (stop)
+				break;
+			if (connectionLostListener == null) {
+				failure = lostReason;
+				break;
+			}
+			awaitResume(generation, lostReason);
+		}
+		if (failure != null)
+			trace.writeAlways(failure);
+		synchronized (feedbackLock) {
+			feedbackLock.notifyAll();
+		}
+		stopped = true;
+	}
+
+	/**
+	 * Waits until the session has been resumed on a new connection, reporting
+	 * the lost connection if the stream has not been replaced yet. Fails if
+	 * the session has not been resumed within the time needed to connect.
+	 */
+	private void awaitResume(long generation, String lostReason) {
+		trace.writeAlways(lostReason + ", waiting for the session to be resumed");
+		// The connection may have been resumed already by the sender of the
+		// records, which must not reconnect again
+		synchronized (feedbackLock) {
+			if (streamGeneration != generation)
+				return;
+			reconnecting = true;
+			connectionLostListener.run();
+		}
+		long endTimestamp = System.currentTimeMillis() + reconnectTimeoutMs;
+		synchronized (feedbackLock) {
+			while (streamGeneration == generation && failure == null && !stop) {
+				long remainingMs = endTimestamp - System.currentTimeMillis();
+				if (remainingMs <= 0) {
+					failure = "Session was not resumed within " + reconnectTimeoutMs + " milliseconds after: "
+							+ lostReason;
+					reconnecting = false;
+					return;
+				}
+				try {
+					feedbackLock.wait(remainingMs);
+				} catch (InterruptedException e) {
+					failure = "Interrupted while waiting for the session to be resumed";
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads feedback lines from the stream until it ends.
+	 *
+	 * @return Reason why the stream ended
+	 */
+	private String readFeedback(BufferedReader stream) {
+		try {
+			String feedback;
+			while (!stop && (feedback = stream.readLine()) != null) {
+				trace.write("Feedback received from CDCSource: {}", feedback);
+				long sequence = CDCStreamsProtocol.getHandshakeSequence(feedback, metadataSeparator);
+				if (sequence > acknowledgedSequence) {
+					synchronized (feedbackLock) {
+						acknowledgedSequence = sequence;
+						feedbackLock.notifyAll();
+					}
+				}
+				long limit = CDCStreamsProtocol.getCreditLimit(feedback, metadataSeparator);
+				if (limit > creditLimit) {
+					synchronized (feedbackLock) {
+						creditLimit = limit;
+						feedbackLock.notifyAll();
+					}
+				}
+			}
+			return "Connection closed by the CDCSource operator";
+		} catch (IOException e) {
+			return "Error while reading feedback, message: " + e.getMessage();
+		}
+	}
+}
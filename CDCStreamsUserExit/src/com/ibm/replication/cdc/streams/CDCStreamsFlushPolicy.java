@@ -0,0 +1,123 @@
+package com.ibm.replication.cdc.streams;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.replication.cdc.common.*;
+
+/**
+ * Decides when the records buffered by the writer are flushed to the target,
+ * as configured with the flushPolicy property:
+ * <ul>
+ * <li>commit: the output is flushed for every committed transaction; records
+ * of a transaction that is still open are flushed once the oldest of them has
+ * been buffered for flushMaxDelayMicros</li>
+ * <li>bounded: the output is flushed when flushMaxBytes bytes are buffered or
+ * the oldest buffered record has been buffered for flushMaxDelayMicros,
+ * whichever comes first, regardless of commits</li>
+ * <li>adaptive: like bounded, but the number of bytes and the delay are
+ * derived from the observed commit rate. When the next commit is not
+ * expected within the delay, waiting for more records does not result in
+ * larger writes and the output is flushed at the commit</li>
+ * </ul>
+ * Handshakes always flush the output, so the policy never holds back records
+ * that a handshake confirms.
+ *
+ * The policy is only used while holding the output lock of the writer.
+ */
+public class CDCStreamsFlushPolicy {
+
+	public static final String POLICY_COMMIT = "commit";
+	public static final String POLICY_BOUNDED = "bounded";
+	public static final String POLICY_ADAPTIVE = "adaptive";
+
+	// Weight of a new observation in the moving averages of the commit
+	// interval and the bytes per commit
+	private static final double SMOOTHING = 0.125;
+
+	// The adaptive byte threshold does not drop below this fraction of
+	// flushMaxBytes; the threshold is only updated at commit, so a burst or a
+	// large transaction after a quiet period would otherwise be flushed after
+	// every record
+	private static final int MIN_BYTES_DIVISOR = 4;
+
+	private final boolean flushAtCommit;
+	private final boolean adaptive;
+	private final long configuredMaxBytes;
+	private final long configuredMaxDelayNanos;
+	private final long minBytes;
+
+	private long maxBytes;
+	private long maxDelayNanos;
+
+	// Observations of the adaptive policy
+	private long lastCommitNanos = 0;
+	private double averageCommitIntervalNanos = 0;
+	private double averageCommitBytes = 0;
+
+	public CDCStreamsFlushPolicy(UESettings settings, UETrace trace) {
+		configuredMaxBytes = settings.flushMaxBytes;
+		configuredMaxDelayNanos = TimeUnit.MICROSECONDS.toNanos(settings.flushMaxDelayMicros);
+		if (settings.flushPolicy.equalsIgnoreCase(POLICY_BOUNDED)) {
+			flushAtCommit = false;
+			adaptive = false;
+		} else if (settings.flushPolicy.equalsIgnoreCase(POLICY_ADAPTIVE)) {
+			flushAtCommit = false;
+			adaptive = true;
+		} else {
+			if (!settings.flushPolicy.equalsIgnoreCase(POLICY_COMMIT))
+				trace.writeAlways("Unknown flushPolicy " + settings.flushPolicy + ", output will be flushed at commit");
+			flushAtCommit = true;
+			adaptive = false;
+		}
+		minBytes = Math.max(1, configuredMaxBytes / MIN_BYTES_DIVISOR);
+		maxBytes = flushAtCommit ? Long.MAX_VALUE : configuredMaxBytes;
+		maxDelayNanos = configuredMaxDelayNanos;
+	}
+
+	/**
+	 * Returns the number of buffered bytes at which the output is flushed.
+	 */
+	protected long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the time after which a buffered record is flushed, 0 if records
+	 * are not flushed based on time.
+	 */
+	protected long getMaxDelayNanos() {
+		return maxDelayNanos;
+	}
+
+	/**
+	 * Registers a commit and returns whether the output must be flushed.
+	 *
+	 * @param nowNanos
+	 *            Monotonic time of the commit
+	 * @param bytes
+	 *            Number of bytes written for the transaction, including the
+	 *            commit record
+	 */
+	protected boolean isFlushAtCommit(long nowNanos, long bytes) {
+		if (flushAtCommit)
+			return true;
+		if (!adaptive)
+			return false;
+		if (lastCommitNanos == 0) {
+			lastCommitNanos = nowNanos;
+			return true;
+		}
+		averageCommitIntervalNanos += SMOOTHING * ((nowNanos - lastCommitNanos) - averageCommitIntervalNanos);
+		averageCommitBytes += SMOOTHING * (bytes - averageCommitBytes);
+		lastCommitNanos = nowNanos;
+
+		// Write the bytes expected within the configured delay in one go, or
+		// flush earlier if the configured number of bytes is reached before
+		double bytesPerNano = averageCommitBytes / Math.max(averageCommitIntervalNanos, 1);
+		maxBytes = Math.max(minBytes, Math.min(configuredMaxBytes, (long) (bytesPerNano * configuredMaxDelayNanos)));
+		maxDelayNanos = (bytesPerNano > 0)
+				? Math.min(configuredMaxDelayNanos, (long) (configuredMaxBytes / bytesPerNano))
+				: configuredMaxDelayNanos;
+		return averageCommitIntervalNanos >= maxDelayNanos;
+	}
+}
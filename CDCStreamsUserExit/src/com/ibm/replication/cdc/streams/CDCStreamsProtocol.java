@@ -0,0 +1,195 @@
+package com.ibm.replication.cdc.streams;
+
+/**
+ * Describes the records exchanged between the user exit and the CDCSource
+ * operator.
+ *
+ * Every record has a type (data, commit, handshake, initialize or finalize)
+ * followed by a number of fields. In the text protocol, the record is a single
+ * line where the fields are separated by the metadata separator. In the binary
+ * protocol every record is sent as a frame:
+ * <ul>
+ * <li>int32 (big-endian): length of the remainder of the frame</li>
+ * <li>byte: record type</li>
+ * <li>for every field: int32 length followed by the UTF-8 encoded value</li>
+ * </ul>
+ * The protocol is negotiated during the initialization exchange: CDCSource
+ * lists its capabilities in the readiness line it sends when the connection is
+ * accepted and the user exit lists the options it has chosen in its
+ * initialization record, followed by the identification of the subscription.
+ * All records following the initialization record use the chosen protocol.
+ * Feedback sent by CDCSource is always in text format.
+ *
+ * Handshake records carry a sequence number that increases with every
+ * handshake of the connection. The CDCSource operator echoes the handshake
+ * record, so the acknowledgement identifies the handshake it confirms.
+ *
+ * CDCSource operators with a credit window advertise the credit capability.
+ * If the user exit chooses the credit option, CDCSource sends credit lines
+ * (w, timestamp, limit) with the total number of data records that the user
+ * exit may have sent on the connection; the user exit waits before writing a
+ * data record beyond the limit.
+ *
+ * If the user exit chooses the resume option, its initialization record also
+ * holds a session identifier and the stream position of the last acknowledged
+ * handshake; the stream position counts the uncompressed bytes of the records
+ * that follow the first initialization record of the session. CDCSource
+ * answers with a resume line (r, timestamp, position) holding the position at
+ * which the user exit continues sending, so that a session survives a lost
+ * connection.
+ *
+ * If escaping is enabled, special characters in the column values are escaped
+ * with a backslash so that the data can contain any character and still be
+ * split and restored exactly by the CDCParse operator:
+ * <ul>
+ * <li>\\ for the backslash</li>
+ * <li>\n and \r for line feed and carriage return</li>
+ * <li>\ followed by the separator character for the column separator</li>
+ * <li>\ followed by u and four hexadecimal digits for the metadata
+ * separator</li>
+ * </ul>
+ * With the text protocol, the metadata fields are escaped in the same way
+ * (except for the column separator) and restored by the CDCSource operator.
+ */
+public class CDCStreamsProtocol {
+
+	// Record types
+	public static final char DATA = 'd';
+	public static final char COMMIT = 'c';
+	public static final char HANDSHAKE = 'h';
+	public static final char INITIALIZE = 'i';
+	public static final char FINALIZE = 'f';
+	public static final char HEARTBEAT = 'k';
+	// Feedback line with the credit granted by CDCSource
+	public static final char CREDIT = 'w';
+	// Feedback line with the stream position at which the session continues
+	public static final char RESUME = 'r';
+
+	// Options negotiated during the initialization exchange
+	public static final String OPTION_BINARY = "binary";
+	public static final String OPTION_ESCAPE = "escape";
+	// Capability of CDCSource operators that accept heartbeat records
+	public static final String OPTION_HEARTBEAT = "heartbeat";
+	// Option for records that follow the initialization record compressed
+	// with deflate
+	public static final String OPTION_DEFLATE = "deflate";
+	// Option for data records that are limited by the credit granted by
+	// CDCSource
+	public static final String OPTION_CREDIT = "credit";
+	// Option for sessions that continue on a new connection when the
+	// connection is lost
+	public static final String OPTION_RESUME = "resume";
+
+	// Protocol settings in the properties file
+	public static final String PROTOCOL_TEXT = "text";
+	public static final String PROTOCOL_BINARY = "binary";
+
+	// Compression settings in the properties file
+	public static final String COMPRESSION_NONE = "none";
+	public static final String COMPRESSION_DEFLATE = "deflate";
+
+	// Separator of the options in the initialization records
+	public static final String OPTION_SEPARATOR = ",";
+
+	// Character that starts an escape sequence
+	public static final char ESCAPE_CHARACTER = '\\';
+
+	// Index of the sequence number in handshake records and acknowledgements
+	public static final int HANDSHAKE_SEQUENCE_FIELD = 3;
+
+	// Index of the number of data records in credit lines
+	public static final int CREDIT_LIMIT_FIELD = 2;
+
+	// Index of the stream position in resume lines
+	public static final int RESUME_POSITION_FIELD = 2;
+
+	// Size of the length prefix of frames and fields in the binary protocol
+	public static final int LENGTH_PREFIX_SIZE = 4;
+
+	/**
+	 * Checks whether an option is present in the comma-separated list of
+	 * options received from (or sent to) the CDCSource operator.
+	 *
+	 * @param optionList
+	 *            Comma-separated list of options, may be null
+	 * @param option
+	 *            Option to look for
+	 * @return true if the option is in the list
+	 */
+	public static boolean hasOption(String optionList, String option) {
+		if (optionList == null)
+			return false;
+		for (String listedOption : optionList.split(OPTION_SEPARATOR)) {
+			if (listedOption.trim().equalsIgnoreCase(option))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Extracts the sequence number from a handshake acknowledgement received
+	 * from the CDCSource operator.
+	 *
+	 * @param feedback
+	 *            Feedback line
+	 * @param metadataSeparator
+	 *            Separator of the fields in the feedback line
+	 * @return Sequence number, or -1 if the feedback is not a handshake
+	 *         acknowledgement with a sequence number
+	 */
+	public static long getHandshakeSequence(String feedback, String metadataSeparator) {
+		if (feedback == null || feedback.isEmpty() || feedback.charAt(0) != HANDSHAKE)
+			return -1;
+		String[] feedbackElements = feedback.split(metadataSeparator);
+		if (feedbackElements.length <= HANDSHAKE_SEQUENCE_FIELD)
+			return -1;
+		try {
+			return Long.parseLong(feedbackElements[HANDSHAKE_SEQUENCE_FIELD]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Extracts the credit limit from a credit line received from the
+	 * CDCSource operator.
+	 *
+	 * @param feedback
+	 *            Feedback line
+	 * @return Total number of data records that may have been sent, or -1 if
+	 *         the feedback is not a credit line
+	 */
+	public static long getCreditLimit(String feedback, String metadataSeparator) {
+		return getNumericField(feedback, CREDIT, CREDIT_LIMIT_FIELD, metadataSeparator);
+	}
+
+	/**
+	 * Extracts the stream position from a resume line received from the
+	 * CDCSource operator.
+	 *
+	 * @param feedback
+	 *            Feedback line
+	 * @return Stream position at which the session continues, or -1 if the
+	 *         feedback is not a resume line
+	 */
+	public static long getResumePosition(String feedback, String metadataSeparator) {
+		return getNumericField(feedback, RESUME, RESUME_POSITION_FIELD, metadataSeparator);
+	}
+
+	/**
+	 * Extracts a non-negative number from a field of a feedback line of the
+	 * given type, -1 if the line has a different type or no such field.
+	 */
+	private static long getNumericField(String feedback, char type, int field, String metadataSeparator) {
+		if (feedback == null || feedback.isEmpty() || feedback.charAt(0) != type)
+			return -1;
+		String[] feedbackElements = feedback.split(metadataSeparator);
+		if (feedbackElements.length <= field)
+			return -1;
+		try {
+			return Long.parseLong(feedbackElements[field]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
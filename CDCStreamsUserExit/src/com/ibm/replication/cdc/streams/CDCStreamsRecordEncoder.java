@@ -0,0 +1,368 @@
+package com.ibm.replication.cdc.streams;
+
+import java.nio.charset.Charset;
+
+import com.ibm.replication.cdc.common.*;
+
+/**
+ * Encodes records into a reusable byte buffer, in the format of the protocol
+ * that was negotiated with the target (see {@link CDCStreamsProtocol}).
+ *
+ * The encoder is owned by the CDCStreamsWriter of the subscription and is only
+ * used from the CDC apply thread. Strings are encoded to UTF-8 directly into
+ * the buffer so that building a record does not create intermediate objects;
+ * once the buffer has grown to the size of the widest record, encoding does not
+ * allocate any memory.
+ *
+ * If escaping is enabled, the special characters in column values (and in
+ * metadata fields when the text protocol is used) are escaped in a single pass
+ * using a lookup table indexed by character; see {@link CDCStreamsProtocol}.
+ * Numbers, SQL dates and booleans are written without checking for special
+ * characters if none of the characters they can consist of needs escaping.
+ * Without escaping, the characters of the columns listed in the fixColumns
+ * parameter are replaced by the fixColumnConversionCharacter instead.
+ *
+ * A record is built as follows:
+ * <ul>
+ * <li>startRecord() with the (pre-encoded) record type and first field</li>
+ * <li>appendField() for every subsequent field, or startField(), appendValue()
+ * and appendSeparator() calls and endField() for a field that is assembled from
+ * multiple values, such as the column data</li>
+ * <li>endRecord() to complete the record</li>
+ * </ul>
+ */
+public class CDCStreamsRecordEncoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	// Entries of the escape tables: 0 copies the character, REPLACE writes
+	// the fixColumnConversionCharacter, UNICODE writes a Unicode escape sequence, any
+	// other value is written after the escape character
+	private static final char REPLACE = '\uffff';
+	private static final char UNICODE = 'u';
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	// Characters of which the string representation of numbers, SQL dates and
+	// booleans consists
+	private static final String PLAIN_VALUE_CHARACTERS = "0123456789+-.:E NaInfityruels";
+
+	private final byte[] metadataSeparator;
+	private final byte[] separator;
+	private boolean binary = false;
+
+	private final boolean escape;
+	private final char[] dataEscapes;
+	private final char[] metadataEscapes;
+	private final char[] fixReplacements;
+	private final byte[] fixReplacement;
+	// Maximum number of bytes a single character can be encoded to
+	private final int maxCharacterLength;
+	private final boolean plainValuesSafe;
+
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int position = 0;
+	// Position of the length prefix of the current field (binary protocol)
+	private int fieldStart = 0;
+
+	public CDCStreamsRecordEncoder(UESettings settings) {
+		this.metadataSeparator = settings.metadataSeparator.getBytes(UTF8);
+		this.separator = settings.separator.getBytes(UTF8);
+		this.escape = settings.escapeData;
+		this.fixReplacement = settings.fixColumnConversionCharacter.getBytes(UTF8);
+		this.maxCharacterLength = Math.max(6, fixReplacement.length);
+
+		// Build the lookup tables for the characters to be escaped or replaced
+		String specialCharacters = "\r\n" + CDCStreamsProtocol.ESCAPE_CHARACTER + settings.separator
+				+ settings.metadataSeparator;
+		int tableSize = 128;
+		for (int i = 0; i < specialCharacters.length(); i++)
+			tableSize = Math.max(tableSize, specialCharacters.charAt(i) + 1);
+		dataEscapes = new char[tableSize];
+		metadataEscapes = new char[tableSize];
+		fixReplacements = new char[tableSize];
+		for (int i = 0; i < settings.separator.length(); i++) {
+			char c = settings.separator.charAt(i);
+			// Separators that are also escape codes are written as Unicode
+			dataEscapes[c] = (c == 'n' || c == 'r' || c == UNICODE) ? UNICODE : c;
+			fixReplacements[c] = REPLACE;
+		}
+		for (int i = 0; i < settings.metadataSeparator.length(); i++) {
+			dataEscapes[settings.metadataSeparator.charAt(i)] = UNICODE;
+			metadataEscapes[settings.metadataSeparator.charAt(i)] = UNICODE;
+		}
+		for (char[] escapes : new char[][] { dataEscapes, metadataEscapes }) {
+			escapes[CDCStreamsProtocol.ESCAPE_CHARACTER] = CDCStreamsProtocol.ESCAPE_CHARACTER;
+			escapes['\n'] = 'n';
+			escapes['\r'] = 'r';
+		}
+		fixReplacements['\n'] = REPLACE;
+		fixReplacements['\r'] = REPLACE;
+
+		// Check whether the string representation of plain values never
+		// contains a character to be escaped or replaced
+		boolean safe = true;
+		for (int i = 0; i < PLAIN_VALUE_CHARACTERS.length(); i++) {
+			char c = PLAIN_VALUE_CHARACTERS.charAt(i);
+			if (dataEscapes[c] != 0 || fixReplacements[c] != 0)
+				safe = false;
+		}
+		plainValuesSafe = safe;
+	}
+
+	/**
+	 * Returns whether special characters in the column values are escaped
+	 */
+	protected boolean isEscaping() {
+		return escape;
+	}
+
+	/**
+	 * Sets the protocol in which the records are encoded
+	 */
+	protected void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	protected boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Encodes the record type and the first field of a record. As the result
+	 * does not change between records of the same table, it is computed once
+	 * and passed to startRecord() for every record.
+	 *
+	 * @param recordType
+	 *            Type of the record
+	 * @param firstField
+	 *            Value of the first field, for example the table name
+	 * @return Encoded record prefix
+	 */
+	protected byte[] encodePrefix(char recordType, String firstField) {
+		position = 0;
+		buffer[position++] = (byte) recordType;
+		appendField(firstField);
+		byte[] prefix = new byte[position];
+		System.arraycopy(buffer, 0, prefix, 0, position);
+		position = 0;
+		return prefix;
+	}
+
+	/**
+	 * Starts a new record, discarding the previously encoded one.
+	 *
+	 * @param prefix
+	 *            Record prefix as returned by encodePrefix()
+	 */
+	protected void startRecord(byte[] prefix) {
+		position = 0;
+		if (binary)
+			position += CDCStreamsProtocol.LENGTH_PREFIX_SIZE;
+		appendBytes(prefix);
+	}
+
+	/**
+	 * Starts a new record that has no pre-encoded prefix.
+	 */
+	protected void startRecord(char recordType) {
+		position = 0;
+		if (binary)
+			position += CDCStreamsProtocol.LENGTH_PREFIX_SIZE;
+		ensureCapacity(1);
+		buffer[position++] = (byte) recordType;
+	}
+
+	/**
+	 * Appends a complete field to the record.
+	 */
+	protected void appendField(String value) {
+		startField();
+		appendValue(value);
+		endField();
+	}
+
+	/**
+	 * Starts a field that is assembled from multiple values.
+	 */
+	protected void startField() {
+		if (binary) {
+			ensureCapacity(CDCStreamsProtocol.LENGTH_PREFIX_SIZE);
+			fieldStart = position;
+			position += CDCStreamsProtocol.LENGTH_PREFIX_SIZE;
+		} else
+			appendBytes(metadataSeparator);
+	}
+
+	/**
+	 * Appends a value to the current field. With the text protocol the value
+	 * is escaped if escaping is enabled.
+	 */
+	protected void appendValue(String value) {
+		if (value != null) {
+			if (escape && !binary)
+				appendUTF8(value, metadataEscapes);
+			else
+				appendUTF8(value, null);
+		}
+	}
+
+	/**
+	 * Appends a column value to the current field. Special characters are
+	 * escaped if escaping is enabled, otherwise they are replaced if the
+	 * column is one of the fixColumns.
+	 * 
+	 * @param value
+	 *            Column value, not null
+	 * @param fixColumn
+	 *            Whether special characters must be replaced when escaping is
+	 *            disabled
+	 */
+	protected void appendColumn(Object value, boolean fixColumn) {
+		if (value instanceof String) {
+			if (escape)
+				appendUTF8((String) value, dataEscapes);
+			else
+				appendUTF8((String) value, fixColumn ? fixReplacements : null);
+		} else if (plainValuesSafe && isPlainValue(value)) {
+			appendUTF8(value.toString(), null);
+		} else {
+			appendUTF8(value.toString(), escape ? dataEscapes : (fixColumn ? fixReplacements : null));
+		}
+	}
+
+	/**
+	 * Returns whether the value is of a type whose string representation only
+	 * consists of digits, signs, separators of dates and times, or true/false
+	 */
+	private static boolean isPlainValue(Object value) {
+		return value instanceof Number || value instanceof java.sql.Timestamp || value instanceof java.sql.Date
+				|| value instanceof java.sql.Time || value instanceof Boolean;
+	}
+
+	/**
+	 * Appends the column separator to the current field.
+	 */
+	protected void appendSeparator() {
+		appendBytes(separator);
+	}
+
+	/**
+	 * Completes the current field.
+	 */
+	protected void endField() {
+		if (binary)
+			putInt(fieldStart, position - fieldStart - CDCStreamsProtocol.LENGTH_PREFIX_SIZE);
+	}
+
+	/**
+	 * Completes the record; after this the record can be written.
+	 */
+	protected void endRecord() {
+		if (binary)
+			putInt(0, position - CDCStreamsProtocol.LENGTH_PREFIX_SIZE);
+		else {
+			ensureCapacity(1);
+			buffer[position++] = '\n';
+		}
+	}
+
+	protected byte[] getBuffer() {
+		return buffer;
+	}
+
+	protected int getLength() {
+		return position;
+	}
+
+	/**
+	 * Returns the encoded record as a string (for tracing only)
+	 */
+	@Override
+	public String toString() {
+		if (binary)
+			return "<" + position + " bytes>";
+		return new String(buffer, 0, Math.max(0, position - 1), UTF8);
+	}
+
+	private void appendBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void putInt(int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Encodes the string to UTF-8 directly into the buffer, escaping or
+	 * replacing the characters marked in the given table.
+	 * 
+	 * @param value
+	 *            String to be encoded
+	 * @param escapes
+	 *            Table of characters to be escaped or replaced, or null
+	 */
+	private void appendUTF8(String value, char[] escapes) {
+		int length = value.length();
+		// Surrogate pairs take 4 bytes for 2 characters, so the maximum length
+		// of a single character is sufficient
+		ensureCapacity(length * (escapes != null ? maxCharacterLength : 3));
+		byte[] b = buffer;
+		int p = position;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (escapes != null && c < escapes.length && escapes[c] != 0) {
+				char code = escapes[c];
+				if (code == REPLACE) {
+					System.arraycopy(fixReplacement, 0, b, p, fixReplacement.length);
+					p += fixReplacement.length;
+					continue;
+				}
+				b[p++] = CDCStreamsProtocol.ESCAPE_CHARACTER;
+				if (code == UNICODE) {
+					b[p++] = UNICODE;
+					b[p++] = (byte) HEX_DIGITS[(c >> 12) & 0xf];
+					b[p++] = (byte) HEX_DIGITS[(c >> 8) & 0xf];
+					b[p++] = (byte) HEX_DIGITS[(c >> 4) & 0xf];
+					b[p++] = (byte) HEX_DIGITS[c & 0xf];
+					continue;
+				}
+				c = code;
+			}
+			if (c < 0x80) {
+				b[p++] = (byte) c;
+			} else if (c < 0x800) {
+				b[p++] = (byte) (0xc0 | (c >> 6));
+				b[p++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					b[p++] = (byte) (0xf0 | (codePoint >> 18));
+					b[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					b[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					b[p++] = (byte) (0x80 | (codePoint & 0x3f));
+				} else {
+					// Unpaired surrogate, replace like String.getBytes() does
+					b[p++] = '?';
+				}
+			} else {
+				b[p++] = (byte) (0xe0 | (c >> 12));
+				b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				b[p++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		position = p;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (position + additional > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + additional)];
+			System.arraycopy(buffer, 0, newBuffer, 0, position);
+			buffer = newBuffer;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Attachment of the user exit to the memory-mapped file of a CDCSource
+ * operator on the same host (outputType mmap), through which the records are
+ * sent instead of over a TCP connection.
+ *
+ * The file, created by CDCSource, holds a header followed by two
+ * single-producer/single-consumer rings: the data ring, written by the user
+ * exit, and the feedback ring, written by CDCSource. Every ring has a write and
+ * a read position in the header, counting the bytes written and read since the
+ * user exit attached; each position is only written by one side. The upper 16
+ * bits of every position hold the generation of the attachment, which
+ * CDCSource starts when it accepts a user exit; positions of another
+ * generation are ignored. The layout must be the same as in the
+ * CDCSharedMemoryRing class of the toolkit.
+ *
+ * The user exit attaches by writing a random token in the attach request and
+ * waiting until CDCSource reports it as the attached token, after which it
+ * starts its positions at 0; it detaches by clearing the attach request. Once CDCSource has closed the attachment, or
+ * another user exit has attached, writing fails and reading the feedback
+ * reaches the end of the stream, as with a closed connection. Only one user
+ * exit can therefore write to the file at a time.
+ *
+ * A volatile field is written before a position is published and after it is
+ * observed. The JVM follows a volatile write with a full memory barrier of the
+ * processor, which gives the ring accesses the order that Java 8 does not offer
+ * for mapped memory otherwise, also as seen by CDCSource.
+ */
+public class CDCStreamsSharedMemory {
+
+	// Layout of the file
+	private static final int MAGIC = 0x43444352;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4096;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int DATA_CAPACITY_OFFSET = 8;
+	private static final int FEEDBACK_CAPACITY_OFFSET = 16;
+	private static final int ATTACH_REQUEST_OFFSET = 64;
+	private static final int ATTACHED_TOKEN_OFFSET = 128;
+	private static final int DATA_WRITE_OFFSET = 192;
+	private static final int DATA_READ_OFFSET = 256;
+	private static final int FEEDBACK_WRITE_OFFSET = 320;
+	private static final int FEEDBACK_READ_OFFSET = 384;
+	private static final int GENERATION_OFFSET = 448;
+	private static final int GENERATION_SHIFT = 48;
+	private static final long POSITION_MASK = (1L << GENERATION_SHIFT) - 1;
+
+	// Waiting threads yield for this many polls before they park
+	private static final int YIELD_ITERATIONS = 1000;
+	private static final long PARK_NANOS = 50000;
+	private static final long ATTACH_RETRY_MS = 100;
+
+	private final File file;
+	private MappedByteBuffer mapping = null;
+	private ByteBuffer dataRing;
+	private ByteBuffer feedbackRing;
+	private int dataCapacity;
+	private int feedbackCapacity;
+	private long token = 0;
+	private long generation = 0;
+
+	// Positions of the user exit, also kept in the header
+	private long dataWritePosition = 0;
+	private long feedbackReadPosition = 0;
+	// Last positions of CDCSource seen in the header
+	private long dataReadPosition = 0;
+	private long feedbackWritePosition = 0;
+
+	// Written before publishing and after observing a position
+	private volatile long fence;
+	private volatile boolean closed = false;
+	private volatile int readTimeoutMs = 0;
+
+	private final OutputStream outputStream = new OutputStream() {
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			writeData(bytes, offset, length);
+		}
+
+		public void close() {
+			CDCStreamsSharedMemory.this.close();
+		}
+	};
+
+	private final InputStream inputStream = new InputStream() {
+		public int read() throws IOException {
+			byte[] bytes = new byte[1];
+			return (read(bytes, 0, 1) < 0) ? -1 : bytes[0] & 0xff;
+		}
+
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			return readFeedback(bytes, offset, length);
+		}
+
+		public void close() {
+			CDCStreamsSharedMemory.this.close();
+		}
+	};
+
+	public CDCStreamsSharedMemory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Attaches to the CDCSource operator, waiting for the operator to create
+	 * the file and to accept the attachment.
+	 *
+	 * @param timeoutMs
+	 *            Maximum time to wait
+	 * @throws IOException
+	 *             if the file is not valid or the user exit was not attached
+	 *             within the timeout
+	 */
+	public void attach(long timeoutMs) throws IOException {
+		long endTimestamp = System.currentTimeMillis() + timeoutMs;
+		while (mapping == null) {
+			try {
+				map();
+			} catch (IOException e) {
+				if (System.currentTimeMillis() >= endTimestamp)
+					throw e;
+				sleep(ATTACH_RETRY_MS);
+			}
+		}
+		Random random = new Random();
+		while (token == 0)
+			token = random.nextLong();
+		publish(ATTACH_REQUEST_OFFSET, token);
+		while (observe(ATTACHED_TOKEN_OFFSET) != token) {
+			if (System.currentTimeMillis() >= endTimestamp) {
+				close();
+				throw new IOException("CDCSource operator did not accept the attachment to " + file + " within "
+						+ timeoutMs + " milliseconds");
+			}
+			sleep(1);
+		}
+		// CDCSource publishes the generation before the attached token; the
+		// positions of this generation all start at 0
+		generation = observe(GENERATION_OFFSET);
+		dataWritePosition = 0;
+		feedbackReadPosition = 0;
+		dataReadPosition = 0;
+		feedbackWritePosition = 0;
+	}
+
+	/**
+	 * Maps the file once CDCSource has initialized it.
+	 */
+	private void map() throws IOException {
+		if (!file.isFile())
+			throw new IOException("Memory-mapped file " + file + " does not exist");
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		MappedByteBuffer fileMapping;
+		try {
+			if (randomAccessFile.length() < HEADER_SIZE)
+				throw new IOException("Memory-mapped file " + file + " has not been initialized");
+			fileMapping = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					randomAccessFile.length());
+		} finally {
+			randomAccessFile.close();
+		}
+		fileMapping.order(ByteOrder.nativeOrder());
+		if (fileMapping.getInt(MAGIC_OFFSET) != MAGIC)
+			throw new IOException("Memory-mapped file " + file + " has not been initialized by a CDCSource operator");
+		if (fileMapping.getInt(VERSION_OFFSET) != VERSION)
+			throw new IOException("Memory-mapped file " + file + " has layout version "
+					+ fileMapping.getInt(VERSION_OFFSET) + ", expected " + VERSION);
+		// The magic number is written last, the rest of the header is read
+		// after it
+		fence = MAGIC;
+		dataCapacity = (int) fileMapping.getLong(DATA_CAPACITY_OFFSET);
+		feedbackCapacity = (int) fileMapping.getLong(FEEDBACK_CAPACITY_OFFSET);
+		if (dataCapacity <= 0 || feedbackCapacity <= 0
+				|| (long) HEADER_SIZE + dataCapacity + feedbackCapacity > fileMapping.capacity())
+			throw new IOException("Memory-mapped file " + file + " has an invalid header");
+		fileMapping.position(HEADER_SIZE);
+		fileMapping.limit(HEADER_SIZE + dataCapacity);
+		dataRing = fileMapping.slice();
+		fileMapping.limit(HEADER_SIZE + dataCapacity + feedbackCapacity);
+		fileMapping.position(HEADER_SIZE + dataCapacity);
+		feedbackRing = fileMapping.slice();
+		fileMapping.clear();
+		mapping = fileMapping;
+	}
+
+	private void publish(int offset, long value) {
+		fence = value;
+		mapping.putLong(offset, value);
+	}
+
+	private long observe(int offset) {
+		long value = mapping.getLong(offset);
+		fence = value;
+		return value;
+	}
+
+	private void publishPosition(int offset, long position) {
+		publish(offset, (generation << GENERATION_SHIFT) | (position & POSITION_MASK));
+	}
+
+	/**
+	 * Returns the position published by CDCSource, or the last position seen
+	 * if the published one belongs to another generation.
+	 */
+	private long observePosition(int offset, long lastPosition) {
+		long value = observe(offset);
+		if (value >>> GENERATION_SHIFT != generation)
+			return lastPosition;
+		return lastPosition + ((value - lastPosition) & POSITION_MASK);
+	}
+
+	private boolean isAttached() {
+		return !closed && observe(ATTACHED_TOKEN_OFFSET) == token;
+	}
+
+	/**
+	 * Returns the stream that writes to the data ring, waiting while the ring
+	 * is full. Closing it detaches the user exit.
+	 */
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Returns the stream that reads the feedback of CDCSource.
+	 */
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/**
+	 * Sets the time a read of the feedback waits before failing with a
+	 * SocketTimeoutException, 0 to wait indefinitely.
+	 */
+	public void setReadTimeout(int timeoutMs) {
+		readTimeoutMs = timeoutMs;
+	}
+
+	private void writeData(byte[] bytes, int offset, int length) throws IOException {
+		int idleIterations = 0;
+		while (length > 0) {
+			if (!isAttached())
+				throw new IOException("User exit is no longer attached to CDCSource operator through " + file);
+			dataReadPosition = observePosition(DATA_READ_OFFSET, dataReadPosition);
+			long free = dataCapacity - (dataWritePosition - dataReadPosition);
+			if (free == 0) {
+				idle(idleIterations++);
+				continue;
+			}
+			int ringOffset = (int) (dataWritePosition % dataCapacity);
+			int chunk = (int) Math.min(Math.min(length, free), dataCapacity - ringOffset);
+			dataRing.position(ringOffset);
+			dataRing.put(bytes, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+			dataWritePosition += chunk;
+			publishPosition(DATA_WRITE_OFFSET, dataWritePosition);
+			idleIterations = 0;
+		}
+	}
+
+	private int readFeedback(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		long startTimestamp = System.currentTimeMillis();
+		int idleIterations = 0;
+		for (;;) {
+			if (closed)
+				return -1;
+			feedbackWritePosition = observePosition(FEEDBACK_WRITE_OFFSET, feedbackWritePosition);
+			long available = feedbackWritePosition - feedbackReadPosition;
+			if (available > 0) {
+				int ringOffset = (int) (feedbackReadPosition % feedbackCapacity);
+				int chunk = (int) Math.min(Math.min(length, available), feedbackCapacity - ringOffset);
+				feedbackRing.position(ringOffset);
+				feedbackRing.get(bytes, offset, chunk);
+				feedbackReadPosition += chunk;
+				publishPosition(FEEDBACK_READ_OFFSET, feedbackReadPosition);
+				return chunk;
+			}
+			// The feedback ends when CDCSource closes the attachment
+			if (!isAttached())
+				return -1;
+			int timeoutMs = readTimeoutMs;
+			if (timeoutMs > 0 && System.currentTimeMillis() - startTimestamp >= timeoutMs)
+				throw new SocketTimeoutException("Read timed out");
+			idle(idleIterations++);
+		}
+	}
+
+	/**
+	 * Waits briefly for CDCSource: yields for the first polls, then parks the
+	 * thread between polls.
+	 */
+	private static void idle(int idleIterations) throws InterruptedIOException {
+		if (idleIterations < YIELD_ITERATIONS)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(PARK_NANOS);
+		if (Thread.interrupted())
+			throw new InterruptedIOException("Interrupted while waiting for CDCSource operator");
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while attaching to CDCSource operator");
+		}
+	}
+
+	/**
+	 * Detaches the user exit. Records that have been written are still
+	 * processed by CDCSource.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		// Another user exit may have attached in the meantime
+		if (mapping != null && observe(ATTACH_REQUEST_OFFSET) == token)
+			publish(ATTACH_REQUEST_OFFSET, 0);
+	}
+}
@@ -0,0 +1,517 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import com.ibm.replication.cdc.common.*;
+
+/**
+ * This class implements the spill journal of a connection: an append-only
+ * byte stream kept in memory-mapped segment files, which is drained to the
+ * Streams application by a background thread.
+ *
+ * The writer writes its records into the journal instead of the socket, so
+ * that the CDC apply thread writes at memory speed and is not held up when the
+ * Streams application is slow to read. A flush of the journal makes the
+ * records written so far available to the sender thread, which writes them to
+ * the socket and flushes the socket when it has caught up. Only when more than
+ * spillMaxBytes bytes are waiting to be sent, writing the journal waits for the
+ * sender.
+ *
+ * Segments that have been sent are kept until a handshake that follows them
+ * has been acknowledged by the CDCSource operator; for targets that do not
+ * acknowledge handshakes they are released once sent. Released segments are
+ * reused for later positions, as the mapping of a file is only unmapped when
+ * the garbage collector finds it, which keeps its disk space allocated and
+ * prevents its removal on Windows; only the segments beyond those needed for
+ * spillMaxBytes are removed. The journal is not forced to disk and is removed
+ * when the connection is closed; segments left behind by an earlier run are
+ * removed when the journal is opened, as the CDC engine replicates those
+ * changes again from the bookmark.
+ *
+ * A journal without a directory keeps its segments on the heap; it is used to
+ * resume a session on a new connection when no spill directory has been
+ * configured. If the sink cannot be written to, or the connection is reported
+ * lost, the sender asks its reconnector for a new connection and continues
+ * sending from the position reported by the CDCSource operator, which must
+ * still be in the journal.
+ */
+public class CDCStreamsSpillJournal extends OutputStream implements Runnable {
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final int SEND_CHUNK_SIZE = 65536;
+	private static final long CLOSE_TIMEOUT_MS = 10000;
+	// Waits are bounded so that the condition is checked again even if a
+	// notification is missed
+	private static final long WAIT_POLL_MS = 1000;
+
+	/**
+	 * Segment of the journal, a file mapped into memory or a heap buffer
+	 */
+	private static class Segment {
+		final long startPosition;
+		final File file;
+		final ByteBuffer buffer;
+		// Views of the segment for the writer and for the sender thread
+		final ByteBuffer writeBuffer;
+		final ByteBuffer sendBuffer;
+
+		Segment(long startPosition, File file, ByteBuffer buffer) {
+			this.startPosition = startPosition;
+			this.file = file;
+			this.buffer = buffer;
+			this.writeBuffer = buffer.duplicate();
+			this.sendBuffer = buffer.duplicate();
+		}
+	}
+
+	/**
+	 * Opens a new connection to the CDCSource operator when the connection is
+	 * lost, and resumes the session on it.
+	 */
+	public interface Reconnector {
+		/**
+		 * Connects again and resumes the session.
+		 *
+		 * @param acknowledgedPosition
+		 *            Position after the last acknowledged handshake
+		 * @return Position from which the journal must be sent again
+		 */
+		long reconnect(long acknowledgedPosition) throws IOException;
+
+		/**
+		 * Returns the stream to which the journal is sent after reconnecting.
+		 */
+		OutputStream getSink();
+	}
+
+	private final File directory;
+	private final int segmentBytes;
+	private final long maxBytes;
+	private final boolean retainUntilAcknowledged;
+	private final long stallTimeoutMs;
+	private OutputStream sink;
+	private Reconnector reconnector = null;
+	private boolean reconnectRequested = false;
+
+	// Retained segments, from the oldest to the one being written, and the
+	// positions of the handshakes that have not been acknowledged yet; both
+	// are guarded by this object
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+	private final ArrayDeque<long[]> handshakePositions = new ArrayDeque<long[]>();
+	// Released segments that are reused, at most maxFreeSegments, and the
+	// number of segment files created; guarded by this object
+	private final ArrayDeque<Segment> freeSegments = new ArrayDeque<Segment>();
+	private final int maxFreeSegments;
+	private int segmentFileCount = 0;
+
+	// Position up to which the journal has been written, only used by the
+	// writer, which holds the output lock of CDCStreamsWriter
+	private Segment writeSegment = null;
+	private long writePosition = 0;
+	// Position up to which the sender may send, and has sent
+	private volatile long publishedPosition = 0;
+	private volatile long sentPosition = 0;
+	private volatile long acknowledgedPosition = 0;
+	private volatile String failure = null;
+	private volatile boolean stop = false;
+	private volatile boolean resuming = false;
+	private boolean senderWaiting = false;
+	private final Thread senderThread;
+
+	UETrace trace;
+
+	/**
+	 * Opens the journal in the given directory and starts the thread that
+	 * sends its contents.
+	 *
+	 * @param directory
+	 *            Directory of the segment files, which is used by this journal
+	 *            only; null to keep the segments on the heap
+	 * @param sink
+	 *            Stream to which the journal is drained, normally the socket
+	 *            to the Streams application
+	 * @param retainUntilAcknowledged
+	 *            Whether segments are kept until a handshake following them
+	 *            has been acknowledged
+	 */
+	public CDCStreamsSpillJournal(File directory, OutputStream sink, boolean retainUntilAcknowledged,
+			UESettings settings, UETrace trace) throws IOException {
+		this.directory = directory;
+		this.sink = sink;
+		this.retainUntilAcknowledged = retainUntilAcknowledged;
+		this.segmentBytes = settings.spillSegmentBytes;
+		this.maxBytes = Math.max(settings.spillMaxBytes, settings.spillSegmentBytes);
+		this.maxFreeSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes + 1);
+		this.stallTimeoutMs = 1000L * settings.tcpConnectionTimeoutSeconds;
+		this.trace = trace;
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Spill journal directory " + directory + " could not be created");
+		File[] abandonedSegments = (directory != null) ? directory.listFiles() : null;
+		if (abandonedSegments != null) {
+			for (File segmentFile : abandonedSegments) {
+				if (segmentFile.getName().endsWith(SEGMENT_SUFFIX)) {
+					trace.logEvent("Removing spill journal segment " + segmentFile + " of an earlier run");
+					segmentFile.delete();
+				}
+			}
+		}
+		writeSegment = addSegment(0);
+		senderThread = new Thread(this, "CDCStreamsSpillJournal");
+		senderThread.setDaemon(true);
+		senderThread.start();
+	}
+
+	/**
+	 * Sets the reconnector that is asked for a new connection when the sink
+	 * cannot be written to. Without a reconnector, the journal fails.
+	 */
+	protected synchronized void setReconnector(Reconnector reconnector) {
+		this.reconnector = reconnector;
+	}
+
+	/**
+	 * Reports that the connection has been lost, which may be noticed by the
+	 * reader of the feedback before the sender writes to the connection again.
+	 */
+	protected synchronized void requestReconnect() {
+		reconnectRequested = true;
+		notifyAll();
+	}
+
+	/**
+	 * Adds the segment that starts at the given position. A released segment
+	 * is reused if there is one; otherwise a segment file is created and
+	 * mapped, or the segment is allocated on the heap if the journal has no
+	 * directory.
+	 */
+	private Segment addSegment(long startPosition) throws IOException {
+		ByteBuffer buffer;
+		File segmentFile = null;
+		synchronized (this) {
+			Segment free = freeSegments.poll();
+			if (free != null) {
+				Segment segment = new Segment(startPosition, free.file, free.buffer);
+				segments.add(segment);
+				return segment;
+			}
+			if (directory != null)
+				segmentFile = new File(directory, String.format("%06d", segmentFileCount++) + SEGMENT_SUFFIX);
+		}
+		if (segmentFile == null)
+			buffer = ByteBuffer.allocate(segmentBytes);
+		else {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile, "rw");
+			try {
+				// The mapping remains valid after the channel has been closed
+				MappedByteBuffer mapping = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+						segmentBytes);
+				buffer = mapping;
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+		Segment segment = new Segment(startPosition, segmentFile, buffer);
+		synchronized (this) {
+			segments.add(segment);
+		}
+		return segment;
+	}
+
+	/**
+	 * Keeps a segment that is no longer needed for reuse, or removes it if
+	 * enough segments are kept. Must be called while holding the lock of this
+	 * object.
+	 */
+	private void releaseSegment(Segment segment) {
+		if (freeSegments.size() < maxFreeSegments)
+			freeSegments.add(segment);
+		else
+			deleteSegment(segment);
+	}
+
+	/**
+	 * Removes the file of a segment. A file that is still mapped cannot be
+	 * removed on all platforms; it is then removed when the JVM ends, or by
+	 * the next journal opened in the directory.
+	 */
+	private void deleteSegment(Segment segment) {
+		if (segment.file != null && !segment.file.delete()) {
+			trace.writeAlways("Spill journal segment " + segment.file + " could not be removed yet");
+			segment.file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes that have been written to the journal but
+	 * not sent yet.
+	 */
+	protected long getUnsentBytes() {
+		return writePosition - sentPosition;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/**
+	 * Appends bytes to the journal. The bytes are sent once the journal is
+	 * flushed.
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		checkFailure();
+		if (writePosition + length - sentPosition > maxBytes)
+			awaitSender(length);
+		while (length > 0) {
+			if (!writeSegment.writeBuffer.hasRemaining())
+				writeSegment = addSegment(writePosition);
+			int chunk = Math.min(length, writeSegment.writeBuffer.remaining());
+			writeSegment.writeBuffer.put(bytes, offset, chunk);
+			writePosition += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Waits until the sender has caught up far enough to write the given
+	 * number of bytes without exceeding spillMaxBytes unsent bytes. Fails if
+	 * the sender has not sent anything for tcpConnectionTimeoutSeconds, not
+	 * counting the time it takes to resume the session.
+	 */
+	private void awaitSender(int length) throws IOException {
+		trace.write("Spill journal holds {} unsent bytes, waiting for the Streams application", getUnsentBytes());
+		flush();
+		synchronized (this) {
+			long progressPosition = sentPosition;
+			long endTimestamp = System.currentTimeMillis() + stallTimeoutMs;
+			while (writePosition + length - sentPosition > maxBytes && failure == null
+					&& sentPosition < publishedPosition && senderThread.isAlive()) {
+				if (sentPosition != progressPosition || resuming) {
+					progressPosition = sentPosition;
+					endTimestamp = System.currentTimeMillis() + stallTimeoutMs;
+				}
+				long remainingMs = endTimestamp - System.currentTimeMillis();
+				if (remainingMs <= 0)
+					throw new IOException("Streams application did not read from the spill journal for "
+							+ (stallTimeoutMs / 1000) + " seconds");
+				try {
+					wait(Math.min(remainingMs, WAIT_POLL_MS));
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for the spill journal to be sent");
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Makes the bytes written so far available to the sender thread.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkFailure();
+		if (publishedPosition != writePosition) {
+			publishedPosition = writePosition;
+			synchronized (this) {
+				if (senderWaiting)
+					notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Registers the position of a handshake that has just been written, so
+	 * that the segments before it can be removed once it is acknowledged.
+	 */
+	protected synchronized void markHandshake(long sequence) {
+		if (retainUntilAcknowledged)
+			handshakePositions.add(new long[] { sequence, writePosition });
+	}
+
+	/**
+	 * Removes the segments that precede the handshake with the given sequence
+	 * number, which has been acknowledged by the CDCSource operator.
+	 */
+	protected synchronized void handshakeAcknowledged(long sequence) {
+		long acknowledgedPosition = -1;
+		while (!handshakePositions.isEmpty() && handshakePositions.peek()[0] <= sequence)
+			acknowledgedPosition = handshakePositions.poll()[1];
+		if (acknowledgedPosition >= 0) {
+			this.acknowledgedPosition = acknowledgedPosition;
+			removeSegments(acknowledgedPosition);
+		}
+	}
+
+	/**
+	 * Releases the segments that end at or before the given position and have
+	 * been sent; the segment being written is never released. Must be called
+	 * while holding the lock of this object.
+	 */
+	private void removeSegments(long position) {
+		long removablePosition = Math.min(position, sentPosition);
+		Iterator<Segment> iterator = segments.iterator();
+		while (iterator.hasNext()) {
+			Segment segment = iterator.next();
+			if (segment == writeSegment || segment.startPosition + segmentBytes > removablePosition)
+				break;
+			iterator.remove();
+			releaseSegment(segment);
+		}
+	}
+
+	/**
+	 * Returns the segment that holds the given position.
+	 */
+	private synchronized Segment getSegment(long position) {
+		for (Segment segment : segments) {
+			if (position < segment.startPosition + segmentBytes)
+				return segment;
+		}
+		throw new IllegalStateException("Position " + position + " is not in the spill journal");
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null)
+			throw new IOException(failure);
+	}
+
+	/**
+	 * This method is run by the sender thread. It sends the published bytes
+	 * until the journal is closed and everything has been sent, or until the
+	 * Streams application cannot be written to anymore and the connection cannot
+	 * be resumed.
+	 */
+	public void run() {
+		byte[] chunk = new byte[SEND_CHUNK_SIZE];
+		try {
+			for (;;) {
+				try {
+					if (!sendPublished(chunk))
+						break;
+				} catch (IOException e) {
+					if (reconnector == null || stop)
+						throw e;
+					resuming = true;
+					try {
+						resume(e);
+					} finally {
+						resuming = false;
+					}
+				}
+			}
+		} catch (IOException e) {
+			failure = "Error while sending the spill journal, message: " + e.getMessage();
+		} catch (InterruptedException e) {
+			failure = "Spill journal sender interrupted";
+		}
+		if (failure != null)
+			trace.writeAlways(failure);
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until bytes have been published and sends them.
+	 *
+	 * @return false if the journal has been closed and everything has been
+	 *         sent
+	 */
+	private boolean sendPublished(byte[] chunk) throws IOException, InterruptedException {
+		long sendUntil;
+		synchronized (this) {
+			while (publishedPosition == sentPosition && !stop && !reconnectRequested) {
+				senderWaiting = true;
+				wait(WAIT_POLL_MS);
+				senderWaiting = false;
+			}
+			if (reconnectRequested && !stop)
+				throw new IOException("Connection to the Streams application lost");
+			if (publishedPosition == sentPosition)
+				return false;
+			sendUntil = publishedPosition;
+		}
+		while (sentPosition < sendUntil) {
+			Segment segment = getSegment(sentPosition);
+			int offset = (int) (sentPosition - segment.startPosition);
+			int length = (int) Math.min(Math.min(sendUntil - sentPosition, segmentBytes - offset), chunk.length);
+			segment.sendBuffer.position(offset);
+			segment.sendBuffer.get(chunk, 0, length);
+			sink.write(chunk, 0, length);
+			sentPosition += length;
+		}
+		sink.flush();
+		synchronized (this) {
+			if (!retainUntilAcknowledged)
+				removeSegments(sentPosition);
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Has the reconnector open a new connection after the connection was lost
+	 * and continues sending from the position reported by the CDCSource
+	 * operator.
+	 */
+	private void resume(IOException cause) throws IOException {
+		trace.writeAlways("Error while sending the spill journal, message: " + cause.getMessage()
+				+ "; resuming the session on a new connection");
+		long position = reconnector.reconnect(acknowledgedPosition);
+		synchronized (this) {
+			reconnectRequested = false;
+			long oldestPosition = segments.peek().startPosition;
+			if (position < oldestPosition || position > publishedPosition)
+				throw new IOException("Session cannot be resumed at position " + position
+						+ ", the spill journal holds positions " + oldestPosition + " to " + publishedPosition);
+			trace.write("Resending spill journal from position {}, {} bytes were sent before", position,
+					sentPosition);
+			sink = reconnector.getSink();
+			sentPosition = position;
+		}
+	}
+
+	/**
+	 * Waits until the journal has been sent, stops the sender thread, closes
+	 * the sink and removes the segment files.
+	 */
+	@Override
+	public void close() throws IOException {
+		publishedPosition = writePosition;
+		long endTimestamp = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+		synchronized (this) {
+			stop = true;
+			notifyAll();
+		}
+		try {
+			senderThread.join(Math.max(1, endTimestamp - System.currentTimeMillis()));
+		} catch (InterruptedException ignore) {
+		}
+		if (senderThread.isAlive())
+			trace.writeAlways("Spill journal closed with " + getUnsentBytes() + " unsent bytes");
+		try {
+			sink.close();
+		} finally {
+			synchronized (this) {
+				for (Segment segment : segments)
+					deleteSegment(segment);
+				segments.clear();
+				for (Segment segment : freeSegments)
+					deleteSegment(segment);
+				freeSegments.clear();
+			}
+			if (directory != null)
+				directory.delete();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package com.ibm.replication.cdc.streams;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.replication.cdc.common.*;
+
+/**
+ * Statistics of a subscription, exposed through JMX so that the throughput of
+ * the user exit and the time it is stalled by flushes and handshakes can be
+ * monitored while it runs inside the CDC engine.
+ *
+ * All counters are striped (LongAdder), so updating them on the apply thread
+ * does not allocate and does not contend with JMX clients reading them. The
+ * table-level user exits obtain the counter of their table once and increment
+ * it for every operation.
+ */
+public class CDCStreamsStatistics implements CDCStreamsStatisticsMXBean {
+
+	private static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final LongAdder operationsWritten = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder transactionsCommitted = new LongAdder();
+	private final LongAdder handshakesAttempted = new LongAdder();
+	private final LongAdder handshakesFailed = new LongAdder();
+	private final LongAdder creditWaits = new LongAdder();
+	private final LongAdder creditWaitNanos = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	private final LongAdder reconnectNanos = new LongAdder();
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+	private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+	private final ConcurrentHashMap<String, LongAdder> operationsByTable = new ConcurrentHashMap<String, LongAdder>();
+
+	// Rates per table, recalculated when requested at most once per second
+	private long rateTimestamp = System.nanoTime();
+	private Map<String, Long> rateOperations = new HashMap<String, Long>();
+	private Map<String, Double> rates = new TreeMap<String, Double>();
+
+	private ObjectName objectName = null;
+
+	/**
+	 * Registers the statistics in the platform MBean server.
+	 *
+	 * @param subscriptionID
+	 *            Identifies the subscription in the name of the MBean
+	 * @param trace
+	 *            Trace to report registration failures to; the user exit
+	 *            continues without JMX in that case
+	 */
+	public void register(String subscriptionID, UETrace trace) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					"com.ibm.replication.cdc.streams:type=CDCStreams,subscription=" + ObjectName.quote(subscriptionID));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+			trace.logEvent("Statistics of the user exit are available through JMX as " + name);
+		} catch (Exception e) {
+			trace.writeAlways("Statistics of the user exit could not be registered with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes the statistics from the platform MBean server.
+	 */
+	public void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception ignore) {
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Returns the counter of the operations written for a table.
+	 */
+	protected LongAdder getTableCounter(String tableName) {
+		LongAdder counter = operationsByTable.get(tableName);
+		if (counter == null) {
+			LongAdder newCounter = new LongAdder();
+			counter = operationsByTable.putIfAbsent(tableName, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		return counter;
+	}
+
+	protected void operationWritten(LongAdder tableCounter) {
+		operationsWritten.increment();
+		tableCounter.increment();
+	}
+
+	protected void bytesWritten(int bytes) {
+		bytesWritten.add(bytes);
+	}
+
+	protected void transactionCommitted() {
+		transactionsCommitted.increment();
+	}
+
+	protected void handshakeAttempted(long nanos) {
+		handshakesAttempted.increment();
+		handshakeLatency.record(nanos);
+	}
+
+	protected void handshakeFailed() {
+		handshakesFailed.increment();
+	}
+
+	/**
+	 * Registers that a data record had to wait for credit of the CDCSource
+	 * operator.
+	 */
+	protected void creditWaited(long nanos) {
+		creditWaits.increment();
+		creditWaitNanos.add(nanos);
+	}
+
+	/**
+	 * Registers that the session was resumed on a new connection to the
+	 * CDCSource operator.
+	 */
+	protected void reconnected(long nanos) {
+		reconnects.increment();
+		reconnectNanos.add(nanos);
+	}
+
+	protected void flushed(long nanos) {
+		flushLatency.record(nanos);
+	}
+
+	public long getOperationsWritten() {
+		return operationsWritten.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getTransactionsCommitted() {
+		return transactionsCommitted.sum();
+	}
+
+	public long getHandshakesAttempted() {
+		return handshakesAttempted.sum();
+	}
+
+	public long getHandshakesFailed() {
+		return handshakesFailed.sum();
+	}
+
+	public long getCreditWaits() {
+		return creditWaits.sum();
+	}
+
+	public long getCreditWaitMillis() {
+		return creditWaitNanos.sum() / 1000000;
+	}
+
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	public long getReconnectMillis() {
+		return reconnectNanos.sum() / 1000000;
+	}
+
+	public long[] getLatencyBucketUpperBoundsMicros() {
+		return LatencyHistogram.getBucketUpperBoundsMicros();
+	}
+
+	public long[] getFlushLatencyCounts() {
+		return flushLatency.getCounts();
+	}
+
+	public double getFlushLatencyMeanMicros() {
+		return flushLatency.getMeanMicros();
+	}
+
+	public long getFlushLatencyP99Micros() {
+		return flushLatency.getPercentileMicros(99);
+	}
+
+	public long getFlushLatencyMaxMicros() {
+		return flushLatency.getMaxMicros();
+	}
+
+	public long[] getHandshakeLatencyCounts() {
+		return handshakeLatency.getCounts();
+	}
+
+	public double getHandshakeLatencyMeanMicros() {
+		return handshakeLatency.getMeanMicros();
+	}
+
+	public long getHandshakeLatencyP99Micros() {
+		return handshakeLatency.getPercentileMicros(99);
+	}
+
+	public long getHandshakeLatencyMaxMicros() {
+		return handshakeLatency.getMaxMicros();
+	}
+
+	public Map<String, Long> getOperationsByTable() {
+		Map<String, Long> operations = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> table : operationsByTable.entrySet())
+			operations.put(table.getKey(), table.getValue().sum());
+		return operations;
+	}
+
+	public synchronized Map<String, Double> getOperationsPerSecondByTable() {
+		long now = System.nanoTime();
+		long elapsed = now - rateTimestamp;
+		if (elapsed >= RATE_INTERVAL_NANOS) {
+			Map<String, Long> operations = getOperationsByTable();
+			Map<String, Double> newRates = new TreeMap<String, Double>();
+			for (Map.Entry<String, Long> table : operations.entrySet()) {
+				Long previous = rateOperations.get(table.getKey());
+				long delta = table.getValue() - (previous != null ? previous : 0);
+				newRates.put(table.getKey(), delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+			}
+			rates = newRates;
+			rateOperations = operations;
+			rateTimestamp = now;
+		}
+		return new TreeMap<String, Double>(rates);
+	}
+}
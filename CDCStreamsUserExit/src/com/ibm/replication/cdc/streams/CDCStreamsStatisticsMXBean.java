@@ -0,0 +1,68 @@
+package com.ibm.replication.cdc.streams;
+
+import java.util.Map;
+
+/**
+ * Management interface of the statistics of a subscription, registered in the
+ * platform MBean server of the CDC engine under
+ * com.ibm.replication.cdc.streams:type=CDCStreams,subscription=&lt;publisher
+ * ID&gt;.
+ *
+ * Latency histograms are reported as counts per bucket; the upper bounds of
+ * the buckets are given by LatencyBucketUpperBoundsMicros.
+ */
+public interface CDCStreamsStatisticsMXBean {
+
+	/** Number of insert, update and delete operations written */
+	long getOperationsWritten();
+
+	/** Number of bytes written to the Streams application */
+	long getBytesWritten();
+
+	/** Number of transactions for which a commit record was written */
+	long getTransactionsCommitted();
+
+	long getHandshakesAttempted();
+
+	/** Number of handshakes that were not acknowledged in time */
+	long getHandshakesFailed();
+
+	/** Number of times the credit granted by CDCSource was used up */
+	long getCreditWaits();
+
+	/** Time spent waiting for credit of CDCSource */
+	long getCreditWaitMillis();
+
+	/** Number of times the session was resumed on a new connection */
+	long getReconnects();
+
+	/** Time spent reconnecting and resuming the session */
+	long getReconnectMillis();
+
+	long[] getLatencyBucketUpperBoundsMicros();
+
+	long[] getFlushLatencyCounts();
+
+	double getFlushLatencyMeanMicros();
+
+	long getFlushLatencyP99Micros();
+
+	long getFlushLatencyMaxMicros();
+
+	long[] getHandshakeLatencyCounts();
+
+	double getHandshakeLatencyMeanMicros();
+
+	long getHandshakeLatencyP99Micros();
+
+	long getHandshakeLatencyMaxMicros();
+
+	/** Number of operations written per table */
+	Map<String, Long> getOperationsByTable();
+
+	/**
+	 * Operations written per second per table, averaged over the time since
+	 * the rates were last calculated (at least one second)
+	 */
+	Map<String, Double> getOperationsPerSecondByTable();
+}
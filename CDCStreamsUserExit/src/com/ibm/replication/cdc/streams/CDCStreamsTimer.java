@@ -1,47 +1,65 @@
 package com.ibm.replication.cdc.streams;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.replication.cdc.common.*;
+
 /**
- * This subclass is used to run a background timer thread that checks if the
- * maximum number of seconds for the handshake has been passed. This to ensure
- * that transaction reception is frequently confirmed by the Streams application
- * so that the bookmark can be progressed.
- * 
+ * This class keeps the deadline of the next timed handshake and runs the jobs
+ * of the user exit that must happen at a point in time rather than when a
+ * change arrives: flushing records that have been buffered longer than the
+ * latency budget and sending heartbeats on idle connections.
+ *
+ * The handshake deadline is based on the monotonic clock and is checked by
+ * the apply thread when a commit arrives, as that is the only moment the
+ * bookmark can be committed. The jobs run on a single background thread of a
+ * scheduled executor, which only wakes up when a job is due; they synchronize
+ * with the apply thread through the writer.
+ *
  * The timer is started during the subscription initialization and also stopped
  * when the subscription ends.
  */
-
-import com.ibm.replication.cdc.common.*;
-
-public class CDCStreamsTimer implements Runnable {
-	private boolean stop = false;
-	private boolean stopped = false;
+public class CDCStreamsTimer {
+	private final ScheduledExecutorService scheduler;
 
 	private int handshakeAfterMaxSeconds;
-	private long handshakeAfterMaxMs;
-	private Long currentTimerMs;
-	private static final int INTERVALMS = 100;
+	private long handshakeAfterMaxNanos;
+	// Monotonic time at which the next timed handshake is due
+	private volatile long handshakeDeadlineNanos;
 
 	UETrace trace;
 
 	public CDCStreamsTimer(UESettings settings, UETrace trace) {
 		this.trace = trace;
-		this.currentTimerMs = new Long(0);
 		this.handshakeAfterMaxSeconds = settings.handshakeAfterMaxSeconds;
-		this.handshakeAfterMaxMs = handshakeAfterMaxSeconds * 1000;
+		this.handshakeAfterMaxNanos = TimeUnit.SECONDS.toNanos(handshakeAfterMaxSeconds);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "CDCStreamsTimer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		resetTimer();
+		trace.write("Timer started, handshake with target will be done every {} seconds", handshakeAfterMaxSeconds);
 	}
 
 	/**
-	 * Stops the thread
+	 * Stops the background thread; jobs that have not run yet are discarded
 	 */
 	protected void stop() {
-		stop = true;
+		scheduler.shutdownNow();
 	}
 
 	/**
-	 * Returns if the thread has been stopped
+	 * Returns if the background thread has been stopped
 	 */
 	protected boolean isStopped() {
-		return stopped;
+		return scheduler.isTerminated();
 	}
 
 	/**
@@ -49,34 +67,31 @@ public class CDCStreamsTimer implements Runnable {
 	 * reached)
 	 */
 	protected boolean isHandshakeDue() {
-		return (currentTimerMs >= handshakeAfterMaxMs);
+		return System.nanoTime() - handshakeDeadlineNanos >= 0;
 	}
 
 	/**
-	 * Returns whether or not the handshake is due (timer interval has been
-	 * reached)
+	 * Restarts the interval after which the next handshake is due
 	 */
 	protected void resetTimer() {
-		synchronized (currentTimerMs) {
-			currentTimerMs = 0L;
-		}
+		handshakeDeadlineNanos = System.nanoTime() + handshakeAfterMaxNanos;
 	}
 
 	/**
-	 * This method is run when the thread is started. It executed an infinite
-	 * loop until the stop variable is set to true
+	 * Runs a job on the background thread once the delay has passed. Jobs
+	 * that are scheduled after the timer has been stopped are ignored.
+	 *
+	 * @param job
+	 *            Job to run, must not throw exceptions
+	 * @param delayNanos
+	 *            Time from now after which the job is run
 	 */
-	public void run() {
-		trace.write("Timer started, handshake with target will be done every " + handshakeAfterMaxSeconds + " seconds");
-		while (!stop) {
+	protected void schedule(Runnable job, long delayNanos) {
+		if (!scheduler.isShutdown()) {
 			try {
-				Thread.sleep(INTERVALMS);
-				synchronized (currentTimerMs) {
-					currentTimerMs += INTERVALMS;
-				}
-			} catch (InterruptedException excp) {
+				scheduler.schedule(job, delayNanos, TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException stopped) {
 			}
 		}
-		stopped = true;
 	}
 }
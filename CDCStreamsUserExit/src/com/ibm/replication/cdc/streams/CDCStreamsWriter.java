@@ -1,16 +1,21 @@
 package com.ibm.replication.cdc.streams;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import com.datamirror.ts.target.publication.userexit.UserExitException;
 import com.ibm.replication.cdc.common.*;
@@ -19,33 +24,125 @@ public class CDCStreamsWriter {
 
 	private final SimpleDateFormat ISO_DATEFORMAT = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSS'000'");
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int OUTPUT_BUFFER_SIZE = 65536;
+	private static final long RESUME_RETRY_MS = 500;
+
 	Socket socket = null;
-	private PrintWriter printWriter;
+	// Set instead of the socket if the records are sent through the
+	// memory-mapped file of the CDCSource operator
+	private CDCStreamsSharedMemory sharedMemory = null;
+	private OutputStream outputStream;
 	private BufferedReader feedbackStream;
 	private int handshakeFailures = 0;
+	private long handshakeSequence = 0;
+	private long committedSequence = 0;
+	private long acknowledgedAtHandshake = 0;
+	private long handshakeStartNanos = 0;
+	private CDCStreamsFeedbackReader feedbackReader = null;
+	// Data records are limited by the credit granted by CDCSource if it
+	// supports credit
+	private boolean creditLimited = false;
+	private long dataRecordsSent = 0;
+	private long dataRecordsAtHandshake = 0;
+	private String initOptions = "";
+	private Deflater deflater = null;
+	private CDCStreamsSpillJournal spillJournal = null;
+	// A session that can be resumed continues on a new connection when the
+	// connection to CDCSource is lost; the session is identified by a random
+	// identifier
+	private boolean resumable = false;
+	private final String sessionId = UUID.randomUUID().toString();
+	private InetSocketAddress socketAddress;
+	private OutputStream resumedOutputStream = null;
+	private final CDCStreamsSpillJournal.Reconnector reconnector = new CDCStreamsSpillJournal.Reconnector() {
+		public long reconnect(long acknowledgedPosition) throws IOException {
+			return resumeSession(acknowledgedPosition);
+		}
+
+		public OutputStream getSink() {
+			return resumedOutputStream;
+		}
+	};
+	private final CDCStreamsRecordEncoder encoder;
+	private final CDCStreamsStatistics statistics;
+
+	// The output stream is written by the apply thread and by the jobs of the
+	// timer, the lock guards the stream and the state of the buffered records
+	private final Object outputLock = new Object();
+	private final CDCStreamsTimer timer;
+	private boolean closed = false;
+	private boolean unflushed = false;
+	private long unflushedBytes = 0;
+	private long oldestUnflushedNanos = 0;
+	private long lastFlushNanos = System.nanoTime();
+	private long transactionBytes = 0;
+	private boolean flushScheduled = false;
+	private final CDCStreamsFlushPolicy flushPolicy;
+	private final Runnable flushJob = new Runnable() {
+		public void run() {
+			flushIfDue();
+		}
+	};
+	// Heartbeats are only sent to CDCSource operators that support them and
+	// are encoded separately from the records of the apply thread
+	private boolean heartbeatSupported = false;
+	private CDCStreamsRecordEncoder heartbeatEncoder = null;
+	private final SimpleDateFormat heartbeatDateFormat = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSS'000'");
+	private final long heartbeatIntervalNanos;
+	private final Runnable heartbeatJob = new Runnable() {
+		public void run() {
+			sendHeartbeatIfIdle();
+		}
+	};
 
 	UESettings settings;
 	UETrace trace;
+	String subscriptionID;
+	String tcpHostPort;
 
 	/**
 	 * Open the output stream to which the records will be written. This method
-	 * generates a PrintWriter which targets either a TCP/IP socket (TCPSource
-	 * or CDCSource) or a named pipe (fifo file).
+	 * generates an output stream which targets either a TCP/IP socket
+	 * (TCPSource or CDCSource), the memory-mapped file of a CDCSource operator
+	 * or a named pipe (fifo file).
 	 * 
-	 * @return PrintWriter object
+	 * @param subscriptionID
+	 *            Identifies the subscription to the CDCSource operator, which
+	 *            may receive the changes of multiple subscriptions
+	 * @param tcpHostPort
+	 *            Address of the TCP/IP socket to connect to; a subscription
+	 *            that is partitioned has a writer for every address in the
+	 *            tcpHostPort property
+	 * @param statistics
+	 *            Statistics of the subscription, updated for every write,
+	 *            flush and handshake
+	 * @param timer
+	 *            Timer that runs the jobs flushing buffered records and
+	 *            sending heartbeats
 	 * @throws IOException
 	 * @throws UserExitException
 	 */
-	public CDCStreamsWriter(UESettings settings, UETrace trace) throws UserExitException {
+	public CDCStreamsWriter(UESettings settings, UETrace trace, String subscriptionID, String tcpHostPort,
+			CDCStreamsStatistics statistics, CDCStreamsTimer timer) throws UserExitException {
 
 		this.settings = settings;
 		this.trace = trace;
+		this.subscriptionID = subscriptionID;
+		this.tcpHostPort = tcpHostPort;
+		this.statistics = statistics;
+		this.timer = timer;
+		this.flushPolicy = new CDCStreamsFlushPolicy(settings, trace);
+		this.heartbeatIntervalNanos = TimeUnit.SECONDS.toNanos(settings.heartbeatIntervalSeconds);
+		this.encoder = new CDCStreamsRecordEncoder(settings);
 
 		try {
 			// Prepare for writing to TCP/IP socket or Named pipe
 			if (settings.outputType.equalsIgnoreCase("tcpsource")
 					|| settings.outputType.equalsIgnoreCase("cdcsource")) {
 				openWriterTCP();
+			} else if (settings.outputType.equalsIgnoreCase("mmap")) {
+				openWriterSharedMemory();
 			} else
 				if (settings.outputType.equalsIgnoreCase("namedpipe") || settings.outputType.equalsIgnoreCase("fifo")) {
 				openWriterNamedPipe();
@@ -64,20 +161,160 @@ public class CDCStreamsWriter {
 	 * @throws IOException
 	 */
 	private void openWriterTCP() throws UserExitException, IOException {
-		trace.logEvent("User exit will write to InfoSphere Streams application on address " + settings.tcpHostPort);
+		trace.logEvent("User exit will write to InfoSphere Streams application on address " + tcpHostPort);
 		String hostName = "";
 		int port = 0;
-		String[] tcpElements = settings.tcpHostPort.split(":");
+		String[] tcpElements = tcpHostPort.split(":");
 		if (tcpElements.length == 2) {
 			hostName = tcpElements[0];
 			port = Integer.parseInt(tcpElements[1]);
 		} else
 			throw new UserExitException(
-					"Property tcpHostPort is invalid, should be of format <host_name_or_ip>:<port>");
+					"Property tcpHostPort is invalid, every address should be of format <host_name_or_ip>:<port>");
 
 		// Try to connect to the port on the specified server
 		trace.logEvent("Connecting to server " + hostName + ", port " + port);
-		InetSocketAddress socketAddress = new InetSocketAddress(hostName, port);
+		socketAddress = new InetSocketAddress(hostName, port);
+		socket = connectSocket();
+		if (!socket.isConnected())
+			throw new UserExitException("Connection to TCP address " + tcpHostPort + " failed.");
+		trace.logEvent("Connected to TCP address " + tcpHostPort);
+		outputStream = new BufferedOutputStream(socket.getOutputStream(), getOutputBufferSize());
+		feedbackStream = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+		startSession();
+	}
+
+	/**
+	 * Opens writer to the memory-mapped file of a CDCSource operator on the
+	 * same host. The records are copied into the ring in the file without
+	 * passing through the kernel; the session is the same as over TCP.
+	 * 
+	 * @throws UserExitException
+	 * @throws IOException
+	 */
+	private void openWriterSharedMemory() throws UserExitException, IOException {
+		trace.logEvent("User exit will write to InfoSphere Streams application using memory-mapped file "
+				+ settings.mmapFile);
+		sharedMemory = new CDCStreamsSharedMemory(new File(settings.mmapFile));
+		try {
+			sharedMemory.attach(1000L * settings.tcpConnectionTimeoutSeconds);
+		} catch (IOException e) {
+			throw new UserExitException("Attaching to memory-mapped file " + settings.mmapFile + " failed: "
+					+ e.getMessage());
+		}
+		trace.logEvent("Attached to memory-mapped file " + settings.mmapFile);
+		outputStream = new BufferedOutputStream(sharedMemory.getOutputStream(), getOutputBufferSize());
+		feedbackStream = new BufferedReader(new InputStreamReader(sharedMemory.getInputStream(), UTF8));
+		startSession();
+	}
+
+	/**
+	 * Starts the session once the output and feedback streams have been
+	 * opened: waits for the readiness of a CDCSource operator, sends the
+	 * initialization record and sets up compression, spilling, the feedback
+	 * reader and heartbeats as negotiated.
+	 * 
+	 * @throws UserExitException
+	 * @throws IOException
+	 */
+	private void startSession() throws UserExitException, IOException {
+		// If the target is a CDCSource operator, wait until all its ports are
+		// ready
+		if (isCDCSource()) {
+			trace.logEvent("Waiting for CDCSource operator to report it is ready, maximum wait time is "
+					+ settings.initCDCSourceTimeoutSeconds + " seconds.");
+			String feedbackString = getFeedback(settings.initCDCSourceTimeoutSeconds * 1000);
+			if (feedbackString != null && feedbackString.startsWith("i")) {
+				trace.logEvent("CDCSource operator is ready to receive changes.");
+				negotiateProtocol(feedbackString);
+			} else {
+				throw new UserExitException("CDCSource operator did not report readiness within "
+						+ settings.initCDCSourceTimeoutSeconds + " seconds. Terminating abnormally");
+			}
+		}
+		// Now send string that CDC subscription has been initialized
+		doInit();
+		// CDCSource confirms the start of a session that can be resumed
+		if (resumable) {
+			flushOutput();
+			setFeedbackTimeout(settings.initCDCSourceTimeoutSeconds * 1000);
+			long position = readResumePosition(feedbackStream);
+			if (position != 0)
+				throw new UserExitException("CDCSource operator started session " + sessionId
+						+ " at position " + position + " instead of 0. Terminating abnormally");
+		}
+		// Records that follow the initialization record are compressed if
+		// negotiated
+		if (CDCStreamsProtocol.hasOption(initOptions, CDCStreamsProtocol.OPTION_DEFLATE))
+			startCompression();
+		if (!settings.spillDirectory.isEmpty() || resumable)
+			startSpilling();
+		// If handshakes are pipelined, credit is granted or the session can be
+		// resumed, the feedback is read by a separate thread
+		if (isCDCSource() && (settings.handshakeMaxInFlight > 1 || creditLimited || resumable)) {
+			if (settings.handshakeMaxInFlight > 1)
+				trace.logEvent("Up to " + settings.handshakeMaxInFlight
+						+ " handshakes will be in flight, acknowledgements are read asynchronously");
+			setFeedbackTimeout(0);
+			feedbackReader = new CDCStreamsFeedbackReader(feedbackStream, settings, trace);
+			if (resumable) {
+				spillJournal.setReconnector(reconnector);
+				feedbackReader.setConnectionLostListener(new Runnable() {
+					public void run() {
+						spillJournal.requestReconnect();
+					}
+				});
+			}
+			Thread feedbackThread = new Thread(feedbackReader, "CDCStreamsFeedbackReader");
+			feedbackThread.setDaemon(true);
+			feedbackThread.start();
+		}
+		// Keep idle connections alive if the CDCSource operator accepts
+		// heartbeats
+		if (heartbeatSupported && heartbeatIntervalNanos > 0) {
+			heartbeatEncoder = new CDCStreamsRecordEncoder(settings);
+			heartbeatEncoder.setBinary(encoder.isBinary());
+			trace.logEvent("A heartbeat will be sent after " + settings.heartbeatIntervalSeconds
+					+ " seconds without records");
+			timer.schedule(heartbeatJob, heartbeatIntervalNanos);
+		}
+	}
+
+	/**
+	 * Returns whether the records are sent to a CDCSource operator, over TCP
+	 * or through its memory-mapped file, which enforces handshaking.
+	 */
+	private boolean isCDCSource() {
+		return settings.outputType.equalsIgnoreCase("cdcsource") || settings.outputType.equalsIgnoreCase("mmap");
+	}
+
+	/**
+	 * Returns whether the records are written to a named pipe or file, which
+	 * may be read by a CDCSource operator.
+	 */
+	private boolean isNamedPipe() {
+		return settings.outputType.equalsIgnoreCase("namedpipe") || settings.outputType.equalsIgnoreCase("fifo");
+	}
+
+	/**
+	 * Sets the time a read of the feedback waits before failing, 0 to wait
+	 * indefinitely.
+	 */
+	private void setFeedbackTimeout(int timeoutMs) throws IOException {
+		if (sharedMemory != null)
+			sharedMemory.setReadTimeout(timeoutMs);
+		else
+			socket.setSoTimeout(timeoutMs);
+	}
+
+	/**
+	 * Connects a socket to the address of the Streams application, retrying
+	 * until tcpConnectionTimeoutSeconds have passed.
+	 * 
+	 * @return Socket, which is not connected if the connection timed out
+	 */
+	private Socket connectSocket() {
+		Socket connectingSocket = new Socket();
 		long beginTimestamp = System.currentTimeMillis();
 		long endTimestamp = beginTimestamp + (1000 * settings.tcpConnectionTimeoutSeconds);
 		long remainingTimeMillis = 0;
@@ -87,8 +324,12 @@ public class CDCStreamsWriter {
 		for (; System.currentTimeMillis() < endTimestamp;) {
 			remainingTimeMillis = endTimestamp - System.currentTimeMillis();
 			try {
-				socket = new Socket();
-				socket.connect(socketAddress, 1000);
+				connectingSocket = new Socket();
+				connectingSocket.connect(socketAddress, 1000);
+				// The flush policy decides when records are sent; Nagle's
+				// algorithm would hold a flushed handshake or commit back
+				// until the previous segment has been acknowledged
+				connectingSocket.setTcpNoDelay(true);
 				break;
 			} catch (Exception ce) {
 				// Only send a message every 10 seconds
@@ -103,27 +344,130 @@ public class CDCStreamsWriter {
 				}
 			}
 		}
-		if (socket.isConnected()) {
-			trace.logEvent("Connected to TCP address " + settings.tcpHostPort);
-			printWriter = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
-			feedbackStream = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			// If the target is a CDCSource operator, wait until all its
-			// ports are ready
-			if (settings.outputType.equalsIgnoreCase("cdcsource")) {
-				trace.logEvent("Waiting for CDCSource operator to report it is ready, maximum wait time is "
-						+ settings.initCDCSourceTimeoutSeconds + " seconds.");
-				String feedbackString = getFeedback(settings.initCDCSourceTimeoutSeconds * 1000);
-				if (feedbackString != null && feedbackString.startsWith("i")) {
-					trace.logEvent("CDCSource operator is ready to receive changes.");
-				} else {
-					throw new UserExitException("CDCSource operator did not report readiness within "
-							+ settings.initCDCSourceTimeoutSeconds + " seconds. Terminating abnormally");
+		return connectingSocket;
+	}
+
+	/**
+	 * Resumes the session on a new connection after the connection to the
+	 * CDCSource operator was lost. Runs on the sender thread of the spill
+	 * journal, which resends the records from the returned position; the
+	 * apply thread keeps writing to the journal meanwhile. CDCSource may not
+	 * have noticed the lost connection yet and refuse the new one, so
+	 * resuming is retried for tcpConnectionTimeoutSeconds.
+	 * 
+	 * @param acknowledgedPosition
+	 *            Stream position after the last acknowledged handshake
+	 * @return Stream position at which the CDCSource operator continues
+	 * @throws IOException
+	 *             if the connection could not be restored or CDCSource cannot
+	 *             resume the session
+	 */
+	private long resumeSession(long acknowledgedPosition) throws IOException {
+		long startNanos = System.nanoTime();
+		long endTimestamp = System.currentTimeMillis() + (1000 * settings.tcpConnectionTimeoutSeconds);
+		feedbackReader.reconnecting();
+		try {
+			socket.close();
+		} catch (IOException ignore) {
+		}
+		trace.logEvent("Reconnecting to TCP address " + tcpHostPort + " to resume session " + sessionId);
+		for (;;) {
+			try {
+				long position = resumeOnNewConnection(acknowledgedPosition);
+				statistics.reconnected(System.nanoTime() - startNanos);
+				trace.logEvent("Session " + sessionId + " resumed on TCP address " + tcpHostPort + " at position "
+						+ position + ", records acknowledged up to position " + acknowledgedPosition);
+				return position;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() >= endTimestamp) {
+					feedbackReader.fail("Session " + sessionId + " could not be resumed, message: " + e.getMessage());
+					throw e;
+				}
+				trace.writeAlways("Session " + sessionId + " not resumed yet, message: " + e.getMessage());
+				try {
+					Thread.sleep(RESUME_RETRY_MS);
+				} catch (InterruptedException interrupted) {
+					throw new IOException("Interrupted while resuming session " + sessionId);
 				}
 			}
-			// Now send string that CDC subscription has been initialized
-			doInit();
-		} else
-			throw new UserExitException("Connection to TCP address " + settings.tcpHostPort + " failed.");
+		}
+	}
+
+	/**
+	 * Opens a new connection and asks CDCSource to resume the session on it.
+	 * 
+	 * @return Stream position at which the CDCSource operator continues
+	 */
+	private long resumeOnNewConnection(long acknowledgedPosition) throws IOException {
+		Socket newSocket = connectSocket();
+		try {
+			if (!newSocket.isConnected())
+				throw new IOException("Connection to TCP address " + tcpHostPort + " could not be restored within "
+						+ settings.tcpConnectionTimeoutSeconds + " seconds");
+			newSocket.setSoTimeout(settings.initCDCSourceTimeoutSeconds * 1000);
+			BufferedReader newFeedbackStream = new BufferedReader(
+					new InputStreamReader(newSocket.getInputStream(), UTF8));
+			String readyLine = newFeedbackStream.readLine();
+			String[] readyElements = (readyLine != null) ? readyLine.split(settings.metadataSeparator) : new String[0];
+			String capabilities = (readyElements.length > 2) ? readyElements[2] : null;
+			if (readyLine == null || !readyLine.startsWith("i"))
+				throw new IOException("CDCSource operator did not report readiness on the new connection");
+			for (String option : initOptions.split(CDCStreamsProtocol.OPTION_SEPARATOR)) {
+				if (!option.equals(CDCStreamsProtocol.OPTION_ESCAPE)
+						&& !CDCStreamsProtocol.hasOption(capabilities, option))
+					throw new IOException("CDCSource operator on the new connection does not support option " + option);
+			}
+			// The initialization record holds the same options as the first
+			// one, with the position up to which the records are known to have
+			// been processed
+			OutputStream newOutputStream = new BufferedOutputStream(newSocket.getOutputStream(), OUTPUT_BUFFER_SIZE);
+			CDCStreamsRecordEncoder initEncoder = new CDCStreamsRecordEncoder(settings);
+			initEncoder.startRecord(CDCStreamsProtocol.INITIALIZE);
+			initEncoder.appendField("***INITIALIZE***");
+			initEncoder.appendField(new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSS'000'").format(new Date()));
+			initEncoder.appendField(initOptions);
+			initEncoder.appendField(subscriptionID);
+			initEncoder.appendField(sessionId);
+			initEncoder.appendField(Long.toString(acknowledgedPosition));
+			initEncoder.endRecord();
+			newOutputStream.write(initEncoder.getBuffer(), 0, initEncoder.getLength());
+			newOutputStream.flush();
+			long position = readResumePosition(newFeedbackStream);
+			newSocket.setSoTimeout(0);
+			if (deflater != null) {
+				Deflater previousDeflater = deflater;
+				deflater = new Deflater(settings.compressionLevel);
+				previousDeflater.end();
+				newOutputStream = new BufferedOutputStream(
+						new DeflaterOutputStream(newSocket.getOutputStream(), deflater, OUTPUT_BUFFER_SIZE, true),
+						OUTPUT_BUFFER_SIZE);
+			}
+			socket = newSocket;
+			feedbackStream = newFeedbackStream;
+			resumedOutputStream = newOutputStream;
+			feedbackReader.resume(newFeedbackStream);
+			return position;
+		} catch (IOException e) {
+			newSocket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the resume line that CDCSource sends in response to the
+	 * initialization record of a session that can be resumed.
+	 * 
+	 * @return Stream position at which CDCSource continues the session
+	 * @throws IOException
+	 *             if no valid resume line was received
+	 */
+	private long readResumePosition(BufferedReader stream) throws IOException {
+		String feedback = stream.readLine();
+		trace.write("Feedback received from CDCSource: {}", feedback);
+		long position = CDCStreamsProtocol.getResumePosition(feedback, settings.metadataSeparator);
+		if (position < 0)
+			throw new IOException("CDCSource operator did not report the position to resume the session at");
+		return position;
 	}
 
 	/**
@@ -136,10 +480,25 @@ public class CDCStreamsWriter {
 		trace.logEvent("User exit will write to InfoSphere Streams application using named pipe " + settings.namedPipe);
 		File fifoFile = new File(settings.namedPipe);
 		if (fifoFile.exists() && !fifoFile.isDirectory()) {
-			printWriter = new PrintWriter(new FileWriter(settings.namedPipe, true));
+			outputStream = new BufferedOutputStream(new FileOutputStream(settings.namedPipe, true),
+					getOutputBufferSize());
 		} else
 			throw new UserExitException("Named pipe " + settings.namedPipe + " does not exist.");
+		// A CDCSource operator that reads the named pipe (or a file in which
+		// the records are captured) learns the options and the subscription
+		// from the initialization record, as there is no feedback to negotiate
+		// them; the records are always sent as text
+		if (settings.escapeData)
+			addInitOption(CDCStreamsProtocol.OPTION_ESCAPE);
+		doInit();
+	}
 
+	/**
+	 * Returns the size of the output buffer, which must be able to hold the
+	 * bytes that the flush policy lets accumulate.
+	 */
+	private int getOutputBufferSize() {
+		return Math.max(OUTPUT_BUFFER_SIZE, settings.flushMaxBytes);
 	}
 
 	/**
@@ -147,26 +506,295 @@ public class CDCStreamsWriter {
 	 */
 	private void openWriterNull() {
 		trace.logEvent("User exit will not write to InfoSphere Streams application.");
-		printWriter = null;
+		outputStream = null;
+	}
+
+	/**
+	 * Chooses the protocol for the records that follow the initialization
+	 * record. The binary protocol is only used if it has been configured and
+	 * the CDCSource operator listed it as one of its capabilities in the
+	 * readiness line; older CDCSource operators do not send capabilities and
+	 * will receive text records.
+	 * 
+	 * @param readyLine
+	 *            Readiness line received from the CDCSource operator
+	 */
+	private void negotiateProtocol(String readyLine) {
+		String[] readyElements = readyLine.split(settings.metadataSeparator);
+		String capabilities = (readyElements.length > 2) ? readyElements[2] : null;
+		trace.logEvent("CDCSource operator capabilities: " + (capabilities != null ? capabilities : "none"));
+		if (settings.protocol.equalsIgnoreCase(CDCStreamsProtocol.PROTOCOL_BINARY)
+				&& CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_BINARY)) {
+			initOptions = CDCStreamsProtocol.OPTION_BINARY;
+		}
+		heartbeatSupported = CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_HEARTBEAT);
+		// CDCSource operators only advertise credit if they have a credit
+		// window
+		if (CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_CREDIT)) {
+			creditLimited = true;
+			addInitOption(CDCStreamsProtocol.OPTION_CREDIT);
+			trace.logEvent("Data records will be limited by the credit granted by the CDCSource operator");
+		}
+		if (settings.reconnect) {
+			if (CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_RESUME)) {
+				resumable = true;
+				addInitOption(CDCStreamsProtocol.OPTION_RESUME);
+				trace.logEvent("Session " + sessionId + " will be resumed if the connection is lost");
+			} else
+				trace.writeAlways("Warning: reconnect is enabled but the CDCSource operator cannot resume sessions; "
+						+ "the subscription will stop if the connection is lost");
+		}
+		if (settings.compression.equalsIgnoreCase(CDCStreamsProtocol.COMPRESSION_DEFLATE)) {
+			if (CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_DEFLATE))
+				addInitOption(CDCStreamsProtocol.OPTION_DEFLATE);
+			else
+				trace.writeAlways("Warning: compression is enabled but the CDCSource operator does not support "
+						+ "compression; records will be sent uncompressed");
+		}
+		// Escaped data can only be restored by the CDCParse operator, so the
+		// option is sent regardless of the capabilities of CDCSource
+		if (settings.escapeData) {
+			if (!CDCStreamsProtocol.hasOption(capabilities, CDCStreamsProtocol.OPTION_ESCAPE))
+				trace.writeAlways("Warning: escapeData is enabled but the CDCSource operator does not support "
+						+ "escaping; metadata fields will not be unescaped");
+			addInitOption(CDCStreamsProtocol.OPTION_ESCAPE);
+		}
+		trace.logEvent("Records will be sent to the CDCSource operator using the "
+				+ (CDCStreamsProtocol.hasOption(initOptions, CDCStreamsProtocol.OPTION_BINARY) ? "binary" : "text")
+				+ " protocol"
+				+ (CDCStreamsProtocol.hasOption(initOptions, CDCStreamsProtocol.OPTION_DEFLATE) ? ", compressed" : ""));
+	}
+
+	private void addInitOption(String option) {
+		initOptions = initOptions.isEmpty() ? option : initOptions + CDCStreamsProtocol.OPTION_SEPARATOR + option;
+	}
+
+	/**
+	 * Compresses the records written from now on. Every flush of the output
+	 * (at commits, handshakes and when the flush policy requires so) also
+	 * flushes the compressor, so that CDCSource can decompress all records
+	 * that have been sent without waiting for more data.
+	 * 
+	 * @throws UserExitException
+	 * @throws IOException
+	 */
+	private void startCompression() throws UserExitException, IOException {
+		// The initialization record must be sent uncompressed
+		flushOutput();
+		deflater = new Deflater(settings.compressionLevel);
+		synchronized (outputLock) {
+			outputStream = new BufferedOutputStream(
+					new DeflaterOutputStream(socket.getOutputStream(), deflater, OUTPUT_BUFFER_SIZE, true),
+					getOutputBufferSize());
+		}
+		trace.logEvent("Records will be compressed with deflate, compression level " + settings.compressionLevel);
+	}
+
+	/**
+	 * Writes the records from now on to a spill journal, from which they are
+	 * sent to the Streams application by a background thread. The journal
+	 * holds the records as written by the apply thread; compression, if
+	 * negotiated, happens when they are sent.
+	 * 
+	 * @throws UserExitException
+	 * @throws IOException
+	 */
+	private void startSpilling() throws UserExitException, IOException {
+		flushOutput();
+		// Without a spill directory, the journal only serves to resume the
+		// session and is kept in memory
+		File journalDirectory = settings.spillDirectory.isEmpty() ? null
+				: new File(settings.spillDirectory,
+						(subscriptionID + "_" + tcpHostPort).replaceAll("[^A-Za-z0-9._-]", "_"));
+		synchronized (outputLock) {
+			spillJournal = new CDCStreamsSpillJournal(journalDirectory, outputStream,
+					isCDCSource(), settings, trace);
+			outputStream = spillJournal;
+		}
+		trace.logEvent("Records will be written to spill journal "
+				+ (journalDirectory != null ? journalDirectory : "in memory") + " and sent from there");
+	}
+
+	/**
+	 * Removes the records that precede an acknowledged handshake from the
+	 * spill journal.
+	 */
+	private void handshakeAcknowledged(long sequence) {
+		if (spillJournal != null)
+			spillJournal.handshakeAcknowledged(sequence);
+	}
+
+	/**
+	 * Returns the encoder in which records are built before they are written
+	 * with writeEncodedRecord().
+	 */
+	protected CDCStreamsRecordEncoder getRecordEncoder() {
+		return encoder;
+	}
+
+	/**
+	 * Must be called before a data record is encoded. If CDCSource limits the
+	 * data records by credit and the credit has been used up, waits until
+	 * CDCSource grants more credit.
+	 * 
+	 * @throws UserExitException
+	 */
+	protected void acquireCredit() throws UserExitException {
+		if (creditLimited) {
+			if (dataRecordsSent >= feedbackReader.getCreditLimit())
+				awaitCredit(dataRecordsSent + 1);
+			dataRecordsSent++;
+		}
+	}
+
+	/**
+	 * Waits until CDCSource grants credit for the given number of data
+	 * records. The records sent so far are flushed, so that CDCSource can
+	 * submit them. If CDCSource grants credit for confirmed records only, a
+	 * handshake is requested for the records that no handshake covers yet,
+	 * as confirmations are only given for handshakes. Every period of
+	 * handshakeTimeoutMs without credit counts as a handshake failure.
+	 * 
+	 * @throws UserExitException
+	 */
+	private void awaitCredit(long dataRecords) throws UserExitException {
+		long startNanos = System.nanoTime();
+		trace.write("Credit of the CDCSource operator used up after {} data records, waiting for more credit",
+				dataRecordsSent);
+		for (;;) {
+			if (dataRecordsAtHandshake < dataRecordsSent)
+				requestHandshake();
+			else
+				flushOutput();
+			if (feedbackReader.waitForCredit(dataRecords, settings.handshakeTimeoutMs))
+				break;
+			if (feedbackReader.getFailure() != null)
+				throw new UserExitException(
+						"Credit can no longer be received from CDCSource: " + feedbackReader.getFailure());
+			trace.writeAlways("CDCSource operator did not grant credit within " + settings.handshakeTimeoutMs
+					+ " milliseconds");
+			registerHandshakeResult(false);
+		}
+		statistics.creditWaited(System.nanoTime() - startNanos);
 	}
 
 	/**
-	 * Writes the given string to the designated output.
+	 * Writes a record with the given type and fields to the designated output,
+	 * using the protocol that was negotiated with the target.
 	 * 
-	 * @param printLine
+	 * @param recordType
+	 *            Type of the record (d, c, h, i or f)
+	 * @param fields
+	 *            Fields of the record
 	 * @throws UserExitException
 	 */
-	protected void writeStreams(String printLine) throws UserExitException {
-		trace.write("Line being written to output: " + printLine);
-		if (printWriter != null) {
-			printWriter.write(printLine);
-			printWriter.write("\n");
-			if (printWriter.checkError()) {
-				throw new UserExitException("Error while writing record: " + printLine);
+	protected void writeRecord(char recordType, String... fields) throws UserExitException {
+		encoder.startRecord(recordType);
+		for (String field : fields)
+			encoder.appendField(field);
+		encoder.endRecord();
+		writeEncodedRecord();
+	}
+
+	/**
+	 * Writes the record that was built in the record encoder to the designated
+	 * output.
+	 * 
+	 * @throws UserExitException
+	 */
+	protected void writeEncodedRecord() throws UserExitException {
+		if (trace.isEnabled())
+			trace.write("Record being written to output: " + encoder);
+		if (outputStream != null) {
+			synchronized (outputLock) {
+				try {
+					outputStream.write(encoder.getBuffer(), 0, encoder.getLength());
+					statistics.bytesWritten(encoder.getLength());
+					unflushedBytes += encoder.getLength();
+					transactionBytes += encoder.getLength();
+					if (!unflushed)
+						recordBuffered();
+					if (unflushedBytes >= flushPolicy.getMaxBytes())
+						flushBuffered();
+				} catch (IOException e) {
+					throw new UserExitException(
+							"Error while writing record: " + encoder + ", message: " + e.getMessage());
+				}
 			}
 		}
 	}
 
+	/**
+	 * Registers that the output holds records that have not been flushed and
+	 * makes sure the timer flushes them once they have been buffered for the
+	 * maximum delay of the flush policy. The flush job reschedules itself while records keep
+	 * arriving, so the timer is not invoked for every flush. Must be called
+	 * while holding the output lock.
+	 */
+	private void recordBuffered() {
+		unflushed = true;
+		oldestUnflushedNanos = System.nanoTime();
+		long maxDelayNanos = flushPolicy.getMaxDelayNanos();
+		if (!flushScheduled && maxDelayNanos > 0) {
+			flushScheduled = true;
+			timer.schedule(flushJob, maxDelayNanos);
+		}
+	}
+
+	/**
+	 * Flushes the output if the oldest buffered record has reached the
+	 * maximum delay, otherwise reschedules the check for the moment it will.
+	 * Runs on the timer thread.
+	 */
+	private void flushIfDue() {
+		synchronized (outputLock) {
+			if (unflushed && !closed) {
+				long remainingNanos = oldestUnflushedNanos + flushPolicy.getMaxDelayNanos() - System.nanoTime();
+				if (remainingNanos > 0) {
+					timer.schedule(flushJob, remainingNanos);
+					return;
+				}
+				try {
+					flushBuffered();
+				} catch (IOException e) {
+					trace.writeAlways("Error while flushing buffer: " + e.getMessage());
+				}
+			}
+			flushScheduled = false;
+		}
+	}
+
+	/**
+	 * Sends a heartbeat if nothing has been flushed to the CDCSource operator
+	 * for heartbeatIntervalSeconds and schedules the next check. Runs on the
+	 * timer thread.
+	 */
+	private void sendHeartbeatIfIdle() {
+		long nextCheckNanos;
+		synchronized (outputLock) {
+			if (closed)
+				return;
+			long idleNanos = System.nanoTime() - lastFlushNanos;
+			if (idleNanos >= heartbeatIntervalNanos) {
+				heartbeatEncoder.startRecord(CDCStreamsProtocol.HEARTBEAT);
+				heartbeatEncoder.appendField("***HEARTBEAT***");
+				heartbeatEncoder.appendField(heartbeatDateFormat.format(new Date()));
+				heartbeatEncoder.endRecord();
+				try {
+					outputStream.write(heartbeatEncoder.getBuffer(), 0, heartbeatEncoder.getLength());
+					flushBuffered();
+				} catch (IOException e) {
+					// The apply thread reports the error with its next write
+					trace.writeAlways("Error while sending heartbeat: " + e.getMessage());
+					return;
+				}
+				nextCheckNanos = heartbeatIntervalNanos;
+			} else
+				nextCheckNanos = heartbeatIntervalNanos - idleNanos;
+		}
+		timer.schedule(heartbeatJob, nextCheckNanos);
+	}
+
 	/**
 	 * This method sends an initialization string to tell the Streams
 	 * application that the subscription has been (re)started.
@@ -176,8 +804,21 @@ public class CDCStreamsWriter {
 	 */
 	protected void doInit() throws UserExitException {
 		String currentTimeString = ISO_DATEFORMAT.format(new Date());
-		writeStreams(
-				"i" + settings.metadataSeparator + "***INITIALIZE***" + settings.metadataSeparator + currentTimeString);
+		// The initialization record is always sent as text, the options
+		// inform the CDCSource operator about the protocol of the next records
+		// and are followed by the identification of the subscription
+		// A session that can be resumed starts at stream position 0
+		if (resumable)
+			writeRecord(CDCStreamsProtocol.INITIALIZE, "***INITIALIZE***", currentTimeString, initOptions,
+					subscriptionID, sessionId, "0");
+		else if (isCDCSource() || isNamedPipe())
+			writeRecord(CDCStreamsProtocol.INITIALIZE, "***INITIALIZE***", currentTimeString, initOptions,
+					subscriptionID);
+		else if (initOptions.isEmpty())
+			writeRecord(CDCStreamsProtocol.INITIALIZE, "***INITIALIZE***", currentTimeString);
+		else
+			writeRecord(CDCStreamsProtocol.INITIALIZE, "***INITIALIZE***", currentTimeString, initOptions);
+		encoder.setBinary(CDCStreamsProtocol.hasOption(initOptions, CDCStreamsProtocol.OPTION_BINARY));
 	}
 
 	/**
@@ -188,8 +829,7 @@ public class CDCStreamsWriter {
 	 */
 	protected void doCommit(String transactionTimestamp, String transactionID) throws UserExitException {
 		trace.write("Sending commit to server");
-		writeStreams("c" + settings.metadataSeparator + "***COMMIT***" + settings.metadataSeparator
-				+ transactionTimestamp + settings.metadataSeparator + transactionID);
+		writeRecord(CDCStreamsProtocol.COMMIT, "***COMMIT***", transactionTimestamp, transactionID);
 
 	}
 
@@ -197,35 +837,185 @@ public class CDCStreamsWriter {
 	 * This method performs the handshake with the Streams application and
 	 * returns whether or not the handshake was successful.
 	 * 
+	 * Every handshake carries a sequence number. If only one handshake may be
+	 * in flight, the method waits for its acknowledgement; acknowledgements of
+	 * earlier handshakes that timed out are skipped. Otherwise the method only
+	 * waits if the maximum number of unacknowledged handshakes is exceeded and
+	 * returns true if a handshake was acknowledged since the previous commit.
+	 * In that case the committed bookmark can be ahead of the records that
+	 * have been confirmed by the Streams application by up to
+	 * handshakeMaxInFlight handshakes.
+	 * 
 	 * @return
 	 * @throws UserExitException
 	 */
 	protected boolean doHandshake() throws UserExitException {
-		boolean handshakeSuccessful = false;
+		requestHandshake();
+		return completeHandshake();
+	}
+
+	/**
+	 * Sends a handshake record. The handshake is completed with
+	 * completeHandshake(); a partitioned subscription first requests the
+	 * handshake on all its connections and then completes them, so that the
+	 * acknowledgements are awaited in parallel.
+	 * 
+	 * @throws UserExitException
+	 */
+	protected void requestHandshake() throws UserExitException {
+		handshakeStartNanos = System.nanoTime();
 		String currentTimeString = ISO_DATEFORMAT.format(new Date());
-		writeStreams(
-				"h" + settings.metadataSeparator + "***HANDSHAKE***" + settings.metadataSeparator + currentTimeString);
-		// Only enforce handshake when sending to CDCSource Streams operator
-		if (settings.outputType.equalsIgnoreCase("cdcsource")) {
-			trace.write("Requesting handshake from Streams CDCSource operator");
-			String feedback = getFeedback(settings.handshakeTimeoutMs);
-			trace.write("Feedback received from CDCSource: " + feedback);
-			if (feedback != null && feedback.startsWith("h")) {
-				handshakeSuccessful = true;
-				handshakeFailures = 0;
-			} else {
-				handshakeFailures += 1;
-				if (handshakeFailures > settings.handshakeMaximumFailures) {
-					throw new UserExitException("CDCSource operator did not handshake after " + handshakeFailures
-							+ " attempts, maximum number of handshake failures of " + settings.handshakeMaximumFailures
-							+ " has been exceeded. Terminating abnormally");
-				}
+		long sequence = ++handshakeSequence;
+		dataRecordsAtHandshake = dataRecordsSent;
+		writeRecord(CDCStreamsProtocol.HANDSHAKE, "***HANDSHAKE***", currentTimeString, Long.toString(sequence));
+		if (spillJournal != null) {
+			synchronized (outputLock) {
+				spillJournal.markHandshake(sequence);
 			}
+		}
+		// Only enforce handshake when sending to CDCSource Streams operator
+		if (isCDCSource()) {
+			trace.write("Requesting handshake {} from Streams CDCSource operator", sequence);
+			// The handshake record must have reached CDCSource before waiting
+			// for its feedback
+			flushOutput();
+		}
+	}
+
+	/**
+	 * Completes the handshake that was requested last and returns whether or
+	 * not it was successful, see doHandshake().
+	 * 
+	 * @throws UserExitException
+	 */
+	protected boolean completeHandshake() throws UserExitException {
+		boolean handshakeSuccessful = false;
+		if (isCDCSource()) {
+			if (feedbackReader == null) {
+				handshakeSuccessful = waitForHandshake(handshakeSequence);
+				registerHandshakeResult(handshakeSuccessful);
+				if (handshakeSuccessful)
+					handshakeAcknowledged(handshakeSequence);
+			} else if (settings.handshakeMaxInFlight > 1)
+				handshakeSuccessful = pipelineHandshake(handshakeSequence);
+			else
+				handshakeSuccessful = awaitAcknowledgement(handshakeSequence);
 		} else
 			handshakeSuccessful = true;
+		statistics.handshakeAttempted(System.nanoTime() - handshakeStartNanos);
 		return handshakeSuccessful;
 	}
 
+	/**
+	 * Registers that the bookmark has been committed after a successful
+	 * handshake. With asynchronous acknowledgements, the next handshake is
+	 * only successful if a newer handshake has been acknowledged by then.
+	 */
+	protected void bookmarkCommitted() {
+		committedSequence = acknowledgedAtHandshake;
+	}
+
+	/**
+	 * Returns the sequence number of the last handshake that was requested,
+	 * which is the number of handshakes requested on this connection.
+	 */
+	protected long getHandshakeSequence() {
+		return handshakeSequence;
+	}
+
+	/**
+	 * Keeps track of the contiguous handshake failures and terminates the
+	 * subscription if the maximum has been exceeded.
+	 * 
+	 * @throws UserExitException
+	 */
+	private void registerHandshakeResult(boolean acknowledged) throws UserExitException {
+		if (acknowledged) {
+			handshakeFailures = 0;
+		} else {
+			statistics.handshakeFailed();
+			handshakeFailures += 1;
+			if (handshakeFailures > settings.handshakeMaximumFailures) {
+				throw new UserExitException("CDCSource operator did not handshake after " + handshakeFailures
+						+ " attempts, maximum number of handshake failures of " + settings.handshakeMaximumFailures
+						+ " has been exceeded. Terminating abnormally");
+			}
+		}
+	}
+
+	/**
+	 * Waits for the acknowledgement of the handshake with the given sequence
+	 * number on the feedback stream.
+	 * 
+	 * @return true if the handshake was acknowledged within handshakeTimeoutMs
+	 */
+	private boolean waitForHandshake(long sequence) {
+		long endTimestamp = System.currentTimeMillis() + settings.handshakeTimeoutMs;
+		long remainingMs;
+		while ((remainingMs = endTimestamp - System.currentTimeMillis()) > 0) {
+			String feedback = getFeedback((int) remainingMs);
+			trace.write("Feedback received from CDCSource: {}", feedback);
+			if (feedback == null)
+				return false;
+			long acknowledgedSequence = CDCStreamsProtocol.getHandshakeSequence(feedback, settings.metadataSeparator);
+			// CDCSource operators that do not echo the sequence number
+			// acknowledge with a plain handshake record
+			if (acknowledgedSequence >= sequence
+					|| (acknowledgedSequence < 0 && feedback.startsWith(String.valueOf(CDCStreamsProtocol.HANDSHAKE))))
+				return true;
+			trace.write("Skipping acknowledgement of earlier handshake {}", acknowledgedSequence);
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for the acknowledgement of the handshake with the given sequence
+	 * number, as read by the feedback reader.
+	 * 
+	 * @return true if the handshake was acknowledged within handshakeTimeoutMs
+	 * @throws UserExitException
+	 */
+	private boolean awaitAcknowledgement(long sequence) throws UserExitException {
+		boolean acknowledged = feedbackReader.waitForAcknowledgement(sequence, settings.handshakeTimeoutMs);
+		if (feedbackReader.getFailure() != null)
+			throw new UserExitException(
+					"Handshake acknowledgements can no longer be received: " + feedbackReader.getFailure());
+		registerHandshakeResult(acknowledged);
+		if (acknowledged)
+			handshakeAcknowledged(sequence);
+		return acknowledged;
+	}
+
+	/**
+	 * Registers a handshake that is acknowledged asynchronously. Waits only if
+	 * more than handshakeMaxInFlight handshakes are unacknowledged; only then
+	 * a missing acknowledgement counts as a handshake failure.
+	 * 
+	 * @return true if a handshake has been acknowledged since the bookmark
+	 *         was last committed
+	 * @throws UserExitException
+	 */
+	private boolean pipelineHandshake(long sequence) throws UserExitException {
+		long oldestAllowedInFlight = sequence - settings.handshakeMaxInFlight;
+		boolean acknowledgedInTime = true;
+		if (feedbackReader.getAcknowledgedSequence() < oldestAllowedInFlight) {
+			trace.write("Maximum number of handshakes in flight reached, waiting for acknowledgement of handshake {}",
+					oldestAllowedInFlight);
+			acknowledgedInTime = feedbackReader.waitForAcknowledgement(oldestAllowedInFlight,
+					settings.handshakeTimeoutMs);
+		}
+		if (feedbackReader.getFailure() != null)
+			throw new UserExitException(
+					"Handshake acknowledgements can no longer be received: " + feedbackReader.getFailure());
+		registerHandshakeResult(acknowledgedInTime);
+		long acknowledgedSequence = feedbackReader.getAcknowledgedSequence();
+		if (trace.isEnabled())
+			trace.write("Handshakes sent: {}, acknowledged: {}", sequence, acknowledgedSequence);
+		acknowledgedAtHandshake = acknowledgedSequence;
+		handshakeAcknowledged(acknowledgedSequence);
+		return acknowledgedSequence > committedSequence;
+	}
+
 	/**
 	 * This method writes a Finalize to the target
 	 * 
@@ -235,13 +1025,12 @@ public class CDCStreamsWriter {
 	protected void doFinalize() throws UserExitException {
 		trace.write("Sending finalize to server");
 		String currentTimeString = ISO_DATEFORMAT.format(new Date());
-		writeStreams(
-				"f" + settings.metadataSeparator + "***FINALIZE***" + settings.metadataSeparator + currentTimeString);
+		writeRecord(CDCStreamsProtocol.FINALIZE, "***FINALIZE***", currentTimeString);
 	}
 
 	/**
 	 * This method gets feedback from the CDCSource operator over the same
-	 * TCP/IP socket. If the feedback is not received within timeoutMs
+	 * TCP/IP socket or memory-mapped file. If the feedback is not received within timeoutMs
 	 * milliseconds, a null is returned.
 	 * 
 	 * @param timeoutMs
@@ -252,7 +1041,7 @@ public class CDCStreamsWriter {
 	protected String getFeedback(int timeoutMs) {
 		String feedbackString = null;
 		try {
-			socket.setSoTimeout(timeoutMs);
+			setFeedbackTimeout(timeoutMs);
 			feedbackString = feedbackStream.readLine();
 		} catch (IOException e) {
 			trace.writeAlways("Feedback not received from server, message: " + e.getMessage());
@@ -266,25 +1055,82 @@ public class CDCStreamsWriter {
 	 * @throws UserExitException
 	 */
 	protected void flushOutput() throws UserExitException {
-		if (printWriter != null) {
-			printWriter.flush();
-			if (printWriter.checkError()) {
-				throw new UserExitException("Error while flushing buffer: ");
+		if (outputStream != null) {
+			synchronized (outputLock) {
+				try {
+					flushBuffered();
+				} catch (IOException e) {
+					throw new UserExitException("Error while flushing buffer: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called when a transaction has been committed, flushes the output if the
+	 * flush policy requires so. Otherwise the records are left in the buffer
+	 * until the policy's number of bytes or delay has been reached or a
+	 * handshake flushes them.
+	 * 
+	 * @throws UserExitException
+	 */
+	protected void commitOutput() throws UserExitException {
+		if (outputStream != null) {
+			synchronized (outputLock) {
+				try {
+					// Without a transaction since the previous commit there is
+					// nothing to wait for
+					if (transactionBytes == 0 || flushPolicy.isFlushAtCommit(System.nanoTime(), transactionBytes)) {
+						if (unflushed)
+							flushBuffered();
+					}
+					transactionBytes = 0;
+				} catch (IOException e) {
+					throw new UserExitException("Error while flushing buffer: " + e.getMessage());
+				}
 			}
 		}
 	}
 
+	/**
+	 * Flushes the output stream. Must be called while holding the output
+	 * lock.
+	 */
+	private void flushBuffered() throws IOException {
+		long startNanos = System.nanoTime();
+		outputStream.flush();
+		lastFlushNanos = System.nanoTime();
+		statistics.flushed(lastFlushNanos - startNanos);
+		unflushed = false;
+		unflushedBytes = 0;
+	}
+
 	/**
 	 * Closes the output and feedback streams
 	 */
 	protected void close() {
-		if (printWriter != null)
-			printWriter.close();
+		if (feedbackReader != null)
+			feedbackReader.stop();
+		if (outputStream != null)
+			synchronized (outputLock) {
+				closed = true;
+				try {
+					outputStream.close();
+				} catch (IOException ignore) {
+				}
+				if (deflater != null) {
+					trace.logEvent("Compressed " + deflater.getBytesRead() + " bytes of records to "
+							+ deflater.getBytesWritten() + " bytes");
+					deflater.end();
+				}
+			}
 		if (feedbackStream != null)
 			try {
 				feedbackStream.close();
 			} catch (IOException ignore) {
 			}
+		if (sharedMemory != null)
+			sharedMemory.close();
 	}
 
 }
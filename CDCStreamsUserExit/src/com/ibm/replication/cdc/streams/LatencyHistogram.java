@@ -0,0 +1,100 @@
+package com.ibm.replication.cdc.streams;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with buckets that double in size, from 1 microsecond
+ * up to about 34 seconds; longer latencies are counted in the last bucket.
+ *
+ * Every bucket is a striped counter, so recording a latency does not allocate
+ * and does not contend with other threads recording or reading the histogram.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 26;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * Returns the upper bound of every bucket in microseconds; bucket i holds
+	 * the latencies below 2^i microseconds that did not fit in bucket i-1.
+	 */
+	public static long[] getBucketUpperBoundsMicros() {
+		long[] bounds = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			bounds[i] = 1L << i;
+		return bounds;
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 *            Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		buckets[Math.min(bucket, BUCKETS - 1)].increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * Returns the number of latencies in every bucket.
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = buckets[i].sum();
+		return counts;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets)
+			count += bucket.sum();
+		return count;
+	}
+
+	public double getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+	}
+
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	/**
+	 * Returns the upper bound in microseconds of the bucket that holds the
+	 * given percentile of the latencies.
+	 *
+	 * @param percentile
+	 *            Percentile between 0 and 100
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] counts = getCounts();
+		long count = 0;
+		for (long bucketCount : counts)
+			count += bucketCount;
+		if (count == 0)
+			return 0;
+		long threshold = (long) Math.ceil(count * percentile / 100);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += counts[i];
+			if (cumulative >= threshold)
+				return 1L << i;
+		}
+		return 1L << (BUCKETS - 1);
+	}
+}
@@ -0,0 +1,58 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Stands in for the CDCSource operator: it accepts a connection from the user
+ * exit, reports readiness with the given capabilities and discards everything
+ * it receives, so that the benchmarks measure the user exit and the socket
+ * writes but not the processing of the records.
+ */
+public class DiscardingTarget implements Runnable {
+
+	private final ServerSocket serverSocket;
+	private final String readyLine;
+	private volatile Socket socket;
+
+	public DiscardingTarget(String metadataSeparator, String capabilities) throws IOException {
+		this.serverSocket = new ServerSocket(0);
+		this.readyLine = "i" + metadataSeparator + "2016-03-01 10:15:30.123000" + metadataSeparator + capabilities
+				+ "\n";
+		Thread thread = new Thread(this, "DiscardingTarget");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the address to configure in the tcpHostPort property.
+	 */
+	public String getHostPort() {
+		return "localhost:" + serverSocket.getLocalPort();
+	}
+
+	public void run() {
+		byte[] buffer = new byte[65536];
+		try {
+			socket = serverSocket.accept();
+			OutputStream toClient = socket.getOutputStream();
+			toClient.write(readyLine.getBytes(Charset.forName("UTF-8")));
+			toClient.flush();
+			InputStream fromClient = socket.getInputStream();
+			while (fromClient.read(buffer) >= 0) {
+			}
+		} catch (IOException e) {
+			// The connection is closed when the benchmark ends
+		}
+	}
+
+	public void close() throws IOException {
+		if (socket != null)
+			socket.close();
+		serverSocket.close();
+	}
+}
@@ -0,0 +1,341 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.datamirror.ts.target.publication.userexit.ReplicationEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.SubscriptionEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.UserExitException;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+import com.ibm.streamsx.cdc.benchmark.DecodingTarget;
+
+/**
+ * Drives the CDCStreams user exit with a synthetic change stream, the way the
+ * CDC engine would, to measure its throughput without a CDC installation.
+ * <p>
+ * The generator initializes a subscription-level user exit and one table-level
+ * user exit per table, calls processReplicationEvent() for every generated
+ * insert, update or delete and processSubscriptionEvent() for every commit.
+ * The records are sent over the loopback interface to a stand-in for the
+ * CDCSource operator, which decodes them and acknowledges the handshakes.
+ * </p>
+ * <p>
+ * Arguments are given as name=value:
+ * </p>
+ * <ul>
+ * <li>tables: number of replicated tables (default 1)</li>
+ * <li>columns: number of columns of every table (default 20)</li>
+ * <li>valueSize: number of characters of string values (default 16)</li>
+ * <li>transactionSize: number of operations per transaction (default 10)</li>
+ * <li>mix: percentages of inserts, updates and deletes (default 20,70,10)</li>
+ * <li>rate: target number of operations per second, 0 for as fast as possible
+ * (default 0)</li>
+ * <li>duration: number of seconds to run (default 30)</li>
+ * <li>reportInterval: number of seconds between progress reports (default
+ * 5)</li>
+ * <li>acknowledgementDelayMs: time the stand-in CDCSource takes to acknowledge
+ * a handshake (default 0)</li>
+ * <li>partitions: number of stand-in CDCSource operators the subscription is
+ * partitioned over, see the partitionBy property (default 1)</li>
+ * </ul>
+ * <p>
+ * All other arguments are passed to the user exit as properties, for example
+ * protocol=text, escapeData=true or handshakeMaxInFlight=4.
+ * </p>
+ * <p>
+ * At the end, the generator reports the sustained operations and bytes per
+ * second, the latency of the commit events and the time the commit events
+ * were stalled by handshakes.
+ * </p>
+ */
+public class LoadGenerator {
+
+	private static final int EVENTS_PER_TYPE = 16;
+	private static final String INSERT = "PT";
+	private static final String UPDATE = "UP";
+	private static final String DELETE = "DL";
+
+	private int tables = 1;
+	private int columns = 20;
+	private int valueSize = 16;
+	private int transactionSize = 10;
+	private int[] mix = { 20, 70, 10 };
+	private long rate = 0;
+	private long durationSeconds = 30;
+	private long reportIntervalSeconds = 5;
+	private long acknowledgementDelayMs = 0;
+	private int partitions = 1;
+	private final Properties userExitProperties = new Properties();
+
+	private final Random random = new Random(0);
+	private DecodingTarget[] targets;
+	private File propertiesFile;
+	private CDCStreams subscriptionExit;
+	private CDCStreams[] tableExits;
+	// Pre-generated operations for every table, cycled through
+	private StubEvents.Change[][] inserts;
+	private StubEvents.Change[][] updates;
+	private StubEvents.Change[][] deletes;
+	private final StubEvents.Commit commit = new StubEvents.Commit();
+
+	// Statistics
+	private long operations = 0;
+	private long transactions = 0;
+	private long handshakes = 0;
+	private long handshakeStallNanos = 0;
+	private long[] commitLatencies = new long[1024];
+	private int commitLatencyCount = 0;
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parseArguments(args);
+		generator.start();
+		try {
+			generator.run();
+		} finally {
+			generator.stop();
+		}
+	}
+
+	private void parseArguments(String[] args) {
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 1)
+				throw new IllegalArgumentException("Argument " + arg + " is not of the format name=value");
+			String name = arg.substring(0, equals);
+			String value = arg.substring(equals + 1);
+			if (name.equals("tables"))
+				tables = Integer.parseInt(value);
+			else if (name.equals("columns"))
+				columns = Integer.parseInt(value);
+			else if (name.equals("valueSize"))
+				valueSize = Integer.parseInt(value);
+			else if (name.equals("transactionSize"))
+				transactionSize = Integer.parseInt(value);
+			else if (name.equals("mix"))
+				mix = parseMix(value);
+			else if (name.equals("rate"))
+				rate = Long.parseLong(value);
+			else if (name.equals("duration"))
+				durationSeconds = Long.parseLong(value);
+			else if (name.equals("reportInterval"))
+				reportIntervalSeconds = Long.parseLong(value);
+			else if (name.equals("acknowledgementDelayMs"))
+				acknowledgementDelayMs = Long.parseLong(value);
+			else if (name.equals("partitions"))
+				partitions = Integer.parseInt(value);
+			else
+				userExitProperties.setProperty(name, value);
+		}
+		if (tables < 1 || columns < 1 || transactionSize < 1 || partitions < 1)
+			throw new IllegalArgumentException("tables, columns, transactionSize and partitions must be at least 1");
+	}
+
+	private static int[] parseMix(String value) {
+		String[] percentages = value.split(",");
+		if (percentages.length != 3)
+			throw new IllegalArgumentException("mix must hold the percentages of inserts, updates and deletes");
+		int[] parsed = new int[3];
+		for (int i = 0; i < 3; i++)
+			parsed[i] = Integer.parseInt(percentages[i].trim());
+		if (parsed[0] + parsed[1] + parsed[2] != 100)
+			throw new IllegalArgumentException("The percentages of mix must add up to 100");
+		return parsed;
+	}
+
+	/**
+	 * Starts the stand-in CDCSource and initializes the user exits like the
+	 * CDC engine does when the subscription starts.
+	 */
+	private void start() throws IOException, UserExitException {
+		String metadataSeparator = userExitProperties.getProperty("metadataSeparator", "\u0000");
+		targets = new DecodingTarget[partitions];
+		StringBuilder hostPorts = new StringBuilder();
+		for (int p = 0; p < partitions; p++) {
+			targets[p] = new DecodingTarget(metadataSeparator, acknowledgementDelayMs);
+			hostPorts.append(p == 0 ? "" : ",").append(targets[p].getHostPort());
+		}
+		userExitProperties.setProperty("outputType", "cdcsource");
+		userExitProperties.setProperty("tcpHostPort", hostPorts.toString());
+		propertiesFile = File.createTempFile("CDCStreamsLoad", ".properties");
+		OutputStream propertiesStream = new FileOutputStream(propertiesFile);
+		try {
+			userExitProperties.store(propertiesStream, "Generated by " + getClass().getName());
+		} finally {
+			propertiesStream.close();
+		}
+
+		StubEvents.Publisher publisher = new StubEvents.Publisher(propertiesFile.getAbsolutePath(), "LOADGEN");
+		subscriptionExit = new CDCStreams();
+		subscriptionExit.init((SubscriptionEventPublisherIF) publisher);
+		tableExits = new CDCStreams[tables];
+		inserts = new StubEvents.Change[tables][];
+		updates = new StubEvents.Change[tables][];
+		deletes = new StubEvents.Change[tables][];
+		for (int t = 0; t < tables; t++) {
+			tableExits[t] = new CDCStreams();
+			tableExits[t].init((ReplicationEventPublisherIF) publisher.forTable(""));
+			String tableName = BenchmarkData.TABLE_NAME + (t + 1);
+			inserts[t] = new StubEvents.Change[EVENTS_PER_TYPE];
+			updates[t] = new StubEvents.Change[EVENTS_PER_TYPE];
+			deletes[t] = new StubEvents.Change[EVENTS_PER_TYPE];
+			for (int e = 0; e < EVENTS_PER_TYPE; e++) {
+				inserts[t][e] = new StubEvents.Change(
+						new StubEvents.Header(INSERT, BenchmarkData.SCHEMA_NAME, tableName), null,
+						new StubEvents.Record(e, columns, valueSize, INSERT));
+				updates[t][e] = new StubEvents.Change(
+						new StubEvents.Header(UPDATE, BenchmarkData.SCHEMA_NAME, tableName),
+						new StubEvents.Record(e, columns, valueSize, UPDATE),
+						new StubEvents.Record(e + 1, columns, valueSize, UPDATE));
+				deletes[t][e] = new StubEvents.Change(
+						new StubEvents.Header(DELETE, BenchmarkData.SCHEMA_NAME, tableName),
+						new StubEvents.Record(e, columns, valueSize, DELETE), null);
+			}
+		}
+	}
+
+	/**
+	 * Generates transactions until the duration has passed, pacing them to
+	 * the target rate if one was given.
+	 */
+	private void run() throws UserExitException {
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+		long reportIntervalNanos = TimeUnit.SECONDS.toNanos(reportIntervalSeconds);
+		long nextReportNanos = startNanos + reportIntervalNanos;
+		long nanosPerTransaction = rate > 0 ? TimeUnit.SECONDS.toNanos(transactionSize) / rate : 0;
+		long nextTransactionNanos = startNanos;
+		long reportedOperations = 0;
+		long reportedBytes = 0;
+		CDCStreamsWriter writer = subscriptionExit.subscriptionContext.streamsWriter;
+
+		long now;
+		while ((now = System.nanoTime()) < endNanos) {
+			if (nanosPerTransaction > 0) {
+				if (now < nextTransactionNanos) {
+					LockSupport.parkNanos(nextTransactionNanos - now);
+					continue;
+				}
+				nextTransactionNanos += nanosPerTransaction;
+			}
+
+			// All operations of a transaction share the commit ID
+			String commitID = Long.toString(transactions + 1);
+			for (int o = 0; o < transactionSize; o++) {
+				int t = random.nextInt(tables);
+				StubEvents.Change change = nextChange(t);
+				change.getJournalHeader().setCommitID(commitID);
+				tableExits[t].processReplicationEvent(change);
+			}
+			operations += transactionSize;
+
+			long handshakesBefore = writer.getHandshakeSequence();
+			long commitStartNanos = System.nanoTime();
+			subscriptionExit.processSubscriptionEvent(commit);
+			long commitNanos = System.nanoTime() - commitStartNanos;
+			recordCommitLatency(commitNanos);
+			if (writer.getHandshakeSequence() != handshakesBefore) {
+				handshakes++;
+				handshakeStallNanos += commitNanos;
+			}
+			transactions++;
+
+			for (DecodingTarget target : targets) {
+				if (target.getFailure() != null)
+					throw new UserExitException("Stand-in CDCSource failed: " + target.getFailure());
+			}
+			if (commitStartNanos + commitNanos >= nextReportNanos) {
+				long bytes = getBytesReceived();
+				double seconds = (double) reportIntervalNanos / TimeUnit.SECONDS.toNanos(1);
+				System.out.println(String.format("%6ds: %,12.0f operations/s %,14.0f bytes/s",
+						TimeUnit.NANOSECONDS.toSeconds(nextReportNanos - startNanos),
+						(operations - reportedOperations) / seconds, (bytes - reportedBytes) / seconds));
+				reportedOperations = operations;
+				reportedBytes = bytes;
+				nextReportNanos += reportIntervalNanos;
+			}
+		}
+		report(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Picks the type of the next operation according to the mix and returns
+	 * one of the pre-generated operations of that type.
+	 */
+	private StubEvents.Change nextChange(int table) {
+		int percentile = random.nextInt(100);
+		int e = random.nextInt(EVENTS_PER_TYPE);
+		if (percentile < mix[0])
+			return inserts[table][e];
+		if (percentile < mix[0] + mix[1])
+			return updates[table][e];
+		return deletes[table][e];
+	}
+
+	private void recordCommitLatency(long nanos) {
+		if (commitLatencyCount == commitLatencies.length)
+			commitLatencies = Arrays.copyOf(commitLatencies, commitLatencyCount * 2);
+		commitLatencies[commitLatencyCount++] = nanos;
+	}
+
+	private void report(long elapsedNanos) {
+		double seconds = (double) elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+		long bytes = getBytesReceived();
+		long dataRecords = 0;
+		for (DecodingTarget target : targets)
+			dataRecords += target.getDataRecords();
+		System.out.println();
+		System.out.println(String.format("Duration:               %,.1f s", seconds));
+		System.out.println(String.format("Operations:             %,d (%,.0f/s), %,d received by CDCSource", operations,
+				operations / seconds, dataRecords));
+		System.out.println(String.format("Transactions:           %,d (%,.0f/s)", transactions, transactions / seconds));
+		System.out.println(String.format("Bytes:                  %,d (%,.0f/s)", bytes, bytes / seconds));
+		long[] latencies = Arrays.copyOf(commitLatencies, commitLatencyCount);
+		Arrays.sort(latencies);
+		if (latencies.length > 0)
+			System.out.println(String.format("Commit latency (us):    p50 %,.1f, p99 %,.1f, p99.9 %,.1f, max %,.1f",
+					percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+					latencies[latencies.length - 1] / 1000.0));
+		System.out.println(String.format("Handshakes:             %,d, stalled %,.1f ms in total (%,.1f us each)",
+				handshakes, handshakeStallNanos / 1e6, handshakes > 0 ? handshakeStallNanos / 1e3 / handshakes : 0.0));
+		System.out.println(String.format("Handshake stall share:  %.2f%%", 100.0 * handshakeStallNanos / elapsedNanos));
+	}
+
+	private long getBytesReceived() {
+		long bytes = 0;
+		for (DecodingTarget target : targets)
+			bytes += target.getBytesReceived();
+		return bytes;
+	}
+
+	private static double percentile(long[] sorted, double fraction) {
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+	}
+
+	private void stop() throws IOException {
+		if (tableExits != null) {
+			for (CDCStreams tableExit : tableExits) {
+				if (tableExit != null)
+					tableExit.finish();
+			}
+		}
+		if (subscriptionExit != null)
+			subscriptionExit.finish();
+		if (targets != null) {
+			for (DecodingTarget target : targets) {
+				if (target != null)
+					target.close();
+			}
+		}
+		if (propertiesFile != null)
+			propertiesFile.delete();
+	}
+}
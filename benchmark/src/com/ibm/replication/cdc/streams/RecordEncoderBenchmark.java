@@ -0,0 +1,113 @@
+package com.ibm.replication.cdc.streams;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.replication.cdc.common.UESettings;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+
+/**
+ * Measures the encoding of the column values of a row image into the data
+ * field: as is, with the characters of all columns fixed (fixColumns) and with
+ * escaping (escapeData). The baseline is the regular expression replacement
+ * and string concatenation that was used to fix columns before the record
+ * encoder existed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordEncoderBenchmark {
+
+	@Param({ "10", "50", "150" })
+	public int columnCount;
+
+	@Param({ "8", "64" })
+	public int valueSize;
+
+	@Param({ "GS", "PIPE" })
+	public String separator;
+
+	private Object[] values;
+	private boolean[] noColumnsFixed;
+	private boolean[] allColumnsFixed;
+	private UESettings settings;
+	private CDCStreamsRecordEncoder plainEncoder;
+	private CDCStreamsRecordEncoder escapingEncoder;
+	private byte[] prefix;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		values = new Object[columnCount];
+		for (int column = 1; column <= columnCount; column++)
+			values[column - 1] = BenchmarkData.value(1, column, valueSize);
+		noColumnsFixed = new boolean[columnCount];
+		allColumnsFixed = new boolean[columnCount];
+		Arrays.fill(allColumnsFixed, true);
+
+		settings = new UESettings(null);
+		settings.separator = BenchmarkData.separator(separator);
+		settings.escapeData = false;
+		plainEncoder = new CDCStreamsRecordEncoder(settings);
+		settings.escapeData = true;
+		escapingEncoder = new CDCStreamsRecordEncoder(settings);
+		settings.escapeData = false;
+		prefix = plainEncoder.encodePrefix(CDCStreamsProtocol.DATA, BenchmarkData.QUALIFIED_TABLE_NAME);
+	}
+
+	private int encode(CDCStreamsRecordEncoder encoder, boolean[] fixColumn) {
+		encoder.startRecord(prefix);
+		encoder.startField();
+		for (int i = 0; i < values.length; i++) {
+			if (i != 0)
+				encoder.appendSeparator();
+			encoder.appendColumn(values[i], fixColumn[i]);
+		}
+		encoder.endField();
+		encoder.endRecord();
+		return encoder.getLength();
+	}
+
+	@Benchmark
+	public int plain() {
+		return encode(plainEncoder, noColumnsFixed);
+	}
+
+	@Benchmark
+	public int fixColumns() {
+		return encode(plainEncoder, allColumnsFixed);
+	}
+
+	@Benchmark
+	public int escapeData() {
+		return encode(escapingEncoder, noColumnsFixed);
+	}
+
+	@Benchmark
+	public int fixColumnsBaseline() {
+		String printLine = "d" + settings.metadataSeparator + BenchmarkData.QUALIFIED_TABLE_NAME
+				+ settings.metadataSeparator;
+		for (int i = 0; i < values.length; i++) {
+			if (i != 0)
+				printLine += settings.separator;
+			printLine += values[i].toString().replaceAll("[\r\n" + settings.separator + "]",
+					settings.fixColumnConversionCharacter);
+		}
+		return printLine.length();
+	}
+}
@@ -0,0 +1,207 @@
+package com.ibm.replication.cdc.streams;
+
+import com.datamirror.ts.target.publication.userexit.CommitReasonTypes;
+import com.datamirror.ts.target.publication.userexit.DataRecordIF;
+import com.datamirror.ts.target.publication.userexit.JournalHeaderIF;
+import com.datamirror.ts.target.publication.userexit.ReplicationEventIF;
+import com.datamirror.ts.target.publication.userexit.ReplicationEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.SubscriptionEventIF;
+import com.datamirror.ts.target.publication.userexit.SubscriptionEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.SubscriptionEventTypes;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+
+/**
+ * Minimal implementations of the CDC user exit interfaces, holding the values
+ * that the CDC engine would pass to the user exit.
+ */
+public class StubEvents {
+
+	/**
+	 * Publisher passed to the subscription-level and table-level init()
+	 * methods.
+	 */
+	public static class Publisher implements SubscriptionEventPublisherIF, ReplicationEventPublisherIF {
+		private final String parameter;
+		private final String sourceSystemID;
+		private Object subscriptionContext;
+
+		public Publisher(String parameter, String sourceSystemID) {
+			this.parameter = parameter;
+			this.sourceSystemID = sourceSystemID;
+		}
+
+		/**
+		 * Creates the table-level publisher, which shares the subscription
+		 * context with the subscription-level publisher.
+		 */
+		public Publisher forTable(String tableParameter) {
+			Publisher table = new Publisher(tableParameter, sourceSystemID);
+			table.subscriptionContext = subscriptionContext;
+			return table;
+		}
+
+		public String getSourceSystemID() {
+			return sourceSystemID;
+		}
+
+		public String getParameter() {
+			return parameter;
+		}
+
+		public void setUserExitSubscriptionContext(Object context) {
+			subscriptionContext = context;
+		}
+
+		public Object getUserExitSubscriptionContext() {
+			return subscriptionContext;
+		}
+
+		public void subscribeEvent(int eventType) {
+		}
+
+		public void unsubscribeEvent(int eventType) {
+		}
+
+		public void logEvent(String message) {
+		}
+	}
+
+	/**
+	 * Row image with the table columns followed by a journal control column,
+	 * which the user exit does not replicate.
+	 */
+	public static class Record implements DataRecordIF {
+		private final String[] names;
+		private final Object[] values;
+
+		public Record(int row, int columnCount, int valueSize) {
+			this(row, columnCount, valueSize, "UP");
+		}
+
+		public Record(int row, int columnCount, int valueSize, String entryType) {
+			names = new String[columnCount + 1];
+			values = new Object[columnCount + 1];
+			for (int column = 1; column <= columnCount; column++) {
+				names[column - 1] = BenchmarkData.columnName(column);
+				values[column - 1] = BenchmarkData.value(row, column, valueSize);
+			}
+			names[columnCount] = "&ENTTYP";
+			values[columnCount] = entryType;
+		}
+
+		public int getColumnCount() {
+			return names.length;
+		}
+
+		public String getColumnName(int column) {
+			return names[column - 1];
+		}
+
+		public Object getObject(int column) {
+			return values[column - 1];
+		}
+	}
+
+	/**
+	 * Journal header of an operation. The commit ID can be changed so that
+	 * the same event can be replayed in different transactions.
+	 */
+	public static class Header implements JournalHeaderIF {
+		private final String entryType;
+		private final String library;
+		private final String objectName;
+		private String commitID = "1234567890";
+
+		public Header(String entryType) {
+			this(entryType, BenchmarkData.SCHEMA_NAME, BenchmarkData.TABLE_NAME);
+		}
+
+		public Header(String entryType, String library, String objectName) {
+			this.entryType = entryType;
+			this.library = library;
+			this.objectName = objectName;
+		}
+
+		public void setCommitID(String commitID) {
+			this.commitID = commitID;
+		}
+
+		public String getTimestamp() {
+			return "2016-03-01 10:15:30.123456000000";
+		}
+
+		public String getCommitID() {
+			return commitID;
+		}
+
+		public String getEntryType() {
+			return entryType;
+		}
+
+		public String getUserName() {
+			return "CDCUSER";
+		}
+
+		public String getLibrary() {
+			return library;
+		}
+
+		public String getObjectName() {
+			return objectName;
+		}
+	}
+
+	/**
+	 * Insert, update or delete of a row. Inserts have no before image and
+	 * deletes have no after image.
+	 */
+	public static class Change implements ReplicationEventIF {
+		private final Header header;
+		private final DataRecordIF beforeImage;
+		private final DataRecordIF afterImage;
+
+		public Change(Header header, DataRecordIF beforeImage, DataRecordIF afterImage) {
+			this.header = header;
+			this.beforeImage = beforeImage;
+			this.afterImage = afterImage;
+		}
+
+		public Header getJournalHeader() {
+			return header;
+		}
+
+		public DataRecordIF getSourceBeforeData() {
+			return beforeImage;
+		}
+
+		public DataRecordIF getSourceData() {
+			return afterImage;
+		}
+
+		public void logEvent(String message) {
+		}
+	}
+
+	/**
+	 * Update of a row, with a before and an after image.
+	 */
+	public static class Update extends Change {
+		public Update(int columnCount, int valueSize) {
+			super(new Header("UP"), new Record(0, columnCount, valueSize), new Record(1, columnCount, valueSize));
+		}
+	}
+
+	/**
+	 * Commit of a transaction at the source, the event on which the user exit
+	 * sends the commit record and handshakes.
+	 */
+	public static class Commit implements SubscriptionEventIF {
+		public int getEventType() {
+			return SubscriptionEventTypes.BEFORE_PHYSICAL_COMMIT_EVENT;
+		}
+
+		public int getCommitReason() {
+			return CommitReasonTypes.SOURCE_COMMIT;
+		}
+	}
+}
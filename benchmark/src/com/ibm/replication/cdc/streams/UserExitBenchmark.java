@@ -0,0 +1,96 @@
+package com.ibm.replication.cdc.streams;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.datamirror.ts.target.publication.userexit.ReplicationEventIF;
+import com.datamirror.ts.target.publication.userexit.ReplicationEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.SubscriptionEventPublisherIF;
+import com.datamirror.ts.target.publication.userexit.UserExitException;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+
+/**
+ * Measures CDCStreams.processReplicationEvent(): building the record for an
+ * update (before and after image) and writing it to the socket of a target
+ * that discards the records.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UserExitBenchmark {
+
+	@Param({ "10", "50", "150" })
+	public int columnCount;
+
+	@Param({ "8", "64" })
+	public int valueSize;
+
+	@Param({ "GS", "PIPE" })
+	public String separator;
+
+	@Param({ "binary", "text" })
+	public String protocol;
+
+	@Param({ "false", "true" })
+	public boolean escapeData;
+
+	private DiscardingTarget target;
+	private File propertiesFile;
+	private CDCStreams subscriptionExit;
+	private CDCStreams tableExit;
+	private ReplicationEventIF event;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, UserExitException {
+		target = new DiscardingTarget("\u0000", "binary,escape");
+		propertiesFile = File.createTempFile("CDCStreamsBenchmark", ".properties");
+		PrintWriter properties = new PrintWriter(new FileWriter(propertiesFile));
+		properties.println("outputType=cdcsource");
+		properties.println("tcpHostPort=" + target.getHostPort());
+		properties.println("protocol=" + protocol);
+		properties.println("separator=" + BenchmarkData.separator(separator));
+		properties.println("escapeData=" + escapeData);
+		properties.close();
+
+		StubEvents.Publisher subscriptionPublisher = new StubEvents.Publisher(propertiesFile.getAbsolutePath(),
+				"BENCH");
+		subscriptionExit = new CDCStreams();
+		subscriptionExit.init((SubscriptionEventPublisherIF) subscriptionPublisher);
+		tableExit = new CDCStreams();
+		tableExit.init((ReplicationEventPublisherIF) subscriptionPublisher.forTable(""));
+		event = new StubEvents.Update(columnCount, valueSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		tableExit.finish();
+		subscriptionExit.finish();
+		target.close();
+		propertiesFile.delete();
+	}
+
+	@Benchmark
+	public boolean processReplicationEvent() throws UserExitException {
+		return tableExit.processReplicationEvent(event);
+	}
+}
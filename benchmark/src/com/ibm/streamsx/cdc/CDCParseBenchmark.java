@@ -0,0 +1,168 @@
+package com.ibm.streamsx.cdc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.meta.TupleType;
+import com.ibm.streams.operator.stub.StubOperatorContext;
+import com.ibm.streams.operator.stub.StubOutput;
+import com.ibm.streams.operator.stub.StubSchemas;
+import com.ibm.streams.operator.types.RString;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+
+/**
+ * Measures how the CDCParse operator maps the data field of an update record
+ * to the attributes of its output tuple. The mapping is read from a generated
+ * subscription export XML document in which all columns of the table are
+ * selected.
+ * <p>
+ * The output tuple either has an attribute for the first three columns (FEW)
+ * or for every column (ALL); numeric columns are mapped to int64 attributes,
+ * the other columns to rstring attributes. The data field always uses the |
+ * separator, the separator parameter is either the escaped character, which
+ * is scanned for directly, or an equivalent regular expression.
+ * </p>
+ * <p>
+ * The baseline splits the whole data field and sets the attributes by name,
+ * which is how CDCParse processed tuples before the mapping was compiled.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CDCParseBenchmark {
+
+	private static final String METADATA_SCHEMA = "tuple<rstring txTableName,rstring txTimestamp,rstring txId,"
+			+ "rstring txEntryType,rstring txUser,rstring txSubscription>";
+	private static final int FEW_COLUMNS = 3;
+
+	@Param({ "10", "50", "150" })
+	public int columnCount;
+
+	@Param({ "8", "64" })
+	public int valueSize;
+
+	@Param({ "\\|", "[|]" })
+	public String separator;
+
+	@Param({ "FEW", "ALL" })
+	public String mapped;
+
+	private File exportXml;
+	private CDCParse parse;
+	private StubOutput input;
+	private StubOutput output;
+	private Tuple tuple;
+
+	// Attribute name to column index in the data field, for the baseline
+	private HashMap<String, Integer> outputData = new HashMap<String, Integer>();
+	private HashSet<String> numericAttributes = new HashSet<String>();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		exportXml = writeExportXml();
+		StreamSchema inputSchema = StubSchemas.parse("tuple<" + METADATA_SCHEMA + " cdcMetadata,rstring data>");
+		StringBuilder outputSchema = new StringBuilder("tuple<" + METADATA_SCHEMA + " cdcMetadata");
+		int mappedColumns = mapped.equals("ALL") ? columnCount : Math.min(FEW_COLUMNS, columnCount);
+		for (int column = 1; column <= mappedColumns; column++) {
+			outputSchema.append(BenchmarkData.isNumeric(column) ? ",int64 " : ",rstring ");
+			outputSchema.append(BenchmarkData.columnName(column));
+			// After image columns follow the before image columns
+			outputData.put(BenchmarkData.columnName(column), columnCount + column - 1);
+			if (BenchmarkData.isNumeric(column))
+				numericAttributes.add(BenchmarkData.columnName(column));
+		}
+		outputSchema.append('>');
+		input = new StubOutput(inputSchema, 0);
+		output = new StubOutput(StubSchemas.parse(outputSchema.toString()), 0);
+
+		parse = new CDCParse();
+		parse.setCdcExportXml(exportXml.getAbsolutePath());
+		parse.setQualifiedTableName(BenchmarkData.QUALIFIED_TABLE_NAME);
+		parse.setSeparator(separator);
+		parse.initialize(new StubOperatorContext().addInput(input).addOutput(output));
+
+		StreamSchema metadataSchema = ((TupleType) inputSchema.getAttribute("cdcMetadata").getType())
+				.getTupleSchema();
+		Tuple metadata = metadataSchema.getTuple(new Object[] { new RString(BenchmarkData.QUALIFIED_TABLE_NAME),
+				new RString("2016-03-01 10:15:30.123456000000"), new RString("1"), new RString("UP"),
+				new RString("CDCUSER"), new RString("BENCH") });
+		tuple = inputSchema.getTuple(new Object[] { metadata,
+				new RString(BenchmarkData.dataField(0, columnCount, valueSize, "|")) });
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		parse.shutdown();
+		exportXml.delete();
+	}
+
+	/**
+	 * Writes a subscription export XML document holding the table mapping of
+	 * the benchmark table.
+	 */
+	private File writeExportXml() throws IOException {
+		File file = File.createTempFile("CDCParseBenchmark", ".xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<TS>\n\t<Subscription name=\"BENCH\">\n");
+			writer.write("\t\t<TableMapping sourceUser=\"" + BenchmarkData.SCHEMA_NAME + "\" sourceTableName=\""
+					+ BenchmarkData.TABLE_NAME + "\">\n");
+			for (int column = 1; column <= columnCount; column++)
+				writer.write("\t\t\t<SourceColumn columnName=\"" + BenchmarkData.columnName(column)
+						+ "\" selected=\"true\"/>\n");
+			writer.write("\t\t</TableMapping>\n\t</Subscription>\n</TS>\n");
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	@Benchmark
+	public Tuple process() throws Exception {
+		parse.process(input, tuple);
+		return output.lastTuple;
+	}
+
+	@Benchmark
+	public Tuple processBaseline() {
+		OutputTuple outTuple = output.newTuple();
+		outTuple.assign(tuple);
+		String[] fields = tuple.getString("data").split(separator, -1);
+		for (String attrName : outputData.keySet()) {
+			String value = fields[outputData.get(attrName)];
+			if (numericAttributes.contains(attrName))
+				outTuple.setObject(attrName, Long.valueOf(value.isEmpty() ? 0 : Long.parseLong(value)));
+			else
+				outTuple.setString(attrName, value);
+		}
+		output.submit(outTuple);
+		return output.lastTuple;
+	}
+}
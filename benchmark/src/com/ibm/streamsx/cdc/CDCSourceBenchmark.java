@@ -0,0 +1,241 @@
+package com.ibm.streamsx.cdc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.stub.StubOperatorContext;
+import com.ibm.streams.operator.stub.StubOutput;
+import com.ibm.streams.operator.stub.StubSchemas;
+import com.ibm.streams.operator.types.RString;
+import com.ibm.streamsx.cdc.benchmark.BenchmarkData;
+
+/**
+ * Measures how the CDCSource operator turns the bytes received from the user
+ * exit into tuples: locating the records and their fields in the buffer and
+ * building the tuple of every data record. A batch of records is replayed from
+ * memory so that no socket is involved.
+ * <p>
+ * The baseline reads the same records as text lines with a BufferedReader,
+ * splits them into strings and sets the attributes by name, which is how
+ * CDCSource processed records before the record reader existed.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CDCSourceBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int RECORDS = 1000;
+	private static final String SCHEMA = "tuple<tuple<rstring txTableName,rstring txTimestamp,rstring txId,"
+			+ "rstring txEntryType,rstring txUser,rstring txSubscription> cdcMetadata,rstring data>";
+
+	/**
+	 * Records as sent by the user exit, with the default metadata separator;
+	 * the separator parameter is the separator of the columns in the data
+	 * field.
+	 */
+	@State(Scope.Thread)
+	public static class Records {
+		@Param({ "10", "50", "150" })
+		public int columnCount;
+
+		@Param({ "8", "64" })
+		public int valueSize;
+
+		@Param({ "GS", "PIPE" })
+		public String separator;
+
+		protected String metadataSeparator;
+		protected StubOutput output;
+
+		protected String[][] records() {
+			String[][] records = new String[RECORDS][];
+			for (int row = 0; row < RECORDS; row++) {
+				records[row] = new String[] { "d", BenchmarkData.QUALIFIED_TABLE_NAME,
+						"2016-03-01 10:15:30.123456000000", Integer.toString(row), "U", "CDCUSER",
+						BenchmarkData.dataField(row, columnCount, valueSize, BenchmarkData.separator(separator)) };
+			}
+			return records;
+		}
+
+		protected byte[] encodeText(String[][] records) {
+			StringBuilder text = new StringBuilder();
+			for (String[] record : records) {
+				for (int f = 0; f < record.length; f++) {
+					if (f > 0)
+						text.append(metadataSeparator);
+					text.append(record[f]);
+				}
+				text.append('\n');
+			}
+			return text.toString().getBytes(UTF8);
+		}
+
+		protected void setUpRecords() {
+			metadataSeparator = "\u0000";
+			output = new StubOutput(StubSchemas.parse(SCHEMA), 0);
+		}
+	}
+
+	/**
+	 * Records in the text or binary protocol, read by a CDCSource operator.
+	 */
+	@State(Scope.Thread)
+	public static class SourceRecords extends Records {
+		@Param({ "binary", "text" })
+		public String protocol;
+
+		private CDCSource source;
+		private CDCRecordReader reader;
+		private ReplayChannel channel;
+		private final RString subscription = new RString("BENCH");
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			setUpRecords();
+			String[][] records = records();
+			byte[] bytes = protocol.equals("binary") ? encodeBinary(records) : encodeText(records);
+			channel = new ReplayChannel(bytes);
+			source = new CDCSource();
+			source.setPort(0);
+			source.setseparator(metadataSeparator);
+			source.initialize(new StubOperatorContext().addOutput(output));
+			reader = new CDCRecordReader(metadataSeparator);
+			reader.setBinary(protocol.equals("binary"));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			source.shutdown();
+		}
+
+		private byte[] encodeBinary(String[][] records) {
+			ByteArrayOutputStream binary = new ByteArrayOutputStream();
+			for (String[] record : records) {
+				ByteArrayOutputStream frame = new ByteArrayOutputStream();
+				frame.write(record[0].charAt(0));
+				for (int f = 1; f < record.length; f++) {
+					byte[] field = record[f].getBytes(UTF8);
+					frame.write(ByteBuffer.allocate(CDCProtocol.LENGTH_PREFIX_SIZE).putInt(field.length).array(), 0,
+							CDCProtocol.LENGTH_PREFIX_SIZE);
+					frame.write(field, 0, field.length);
+				}
+				binary.write(ByteBuffer.allocate(CDCProtocol.LENGTH_PREFIX_SIZE).putInt(frame.size()).array(), 0,
+						CDCProtocol.LENGTH_PREFIX_SIZE);
+				binary.write(frame.toByteArray(), 0, frame.size());
+			}
+			return binary.toByteArray();
+		}
+	}
+
+	/**
+	 * Records in the text protocol, read as lines.
+	 */
+	@State(Scope.Thread)
+	public static class TextRecords extends Records {
+		private byte[] bytes;
+		private StreamSchema metadataSchema;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			setUpRecords();
+			bytes = encodeText(records());
+			metadataSchema = StubSchemas.parse("tuple<rstring txTableName,rstring txTimestamp,rstring txId,"
+					+ "rstring txEntryType,rstring txUser,rstring txSubscription>");
+		}
+	}
+
+	/**
+	 * Channel that returns the same bytes every time it is rewound, in chunks
+	 * like a socket would.
+	 */
+	static class ReplayChannel implements ReadableByteChannel {
+		private static final int CHUNK_SIZE = 65536;
+		private final ByteBuffer bytes;
+
+		ReplayChannel(byte[] bytes) {
+			this.bytes = ByteBuffer.wrap(bytes);
+		}
+
+		void rewind() {
+			bytes.clear();
+		}
+
+		public int read(ByteBuffer destination) {
+			if (!bytes.hasRemaining())
+				return -1;
+			int length = Math.min(Math.min(destination.remaining(), bytes.remaining()), CHUNK_SIZE);
+			ByteBuffer chunk = bytes.duplicate();
+			chunk.limit(chunk.position() + length);
+			destination.put(chunk);
+			bytes.position(bytes.position() + length);
+			return length;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public Tuple readRecords(SourceRecords state) throws Exception {
+		state.channel.rewind();
+		while (state.reader.read(state.channel) >= 0) {
+			while (state.reader.next())
+				state.source.submitData(state.reader, state.subscription, state.output);
+		}
+		return state.output.lastTuple;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public Tuple readLinesBaseline(TextRecords state) throws IOException {
+		BufferedReader fromClient = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(state.bytes), UTF8));
+		String messageReceived;
+		while ((messageReceived = fromClient.readLine()) != null) {
+			String[] messageContent = messageReceived.split(state.metadataSeparator);
+			OutputTuple cdcDataTuple = state.output.newTuple();
+			java.lang.Object[] metadataArray = { new RString(messageContent[1]), new RString(messageContent[2]),
+					new RString(messageContent[3]), new RString(messageContent[4]), new RString(messageContent[5]),
+					new RString("") };
+			Tuple cdcMetadata = state.metadataSchema.getTuple(metadataArray);
+			cdcDataTuple.setTuple("cdcMetadata", cdcMetadata);
+			cdcDataTuple.setString("data", messageContent[6]);
+			state.output.submit(cdcDataTuple);
+		}
+		return state.output.lastTuple;
+	}
+}
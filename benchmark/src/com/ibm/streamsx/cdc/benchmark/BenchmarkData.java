@@ -0,0 +1,86 @@
+package com.ibm.streamsx.cdc.benchmark;
+
+/**
+ * Generates the column names and values used by the benchmarks, so that every
+ * suite replicates the same kind of table.
+ * <p>
+ * The replicated table has columnCount columns named C1, C2, etc. Every fourth
+ * column holds a number, the other columns hold strings of valueSize
+ * characters. None of the values contain separators or other characters that
+ * must be escaped; escaping only costs a table lookup per character then,
+ * which is the common case.
+ * </p>
+ */
+public class BenchmarkData {
+
+	public static final String SCHEMA_NAME = "BENCH";
+	public static final String TABLE_NAME = "ORDERS";
+	public static final String QUALIFIED_TABLE_NAME = SCHEMA_NAME + "." + TABLE_NAME;
+
+	private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+	/**
+	 * Returns the separator for a separator parameter: PIPE (|), COMMA (,) or
+	 * GS (the group separator character, the default column separator of the
+	 * user exit).
+	 */
+	public static String separator(String name) {
+		if (name.equals("PIPE"))
+			return "|";
+		if (name.equals("COMMA"))
+			return ",";
+		if (name.equals("GS"))
+			return "\u001d";
+		throw new IllegalArgumentException("Unknown separator " + name);
+	}
+
+	/**
+	 * Returns the name of a column; the first column is 1.
+	 */
+	public static String columnName(int column) {
+		return "C" + column;
+	}
+
+	/**
+	 * Indicates whether a column holds a number rather than a string.
+	 */
+	public static boolean isNumeric(int column) {
+		return column % 4 == 0;
+	}
+
+	/**
+	 * Returns the value of a column for a row.
+	 *
+	 * @param row
+	 *            Row number, which varies the values between rows
+	 * @param column
+	 *            Column number, the first column is 1
+	 * @param valueSize
+	 *            Number of characters of string values
+	 * @return Integer or String value
+	 */
+	public static Object value(int row, int column, int valueSize) {
+		if (isNumeric(column))
+			return Integer.valueOf(row * 1000 + column);
+		char[] value = new char[valueSize];
+		for (int i = 0; i < valueSize; i++)
+			value[i] = CHARACTERS.charAt((row + column + i) % CHARACTERS.length());
+		return new String(value);
+	}
+
+	/**
+	 * Returns the data field of a record as sent by the user exit: the
+	 * before-image columns followed by the after-image columns.
+	 */
+	public static String dataField(int row, int columnCount, int valueSize, String separator) {
+		StringBuilder data = new StringBuilder();
+		for (int image = 0; image < 2; image++) {
+			for (int column = 1; column <= columnCount; column++) {
+				if (image > 0 || column > 1)
+					data.append(separator);
+				data.append(value(row + image, column, valueSize));
+			}
+		}
+		return data.toString();
+	}
+}
@@ -0,0 +1,176 @@
+package com.ibm.streamsx.cdc.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.streamsx.cdc.CDCProtocol;
+import com.ibm.streamsx.cdc.CDCRecordReader;
+
+/**
+ * Stands in for the CDCSource operator when driving the user exit with
+ * generated load: it accepts a connection, reports readiness, decodes the
+ * records with the reader of the CDCSource operator and acknowledges
+ * handshakes, but does not build tuples.
+ * <p>
+ * Acknowledgements can be delayed to simulate an application that confirms
+ * handshakes only after the preceding records have been processed
+ * downstream. Delayed acknowledgements are sent by a separate thread so that
+ * reading continues in the meantime.
+ * </p>
+ */
+public class DecodingTarget implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final SimpleDateFormat ISO_DATEFORMAT = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSS'000'");
+
+	private final ServerSocketChannel serverChannel;
+	private final String metadataSeparator;
+	private final long acknowledgementDelayMs;
+	private final ScheduledExecutorService acknowledger;
+	private volatile SocketChannel channel;
+	private volatile String failure = null;
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong dataRecords = new AtomicLong();
+	private final AtomicLong commitRecords = new AtomicLong();
+	private final AtomicLong handshakeRecords = new AtomicLong();
+
+	/**
+	 * Starts listening on an ephemeral port of the loopback interface.
+	 *
+	 * @param metadataSeparator
+	 *            Separator of the fields of text records and feedback
+	 * @param acknowledgementDelayMs
+	 *            Time between receiving a handshake and acknowledging it
+	 */
+	public DecodingTarget(String metadataSeparator, long acknowledgementDelayMs) throws IOException {
+		this.metadataSeparator = metadataSeparator;
+		this.acknowledgementDelayMs = acknowledgementDelayMs;
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress("localhost", 0));
+		this.acknowledger = acknowledgementDelayMs > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+		Thread thread = new Thread(this, "DecodingTarget");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the address to configure in the tcpHostPort property.
+	 */
+	public String getHostPort() {
+		return "localhost:" + serverChannel.socket().getLocalPort();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getDataRecords() {
+		return dataRecords.get();
+	}
+
+	public long getCommitRecords() {
+		return commitRecords.get();
+	}
+
+	public long getHandshakeRecords() {
+		return handshakeRecords.get();
+	}
+
+	/**
+	 * Returns the reason why records could no longer be received, or null.
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	public void run() {
+		CDCRecordReader reader = new CDCRecordReader(metadataSeparator);
+		try {
+			channel = serverChannel.accept();
+			channel.socket().setTcpNoDelay(true);
+			sendFeedback(CDCProtocol.INITIALIZE + metadataSeparator + ISO_DATEFORMAT.format(new Date())
+					+ metadataSeparator + CDCProtocol.CAPABILITIES);
+			int bytesRead;
+			while ((bytesRead = reader.read(channel)) >= 0) {
+				bytesReceived.addAndGet(bytesRead);
+				while (reader.next())
+					processRecord(reader);
+			}
+		} catch (IOException e) {
+			// The connection is closed when the load generator ends
+			if (channel != null && channel.isOpen())
+				failure = e.getMessage();
+		}
+	}
+
+	private void processRecord(CDCRecordReader reader) throws IOException {
+		switch (reader.getType()) {
+		case CDCProtocol.DATA:
+			dataRecords.incrementAndGet();
+			break;
+		case CDCProtocol.COMMIT:
+			commitRecords.incrementAndGet();
+			break;
+		case CDCProtocol.INITIALIZE:
+			String options = reader.getField(3);
+			reader.setBinary(CDCProtocol.hasOption(options, CDCProtocol.OPTION_BINARY));
+			reader.setEscaped(CDCProtocol.hasOption(options, CDCProtocol.OPTION_ESCAPE));
+			if (CDCProtocol.hasOption(options, CDCProtocol.OPTION_DEFLATE))
+				reader.startInflating();
+			// Only one connection is accepted, so a session always starts at
+			// the position sent by the user exit
+			if (CDCProtocol.hasOption(options, CDCProtocol.OPTION_RESUME)) {
+				String position = reader.getField(6).isEmpty() ? "0" : reader.getField(6);
+				sendFeedback(CDCProtocol.RESUME + metadataSeparator + ISO_DATEFORMAT.format(new Date())
+						+ metadataSeparator + position);
+			}
+			break;
+		case CDCProtocol.HANDSHAKE:
+			handshakeRecords.incrementAndGet();
+			// Echo the handshake like the CDCSource operator does
+			final String acknowledgement = reader.getRecord() + metadataSeparator
+					+ ISO_DATEFORMAT.format(new Date());
+			if (acknowledger == null)
+				sendFeedback(acknowledgement);
+			else {
+				acknowledger.schedule(new Runnable() {
+					public void run() {
+						try {
+							sendFeedback(acknowledgement);
+						} catch (IOException e) {
+							failure = e.getMessage();
+						}
+					}
+				}, acknowledgementDelayMs, TimeUnit.MILLISECONDS);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private synchronized void sendFeedback(String feedback) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap((feedback + "\n").getBytes(UTF8));
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+	}
+
+	public void close() throws IOException {
+		if (acknowledger != null)
+			acknowledger.shutdownNow();
+		if (channel != null)
+			channel.close();
+		serverChannel.close();
+	}
+}
@@ -0,0 +1,10 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface CommitReasonTypes {
+	int SOURCE_COMMIT = 1;
+	int OPERATION_WITHOUT_COMMITMENT_CONTROL = 2;
+	int REFRESH = 3;
+	int REPORT_POSITION = 4;
+	int INTERIM_COMMIT = 5;
+	int SHUTDOWN = 6;
+}
@@ -0,0 +1,9 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface DataRecordIF {
+	int getColumnCount();
+
+	String getColumnName(int column);
+
+	Object getObject(int column) throws DataTypeConversionException;
+}
@@ -0,0 +1,9 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public class DataTypeConversionException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public DataTypeConversionException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,15 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface JournalHeaderIF {
+	String getTimestamp();
+
+	String getCommitID();
+
+	String getEntryType();
+
+	String getUserName();
+
+	String getLibrary();
+
+	String getObjectName();
+}
@@ -0,0 +1,11 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface ReplicationEventIF {
+	JournalHeaderIF getJournalHeader();
+
+	DataRecordIF getSourceBeforeData();
+
+	DataRecordIF getSourceData();
+
+	void logEvent(String message);
+}
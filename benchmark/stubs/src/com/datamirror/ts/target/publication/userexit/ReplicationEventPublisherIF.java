@@ -0,0 +1,13 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface ReplicationEventPublisherIF {
+	String getParameter();
+
+	Object getUserExitSubscriptionContext();
+
+	void subscribeEvent(int eventType);
+
+	void unsubscribeEvent(int eventType);
+
+	void logEvent(String message);
+}
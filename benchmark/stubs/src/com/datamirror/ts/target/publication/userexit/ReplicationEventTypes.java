@@ -0,0 +1,8 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface ReplicationEventTypes {
+	int ALL_EVENTS = -1;
+	int BEFORE_INSERT_EVENT = 1;
+	int BEFORE_UPDATE_EVENT = 2;
+	int BEFORE_DELETE_EVENT = 3;
+}
@@ -0,0 +1,7 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface SubscriptionEventIF {
+	int getEventType();
+
+	int getCommitReason();
+}
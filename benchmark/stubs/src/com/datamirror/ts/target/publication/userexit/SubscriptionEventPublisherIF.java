@@ -0,0 +1,17 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface SubscriptionEventPublisherIF {
+	String getSourceSystemID();
+
+	String getParameter();
+
+	void setUserExitSubscriptionContext(Object context);
+
+	Object getUserExitSubscriptionContext();
+
+	void subscribeEvent(int eventType);
+
+	void unsubscribeEvent(int eventType);
+
+	void logEvent(String message);
+}
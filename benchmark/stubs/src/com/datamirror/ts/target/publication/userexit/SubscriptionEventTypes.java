@@ -0,0 +1,12 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface SubscriptionEventTypes {
+	int ALL_EVENTS = -1;
+	int BEFORE_COMMIT_EVENT = 1;
+	int AFTER_COMMIT_EVENT = 2;
+	int BEFORE_PHYSICAL_COMMIT_EVENT = 3;
+	int AFTER_PHYSICAL_COMMIT_EVENT = 4;
+	int BEFORE_DDL_EVENT = 5;
+	int AFTER_DDL_EVENT = 6;
+	int AFTER_EVENT_SHIFT = 7;
+}
@@ -0,0 +1,9 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface SubscriptionUserExitIF {
+	void init(SubscriptionEventPublisherIF eventPublisher) throws UserExitException;
+
+	boolean processSubscriptionEvent(SubscriptionEventIF subscriptionEvent) throws UserExitException;
+
+	void finish();
+}
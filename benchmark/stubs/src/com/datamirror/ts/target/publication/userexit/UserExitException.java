@@ -0,0 +1,9 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public class UserExitException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public UserExitException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,9 @@
+package com.datamirror.ts.target.publication.userexit;
+
+public interface UserExitIF {
+	void init(ReplicationEventPublisherIF eventPublisher) throws UserExitException;
+
+	boolean processReplicationEvent(ReplicationEventIF replicationEvent) throws UserExitException;
+
+	void finish();
+}
@@ -0,0 +1,6 @@
+package com.datamirror.ts.util.trace;
+
+public class Trace {
+	public static void traceAlways(String message) {
+	}
+}
@@ -0,0 +1,21 @@
+package com.ibm.replication.cdc.scripting;
+
+public class EmbeddedScript {
+	public void open() throws EmbeddedScriptException {
+	}
+
+	public void execute(String command) throws EmbeddedScriptException {
+		throw new EmbeddedScriptException();
+	}
+
+	public Result getResult() {
+		return null;
+	}
+
+	public String getResultCodeAndMessage() {
+		return "Access Server scripting is not available in the stub environment";
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,5 @@
+package com.ibm.replication.cdc.scripting;
+
+public class EmbeddedScriptException extends Exception {
+	private static final long serialVersionUID = 1L;
+}
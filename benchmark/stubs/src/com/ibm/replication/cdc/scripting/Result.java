@@ -0,0 +1,7 @@
+package com.ibm.replication.cdc.scripting;
+
+public interface Result {
+	int TABLE = 1;
+
+	int getType();
+}
@@ -0,0 +1,5 @@
+package com.ibm.replication.cdc.scripting;
+
+public interface ResultStringKeyValues extends Result {
+	String getValue(String key);
+}
@@ -0,0 +1,7 @@
+package com.ibm.replication.cdc.scripting;
+
+public interface ResultStringTable extends Result {
+	int getRowCount();
+
+	String getValueAt(int row, int column);
+}
@@ -0,0 +1,37 @@
+package com.ibm.streams.operator;
+
+import com.ibm.streams.operator.StreamingData.Punctuation;
+
+public abstract class AbstractOperator {
+	private OperatorContext context;
+
+	public void initialize(OperatorContext context) throws Exception {
+		this.context = context;
+	}
+
+	public void allPortsReady() throws Exception {
+	}
+
+	public void process(StreamingInput<Tuple> stream, Tuple tuple) throws Exception {
+	}
+
+	public void processPunctuation(StreamingInput<Tuple> stream, Punctuation mark) throws Exception {
+		for (StreamingOutput<OutputTuple> output : context.getStreamingOutputs())
+			output.punctuate(mark);
+	}
+
+	public void shutdown() throws Exception {
+	}
+
+	public OperatorContext getOperatorContext() {
+		return context;
+	}
+
+	public StreamingOutput<OutputTuple> getOutput(int port) {
+		return context.getStreamingOutputs().get(port);
+	}
+
+	public StreamingInput<Tuple> getInput(int port) {
+		return context.getStreamingInputs().get(port);
+	}
+}
@@ -0,0 +1,9 @@
+package com.ibm.streams.operator;
+
+public interface Attribute {
+	String getName();
+
+	Type getType();
+
+	int getIndex();
+}
@@ -0,0 +1,27 @@
+package com.ibm.streams.operator;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import com.ibm.streams.operator.metrics.OperatorMetrics;
+
+public interface OperatorContext {
+	String getName();
+
+	ProcessingElement getPE();
+
+	List<StreamingInput<Tuple>> getStreamingInputs();
+
+	List<StreamingOutput<OutputTuple>> getStreamingOutputs();
+
+	int getNumberOfStreamingOutputs();
+
+	ThreadFactory getThreadFactory();
+
+	ScheduledExecutorService getScheduledExecutorService();
+
+	OperatorMetrics getMetrics();
+
+	List<String> getParameterValues(String parameterName);
+}
@@ -0,0 +1,39 @@
+package com.ibm.streams.operator;
+
+import java.math.BigDecimal;
+
+import com.ibm.streams.operator.types.Timestamp;
+
+public interface OutputTuple extends Tuple {
+	void assign(Tuple tuple);
+
+	void setObject(int index, Object value);
+
+	void setObject(String name, Object value);
+
+	void setString(int index, String value);
+
+	void setString(String name, String value);
+
+	void setTuple(int index, Tuple value);
+
+	void setTuple(String name, Tuple value);
+
+	void setByte(int index, byte value);
+
+	void setShort(int index, short value);
+
+	void setInt(int index, int value);
+
+	void setLong(int index, long value);
+
+	void setFloat(int index, float value);
+
+	void setDouble(int index, double value);
+
+	void setBoolean(int index, boolean value);
+
+	void setBigDecimal(int index, BigDecimal value);
+
+	void setTimestamp(int index, Timestamp value);
+}
@@ -0,0 +1,9 @@
+package com.ibm.streams.operator;
+
+import java.math.BigInteger;
+
+public interface ProcessingElement {
+	BigInteger getPEId();
+
+	BigInteger getJobId();
+}
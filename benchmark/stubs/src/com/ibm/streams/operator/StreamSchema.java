@@ -0,0 +1,19 @@
+package com.ibm.streams.operator;
+
+import java.util.Set;
+
+public interface StreamSchema extends Iterable<Attribute> {
+	int getAttributeCount();
+
+	Attribute getAttribute(int index);
+
+	Attribute getAttribute(String name);
+
+	int getAttributeIndex(String name);
+
+	Set<String> getAttributeNames();
+
+	String getLanguageType();
+
+	Tuple getTuple(Object[] values);
+}
@@ -0,0 +1,11 @@
+package com.ibm.streams.operator;
+
+public interface StreamingData {
+	enum Punctuation {
+		WINDOW_MARKER, FINAL_MARKER
+	}
+
+	StreamSchema getStreamSchema();
+
+	int getPortNumber();
+}
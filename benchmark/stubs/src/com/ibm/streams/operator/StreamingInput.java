@@ -0,0 +1,4 @@
+package com.ibm.streams.operator;
+
+public interface StreamingInput<T> extends StreamingData {
+}
@@ -0,0 +1,9 @@
+package com.ibm.streams.operator;
+
+public interface StreamingOutput<T> extends StreamingData {
+	T newTuple();
+
+	boolean submit(Tuple tuple) throws Exception;
+
+	boolean punctuate(Punctuation mark) throws Exception;
+}
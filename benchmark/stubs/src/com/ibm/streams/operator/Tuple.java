@@ -0,0 +1,19 @@
+package com.ibm.streams.operator;
+
+public interface Tuple {
+	StreamSchema getStreamSchema();
+
+	Object getObject(int index);
+
+	String getString(int index);
+
+	String getString(String name);
+
+	Tuple getTuple(int index);
+
+	Tuple getTuple(String name);
+
+	long getLong(int index);
+
+	Tuple asReadOnlyTuple();
+}
@@ -0,0 +1,21 @@
+package com.ibm.streams.operator;
+
+import com.ibm.streams.operator.stub.StubSchemas;
+
+public interface Type {
+	enum MetaType {
+		BOOLEAN, INT8, INT16, INT32, INT64, UINT8, UINT16, UINT32, UINT64, FLOAT32, FLOAT64, DECIMAL32, DECIMAL64, DECIMAL128, TIMESTAMP, RSTRING, USTRING, BSTRING, BLOB, TUPLE, LIST, MAP, SET, ENUM, XML
+	}
+
+	MetaType getMetaType();
+
+	String getLanguageType();
+
+	Class<?> getObjectType();
+
+	class Factory {
+		public static StreamSchema getStreamSchema(String languageType) {
+			return StubSchemas.parse(languageType);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package com.ibm.streams.operator.log4j;
+
+import org.apache.log4j.Level;
+
+public class TraceLevel extends Level {
+	public static final Level ERROR = Level.ERROR;
+	public static final Level WARN = Level.WARN;
+	public static final Level INFO = Level.INFO;
+	public static final Level DEBUG = Level.DEBUG;
+	public static final Level TRACE = Level.TRACE;
+
+	private TraceLevel(int level, String name) {
+		super(level, name);
+	}
+}
@@ -0,0 +1,8 @@
+package com.ibm.streams.operator.meta;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Type;
+
+public interface TupleType extends Type {
+	StreamSchema getTupleSchema();
+}
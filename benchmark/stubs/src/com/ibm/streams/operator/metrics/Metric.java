@@ -0,0 +1,19 @@
+package com.ibm.streams.operator.metrics;
+
+public interface Metric {
+	enum Kind {
+		COUNTER, GAUGE, TIME
+	}
+
+	String getName();
+
+	Kind getKind();
+
+	long getValue();
+
+	void setValue(long value);
+
+	void increment();
+
+	void incrementValue(long delta);
+}
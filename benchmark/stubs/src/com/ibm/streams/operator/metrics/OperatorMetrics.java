@@ -0,0 +1,7 @@
+package com.ibm.streams.operator.metrics;
+
+public interface OperatorMetrics {
+	Metric createCustomMetric(String name, String description, Metric.Kind kind);
+
+	Metric getCustomMetric(String name);
+}
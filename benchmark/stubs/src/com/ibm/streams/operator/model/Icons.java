@@ -0,0 +1,11 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Icons {
+	String location16();
+
+	String location32();
+}
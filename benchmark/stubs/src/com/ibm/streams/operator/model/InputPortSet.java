@@ -0,0 +1,27 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface InputPortSet {
+	enum WindowMode {
+		NonWindowed, Windowed, OptionallyWindowed
+	}
+
+	enum WindowPunctuationInputMode {
+		Expecting, Oblivious, WindowBound
+	}
+
+	String description() default "";
+
+	int cardinality() default -1;
+
+	boolean optional() default false;
+
+	boolean controlPort() default false;
+
+	WindowMode windowingMode() default WindowMode.NonWindowed;
+
+	WindowPunctuationInputMode windowPunctuationInputMode() default WindowPunctuationInputMode.Oblivious;
+}
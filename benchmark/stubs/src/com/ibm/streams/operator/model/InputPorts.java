@@ -0,0 +1,9 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface InputPorts {
+	InputPortSet[] value();
+}
@@ -0,0 +1,19 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface OutputPortSet {
+	enum WindowPunctuationOutputMode {
+		Free, Generating, Preserving
+	}
+
+	String description() default "";
+
+	int cardinality() default -1;
+
+	boolean optional() default false;
+
+	WindowPunctuationOutputMode windowPunctuationOutputMode() default WindowPunctuationOutputMode.Generating;
+}
@@ -0,0 +1,15 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Parameter {
+	String name() default "";
+
+	String description() default "";
+
+	boolean optional() default true;
+
+	int cardinality() default 1;
+}
@@ -0,0 +1,13 @@
+package com.ibm.streams.operator.model;
+
+import java.lang.annotation.*;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PrimitiveOperator {
+	String name() default "";
+
+	String namespace() default "";
+
+	String description() default "";
+}
@@ -0,0 +1,28 @@
+package com.ibm.streams.operator.stub;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.Type;
+
+public class StubAttribute implements Attribute {
+	private final String name;
+	private final Type type;
+	private final int index;
+
+	StubAttribute(String name, Type type, int index) {
+		this.name = name;
+		this.type = type;
+		this.index = index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+}
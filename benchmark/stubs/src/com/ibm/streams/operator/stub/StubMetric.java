@@ -0,0 +1,38 @@
+package com.ibm.streams.operator.stub;
+
+import com.ibm.streams.operator.metrics.Metric;
+
+public class StubMetric implements Metric {
+	private final String name;
+	private final Kind kind;
+	private volatile long value;
+
+	StubMetric(String name, Kind kind) {
+		this.name = name;
+		this.kind = kind;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public long getValue() {
+		return value;
+	}
+
+	public void setValue(long value) {
+		this.value = value;
+	}
+
+	public void increment() {
+		value++;
+	}
+
+	public void incrementValue(long delta) {
+		value += delta;
+	}
+}
@@ -0,0 +1,93 @@
+package com.ibm.streams.operator.stub;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import com.ibm.streams.operator.OperatorContext;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.ProcessingElement;
+import com.ibm.streams.operator.StreamingInput;
+import com.ibm.streams.operator.StreamingOutput;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.metrics.OperatorMetrics;
+
+public class StubOperatorContext implements OperatorContext, OperatorMetrics, ProcessingElement {
+	private final List<StreamingInput<Tuple>> inputs = new ArrayList<StreamingInput<Tuple>>();
+	private final List<StreamingOutput<OutputTuple>> outputs = new ArrayList<StreamingOutput<OutputTuple>>();
+	private final Map<String, Metric> metrics = new HashMap<String, Metric>();
+	private ScheduledExecutorService scheduler;
+
+	public StubOperatorContext addInput(StubOutput input) {
+		inputs.add(input);
+		return this;
+	}
+
+	public StubOperatorContext addOutput(StubOutput output) {
+		outputs.add(output);
+		return this;
+	}
+
+	public String getName() {
+		return "stub";
+	}
+
+	public ProcessingElement getPE() {
+		return this;
+	}
+
+	public BigInteger getPEId() {
+		return BigInteger.ZERO;
+	}
+
+	public BigInteger getJobId() {
+		return BigInteger.ZERO;
+	}
+
+	public List<StreamingInput<Tuple>> getStreamingInputs() {
+		return inputs;
+	}
+
+	public List<StreamingOutput<OutputTuple>> getStreamingOutputs() {
+		return outputs;
+	}
+
+	public int getNumberOfStreamingOutputs() {
+		return outputs.size();
+	}
+
+	public ThreadFactory getThreadFactory() {
+		return Executors.defaultThreadFactory();
+	}
+
+	public synchronized ScheduledExecutorService getScheduledExecutorService() {
+		if (scheduler == null)
+			scheduler = Executors.newSingleThreadScheduledExecutor();
+		return scheduler;
+	}
+
+	public OperatorMetrics getMetrics() {
+		return this;
+	}
+
+	public List<String> getParameterValues(String parameterName) {
+		return Collections.emptyList();
+	}
+
+	public Metric createCustomMetric(String name, String description, Metric.Kind kind) {
+		Metric metric = new StubMetric(name, kind);
+		metrics.put(name, metric);
+		return metric;
+	}
+
+	public Metric getCustomMetric(String name) {
+		return metrics.get(name);
+	}
+}
@@ -0,0 +1,47 @@
+package com.ibm.streams.operator.stub;
+
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.StreamingInput;
+import com.ibm.streams.operator.StreamingOutput;
+import com.ibm.streams.operator.Tuple;
+
+/**
+ * Output port that only counts what is submitted; the last tuple is kept so
+ * that callers can consume it and defeat dead-code elimination.
+ */
+public class StubOutput implements StreamingOutput<OutputTuple>, StreamingInput<Tuple> {
+	private final StreamSchema schema;
+	private final int port;
+	public long tuples;
+	public long punctuations;
+	public Tuple lastTuple;
+
+	public StubOutput(StreamSchema schema, int port) {
+		this.schema = schema;
+		this.port = port;
+	}
+
+	public StreamSchema getStreamSchema() {
+		return schema;
+	}
+
+	public int getPortNumber() {
+		return port;
+	}
+
+	public OutputTuple newTuple() {
+		return new StubTuple(schema);
+	}
+
+	public boolean submit(Tuple tuple) {
+		tuples++;
+		lastTuple = tuple;
+		return true;
+	}
+
+	public boolean punctuate(Punctuation mark) {
+		punctuations++;
+		return true;
+	}
+}
@@ -0,0 +1,70 @@
+package com.ibm.streams.operator.stub;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+
+public class StubSchema implements StreamSchema {
+	private final List<StubAttribute> attributes;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	StubSchema(List<StubAttribute> attributes) {
+		this.attributes = attributes;
+		for (StubAttribute attribute : attributes)
+			indexes.put(attribute.getName(), attribute.getIndex());
+	}
+
+	public Iterator<Attribute> iterator() {
+		return Collections.<Attribute> unmodifiableList(attributes).iterator();
+	}
+
+	public int getAttributeCount() {
+		return attributes.size();
+	}
+
+	public Attribute getAttribute(int index) {
+		return attributes.get(index);
+	}
+
+	public Attribute getAttribute(String name) {
+		Integer index = indexes.get(name);
+		return index == null ? null : attributes.get(index);
+	}
+
+	public int getAttributeIndex(String name) {
+		Integer index = indexes.get(name);
+		return index == null ? -1 : index;
+	}
+
+	public Set<String> getAttributeNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		for (StubAttribute attribute : attributes)
+			names.add(attribute.getName());
+		return names;
+	}
+
+	public String getLanguageType() {
+		StringBuilder sb = new StringBuilder("tuple<");
+		for (StubAttribute attribute : attributes) {
+			if (attribute.getIndex() > 0)
+				sb.append(',');
+			sb.append(attribute.getType().getLanguageType()).append(' ').append(attribute.getName());
+		}
+		return sb.append('>').toString();
+	}
+
+	public Tuple getTuple(Object[] values) {
+		StubTuple tuple = new StubTuple(this);
+		for (int i = 0; i < values.length; i++)
+			tuple.setObject(i, values[i]);
+		return tuple;
+	}
+}
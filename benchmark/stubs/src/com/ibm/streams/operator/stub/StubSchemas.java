@@ -0,0 +1,63 @@
+package com.ibm.streams.operator.stub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Type.MetaType;
+
+/**
+ * Parses SPL tuple type strings such as
+ * <code>tuple&lt;rstring a, tuple&lt;rstring b&gt; t&gt;</code> into stub
+ * schemas.
+ */
+public class StubSchemas {
+
+	public static StreamSchema parse(String languageType) {
+		int[] pos = { 0 };
+		return parseTuple(languageType.trim(), pos);
+	}
+
+	private static StubSchema parseTuple(String s, int[] pos) {
+		expect(s, pos, "tuple<");
+		List<StubAttribute> attributes = new ArrayList<StubAttribute>();
+		while (true) {
+			skipSpaces(s, pos);
+			StubType type;
+			if (s.startsWith("tuple<", pos[0])) {
+				StubSchema nested = parseTuple(s, pos);
+				type = new StubType(nested);
+			} else {
+				int start = pos[0];
+				while (!Character.isWhitespace(s.charAt(pos[0])))
+					pos[0]++;
+				type = new StubType(toMetaType(s.substring(start, pos[0])));
+			}
+			skipSpaces(s, pos);
+			int start = pos[0];
+			while (pos[0] < s.length() && (Character.isLetterOrDigit(s.charAt(pos[0])) || s.charAt(pos[0]) == '_'))
+				pos[0]++;
+			attributes.add(new StubAttribute(s.substring(start, pos[0]), type, attributes.size()));
+			skipSpaces(s, pos);
+			char c = s.charAt(pos[0]++);
+			if (c == '>')
+				return new StubSchema(attributes);
+		}
+	}
+
+	private static MetaType toMetaType(String splType) {
+		return MetaType.valueOf(splType.toUpperCase());
+	}
+
+	private static void expect(String s, int[] pos, String token) {
+		skipSpaces(s, pos);
+		if (!s.startsWith(token, pos[0]))
+			throw new IllegalArgumentException("Expected " + token + " at " + pos[0] + " in " + s);
+		pos[0] += token.length();
+	}
+
+	private static void skipSpaces(String s, int[] pos) {
+		while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0])))
+			pos[0]++;
+	}
+}
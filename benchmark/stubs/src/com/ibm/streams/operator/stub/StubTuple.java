@@ -0,0 +1,125 @@
+package com.ibm.streams.operator.stub;
+
+import java.math.BigDecimal;
+
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.types.Timestamp;
+
+public class StubTuple implements OutputTuple {
+	private final StreamSchema schema;
+	private final Object[] values;
+
+	public StubTuple(StreamSchema schema) {
+		this.schema = schema;
+		this.values = new Object[schema.getAttributeCount()];
+	}
+
+	public StreamSchema getStreamSchema() {
+		return schema;
+	}
+
+	public Object getObject(int index) {
+		return values[index];
+	}
+
+	public String getString(int index) {
+		Object value = values[index];
+		return value == null ? "" : value.toString();
+	}
+
+	public String getString(String name) {
+		return getString(schema.getAttributeIndex(name));
+	}
+
+	public Tuple getTuple(int index) {
+		return (Tuple) values[index];
+	}
+
+	public Tuple getTuple(String name) {
+		return getTuple(schema.getAttributeIndex(name));
+	}
+
+	public long getLong(int index) {
+		Object value = values[index];
+		return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(getString(index));
+	}
+
+	public Tuple asReadOnlyTuple() {
+		return this;
+	}
+
+	public void assign(Tuple tuple) {
+		StreamSchema other = tuple.getStreamSchema();
+		for (int i = 0; i < values.length; i++) {
+			int index = other.getAttributeIndex(schema.getAttribute(i).getName());
+			if (index >= 0)
+				values[i] = tuple.getObject(index);
+		}
+	}
+
+	public void setObject(int index, Object value) {
+		values[index] = value;
+	}
+
+	public void setObject(String name, Object value) {
+		setObject(schema.getAttributeIndex(name), value);
+	}
+
+	public void setString(int index, String value) {
+		values[index] = value;
+	}
+
+	public void setString(String name, String value) {
+		setString(schema.getAttributeIndex(name), value);
+	}
+
+	public void setTuple(int index, Tuple value) {
+		values[index] = value;
+	}
+
+	public void setTuple(String name, Tuple value) {
+		setTuple(schema.getAttributeIndex(name), value);
+	}
+
+	public void setInt(int index, int value) {
+		values[index] = value;
+	}
+
+	public void setLong(int index, long value) {
+		values[index] = value;
+	}
+
+	public void setByte(int index, byte value) {
+		values[index] = value;
+	}
+
+	public void setShort(int index, short value) {
+		values[index] = value;
+	}
+
+	public void setFloat(int index, float value) {
+		values[index] = value;
+	}
+
+	public void setDouble(int index, double value) {
+		values[index] = value;
+	}
+
+	public void setBoolean(int index, boolean value) {
+		values[index] = value;
+	}
+
+	public void setBigDecimal(int index, BigDecimal value) {
+		values[index] = value;
+	}
+
+	public void setTimestamp(int index, Timestamp value) {
+		values[index] = value;
+	}
+
+	public String toString() {
+		return java.util.Arrays.toString(values);
+	}
+}
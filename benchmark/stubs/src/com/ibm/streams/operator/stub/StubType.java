@@ -0,0 +1,35 @@
+package com.ibm.streams.operator.stub;
+
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.meta.TupleType;
+
+public class StubType implements TupleType {
+	private final MetaType metaType;
+	private final StreamSchema tupleSchema;
+
+	StubType(MetaType metaType) {
+		this.metaType = metaType;
+		this.tupleSchema = null;
+	}
+
+	StubType(StreamSchema tupleSchema) {
+		this.metaType = MetaType.TUPLE;
+		this.tupleSchema = tupleSchema;
+	}
+
+	public MetaType getMetaType() {
+		return metaType;
+	}
+
+	public String getLanguageType() {
+		return metaType == MetaType.TUPLE ? tupleSchema.getLanguageType() : metaType.name().toLowerCase();
+	}
+
+	public Class<?> getObjectType() {
+		return Object.class;
+	}
+
+	public StreamSchema getTupleSchema() {
+		return tupleSchema;
+	}
+}
@@ -0,0 +1,31 @@
+package com.ibm.streams.operator.types;
+
+import java.nio.charset.StandardCharsets;
+
+public class RString {
+	private final byte[] data;
+
+	public RString(String value) {
+		this.data = value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public RString(byte[] data) {
+		this.data = data;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getLength() {
+		return data.length;
+	}
+
+	public String getString() {
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	public String toString() {
+		return getString();
+	}
+}
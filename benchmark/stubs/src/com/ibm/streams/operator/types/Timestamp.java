@@ -0,0 +1,23 @@
+package com.ibm.streams.operator.types;
+
+public class Timestamp {
+	private final long seconds;
+	private final int nanoseconds;
+
+	public Timestamp(long seconds, int nanoseconds) {
+		this.seconds = seconds;
+		this.nanoseconds = nanoseconds;
+	}
+
+	public long getSeconds() {
+		return seconds;
+	}
+
+	public int getNanoseconds() {
+		return nanoseconds;
+	}
+
+	public String toString() {
+		return seconds + "." + nanoseconds;
+	}
+}
@@ -0,0 +1,29 @@
+package org.apache.log4j;
+
+public class Level {
+	public static final Level ERROR = new Level(40000, "ERROR");
+	public static final Level WARN = new Level(30000, "WARN");
+	public static final Level INFO = new Level(20000, "INFO");
+	public static final Level DEBUG = new Level(10000, "DEBUG");
+	public static final Level TRACE = new Level(5000, "TRACE");
+
+	private final int level;
+	private final String name;
+
+	protected Level(int level, String name) {
+		this.level = level;
+		this.name = name;
+	}
+
+	public int toInt() {
+		return level;
+	}
+
+	public boolean isGreaterOrEqual(Level other) {
+		return level >= other.level;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
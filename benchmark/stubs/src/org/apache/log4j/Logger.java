@@ -0,0 +1,30 @@
+package org.apache.log4j;
+
+public class Logger {
+	private static Level threshold = Level.WARN;
+
+	public static Logger getLogger(Class<?> clazz) {
+		return new Logger();
+	}
+
+	public static void setThreshold(Level level) {
+		threshold = level;
+	}
+
+	public boolean isEnabledFor(Level level) {
+		return level.isGreaterOrEqual(threshold);
+	}
+
+	public boolean isTraceEnabled() {
+		return isEnabledFor(Level.TRACE);
+	}
+
+	public void log(Level level, Object message) {
+		if (isEnabledFor(level))
+			System.err.println(level + " " + message);
+	}
+
+	public void log(Level level, Object message, Throwable t) {
+		log(level, message);
+	}
+}
@@ -0,0 +1,408 @@
+package com.ibm.streamsx.cdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Date;
+
+import com.ibm.streams.operator.types.RString;
+
+/**
+ * Connection of a CDCStreams user exit (subscription) to the CDCSource
+ * operator.
+ * <p>
+ * Every connection has its own record reader, so records of a subscription are
+ * processed in the order in which they were sent, and its own feedback buffer
+ * for the readiness line and the handshake acknowledgements. Feedback that
+ * cannot be written immediately is kept until the channel is writable again.
+ * </p>
+ * <p>
+ * The connection also keeps the number of data records submitted for the
+ * subscription, the handshakes that wait for confirmation by the downstream
+ * operators and the credit granted to the user exit.
+ * </p>
+ * <p>
+ * A user exit that can resume its session identifies it in the initialization
+ * record. When the connection is lost, this state and the stream position of
+ * the last record processed are kept, so that a new connection of the same
+ * session continues where the lost connection stopped.
+ * </p>
+ * <p>
+ * A user exit on the same host may also attach to the shared memory ring of
+ * the operator instead of connecting over TCP; the connection then reads from
+ * and writes to the ring, which is polled rather than selected.
+ * </p>
+ * <p>
+ * Records read from a named pipe or file have no way back to the user exit:
+ * such a connection has no feedback channel and its feedback is discarded.
+ * </p>
+ */
+public class CDCConnection {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_FEEDBACK_BUFFER_SIZE = 1024;
+
+	private final ReadableByteChannel channel;
+	// Null for a named pipe or file, which cannot carry feedback
+	private final WritableByteChannel feedbackChannel;
+	// Null for a user exit attached to the shared memory ring
+	private final SelectionKey selectionKey;
+	private final CDCRecordReader reader;
+	private final String remoteAddress;
+	private final String metadataSeparator;
+	private String subscription;
+	private RString subscriptionRString;
+
+	private ByteBuffer feedback = ByteBuffer.allocate(INITIAL_FEEDBACK_BUFFER_SIZE);
+
+	private long dataRecords = 0;
+	private long handshakesReceived = 0;
+	// Handshakes that have not been confirmed yet, in the order received, and
+	// the number of data records that preceded the last confirmed handshake
+	private final ArrayDeque<PendingHandshake> pendingHandshakes = new ArrayDeque<PendingHandshake>();
+	private long confirmedDataRecords = 0;
+	// Credit is only granted if the user exit asked for it
+	private boolean creditRequested = false;
+	private long grantedCredit = 0;
+	// Session of a user exit that can resume, the stream position at which
+	// the records after the initialization record start and the number of
+	// bytes the reader had consumed at that point
+	private String sessionId = null;
+	private long positionBase = 0;
+	private long streamStart = 0;
+	private boolean finalized = false;
+	// Last handshake acknowledgement, sent again when a session is resumed
+	private String lastAcknowledgement = null;
+
+	/**
+	 * Handshake that is acknowledged once the downstream operators have
+	 * confirmed it.
+	 */
+	private static class PendingHandshake {
+		final long sequence;
+		final String record;
+		final long dataRecords;
+
+		PendingHandshake(long sequence, String record, long dataRecords) {
+			this.sequence = sequence;
+			this.record = record;
+			this.dataRecords = dataRecords;
+		}
+	}
+
+	public CDCConnection(SocketChannel channel, SelectionKey selectionKey, String metadataSeparator) {
+		this.channel = channel;
+		this.feedbackChannel = channel;
+		this.selectionKey = selectionKey;
+		this.reader = new CDCRecordReader(metadataSeparator);
+		this.metadataSeparator = metadataSeparator;
+		this.remoteAddress = channel.socket().getInetAddress().getHostAddress() + ":" + channel.socket().getPort();
+		// Until the user exit identifies its subscription, the connection is
+		// identified by the address of the user exit
+		setSubscription(remoteAddress);
+	}
+
+	/**
+	 * Creates the connection of the user exit that attached to the shared
+	 * memory ring.
+	 */
+	public CDCConnection(CDCSharedMemoryRing ring, String metadataSeparator) {
+		this.channel = ring;
+		this.feedbackChannel = ring;
+		this.selectionKey = null;
+		this.reader = new CDCRecordReader(metadataSeparator);
+		this.metadataSeparator = metadataSeparator;
+		this.remoteAddress = ring.getFile().getPath();
+		setSubscription(remoteAddress);
+	}
+
+	/**
+	 * Creates the connection that reads the records from a named pipe or file.
+	 *
+	 * @param bufferSize
+	 *            Initial size of the read buffer, which determines the size of
+	 *            the reads from the channel
+	 */
+	public CDCConnection(ReadableByteChannel channel, String path, int bufferSize, String metadataSeparator) {
+		this.channel = channel;
+		this.feedbackChannel = null;
+		this.selectionKey = null;
+		this.reader = new CDCRecordReader(metadataSeparator, bufferSize);
+		this.metadataSeparator = metadataSeparator;
+		this.remoteAddress = path;
+		setSubscription(remoteAddress);
+	}
+
+	public CDCRecordReader getReader() {
+		return reader;
+	}
+
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * Returns the identifier of the subscription that sends its changes over
+	 * this connection.
+	 */
+	public String getSubscription() {
+		return subscription;
+	}
+
+	/**
+	 * Returns the identifier of the subscription as an RString, which is
+	 * shared by all tuples of the connection.
+	 */
+	public RString getSubscriptionRString() {
+		return subscriptionRString;
+	}
+
+	public void setSubscription(String subscription) {
+		this.subscription = subscription;
+		this.subscriptionRString = new RString(subscription);
+	}
+
+	/**
+	 * Registers that a data record of the subscription has been submitted.
+	 */
+	public void dataRecordSubmitted() {
+		dataRecords++;
+	}
+
+	/**
+	 * Returns the number of data records submitted for the subscription.
+	 */
+	public long getDataRecords() {
+		return dataRecords;
+	}
+
+	/**
+	 * Returns the sequence number of a handshake record. User exits that do not
+	 * number their handshakes are assigned the number of handshakes received
+	 * on the connection.
+	 */
+	public long getHandshakeSequence(String sequenceField) {
+		handshakesReceived++;
+		try {
+			return Long.parseLong(sequenceField);
+		} catch (NumberFormatException e) {
+			return handshakesReceived;
+		}
+	}
+
+	/**
+	 * Keeps a handshake until the downstream operators have confirmed it.
+	 *
+	 * @param sequence
+	 *            Sequence number of the handshake
+	 * @param record
+	 *            Handshake record, which is echoed once confirmed
+	 */
+	public void addPendingHandshake(long sequence, String record) {
+		pendingHandshakes.add(new PendingHandshake(sequence, record, dataRecords));
+	}
+
+	/**
+	 * Acknowledges a handshake to the user exit by echoing the handshake
+	 * record with the time of the acknowledgement.
+	 */
+	public void acknowledgeHandshake(String record) throws IOException {
+		lastAcknowledgement = record + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date());
+		sendFeedback(lastAcknowledgement);
+	}
+
+	/**
+	 * Acknowledges the pending handshakes up to the confirmed sequence number
+	 * to the user exit.
+	 *
+	 * @return Number of handshakes acknowledged
+	 */
+	public int confirmHandshakes(long sequence) throws IOException {
+		int confirmed = 0;
+		while (!pendingHandshakes.isEmpty() && pendingHandshakes.peek().sequence <= sequence) {
+			PendingHandshake handshake = pendingHandshakes.poll();
+			acknowledgeHandshake(handshake.record);
+			confirmedDataRecords = handshake.dataRecords;
+			confirmed++;
+		}
+		return confirmed;
+	}
+
+	/**
+	 * Returns the number of data records that preceded the last handshake that
+	 * was confirmed.
+	 */
+	public long getConfirmedDataRecords() {
+		return confirmedDataRecords;
+	}
+
+	public void setCreditRequested(boolean creditRequested) {
+		this.creditRequested = creditRequested;
+	}
+
+	public boolean isCreditRequested() {
+		return creditRequested;
+	}
+
+	/**
+	 * Returns the total number of data records the user exit may send, as
+	 * granted last.
+	 */
+	public long getGrantedCredit() {
+		return grantedCredit;
+	}
+
+	/**
+	 * Grants the user exit to send data records up to the given total.
+	 */
+	public void grantCredit(long limit) throws IOException {
+		grantedCredit = limit;
+		sendFeedback(CDCProtocol.CREDIT + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date())
+				+ metadataSeparator + limit);
+	}
+
+	/**
+	 * Returns the session of the user exit, null if the user exit cannot
+	 * resume.
+	 */
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Starts the stream of records of a session that follows the
+	 * initialization record, which has just been read.
+	 *
+	 * @param sessionId
+	 *            Session of the user exit
+	 * @param position
+	 *            Stream position of the next record
+	 */
+	public void startStream(String sessionId, long position) {
+		this.sessionId = sessionId;
+		this.positionBase = position;
+		this.streamStart = reader.getConsumedBytes();
+	}
+
+	/**
+	 * Returns the stream position after the last record read.
+	 */
+	public long getStreamPosition() {
+		return positionBase + reader.getConsumedBytes() - streamStart;
+	}
+
+	/**
+	 * Registers that the user exit ended its session, which can then not be
+	 * resumed.
+	 */
+	public void setFinalized(boolean finalized) {
+		this.finalized = finalized;
+	}
+
+	public boolean isFinalized() {
+		return finalized;
+	}
+
+	/**
+	 * Takes over the state of the lost connection of the session that this
+	 * connection resumes. Credit is granted anew, as the user exit starts
+	 * without credit on a new connection.
+	 */
+	public void resume(CDCConnection previous) {
+		dataRecords = previous.dataRecords;
+		handshakesReceived = previous.handshakesReceived;
+		pendingHandshakes.addAll(previous.pendingHandshakes);
+		confirmedDataRecords = previous.confirmedDataRecords;
+		grantedCredit = 0;
+		lastAcknowledgement = previous.lastAcknowledgement;
+	}
+
+	/**
+	 * Sends the last handshake acknowledgement again, as it may have been lost
+	 * with the previous connection of the session.
+	 */
+	public void resendLastAcknowledgement() throws IOException {
+		if (lastAcknowledgement != null)
+			sendFeedback(lastAcknowledgement);
+	}
+
+	/**
+	 * Reads the available bytes from the channel.
+	 *
+	 * @return Number of bytes read, -1 if the user exit closed the connection
+	 */
+	public int read() throws IOException {
+		return reader.read(channel);
+	}
+
+	/**
+	 * Sends a feedback line to the user exit. If the line cannot be written
+	 * completely, the remainder is written when the channel becomes writable.
+	 */
+	public void sendFeedback(String line) throws IOException {
+		if (feedbackChannel == null)
+			return;
+		byte[] bytes = (line + "\n").getBytes(UTF8);
+		if (feedback.remaining() < bytes.length) {
+			ByteBuffer newFeedback = ByteBuffer
+					.allocate(Math.max(feedback.capacity() * 2, feedback.position() + bytes.length));
+			feedback.flip();
+			newFeedback.put(feedback);
+			feedback = newFeedback;
+		}
+		feedback.put(bytes);
+		flushFeedback();
+	}
+
+	/**
+	 * Returns whether feedback can be sent to the user exit.
+	 */
+	public boolean hasFeedbackChannel() {
+		return feedbackChannel != null;
+	}
+
+	/**
+	 * Returns whether feedback is waiting until the channel is writable.
+	 */
+	public boolean hasPendingFeedback() {
+		return feedback.position() > 0;
+	}
+
+	/**
+	 * Writes the pending feedback to the channel and registers interest in
+	 * writability if not everything could be written.
+	 */
+	public void flushFeedback() throws IOException {
+		feedback.flip();
+		feedbackChannel.write(feedback);
+		feedback.compact();
+		if (selectionKey == null)
+			return;
+		if (feedback.position() > 0)
+			selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		else
+			selectionKey.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Closes the connection, ignoring errors.
+	 */
+	public void close() {
+		reader.close();
+		if (selectionKey != null)
+			selectionKey.cancel();
+		try {
+			channel.close();
+		} catch (IOException ignore) {
+		}
+	}
+}
@@ -3,8 +3,10 @@ package com.ibm.streamsx.cdc;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -30,6 +32,8 @@ import com.ibm.streams.operator.StreamingData.Punctuation;
 import com.ibm.streams.operator.StreamingInput;
 import com.ibm.streams.operator.StreamingOutput;
 import com.ibm.streams.operator.Tuple;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.meta.TupleType;
 import com.ibm.streams.operator.log4j.TraceLevel;
 import com.ibm.streams.operator.model.InputPortSet;
 import com.ibm.streams.operator.model.InputPortSet.WindowMode;
@@ -56,8 +60,12 @@ import com.ibm.streams.operator.model.PrimitiveOperator;
  * </ul>
  * <p>
  * The table name by which the tuple is identified must match the
- * qualifiedTableName defined for the CDCParse operator. If tuples from other
- * tables are received, a warning message is issued and the tuple is discarded.
+ * qualifiedTableName defined for the CDCParse operator, or one of the
+ * qualifiedTableNames if the operator parses multiple tables. The tuples of
+ * every table are submitted to their own output port: the first table listed
+ * in qualifiedTableNames goes to output port 0, the second to port 1, etc. If
+ * tuples from other tables are received, a warning message is issued and the
+ * tuple is discarded.
  * </p>
  * <p>
  * There is a special tuple for which the txTableName starts with a "*".
@@ -65,7 +73,7 @@ import com.ibm.streams.operator.model.PrimitiveOperator;
  * <ul>
  * <li>***INITIALIZE*** : Indicates that the subscription has been (re-)started
  * and that tuples will be sent. When received, the CDCParse operator reads the
- * CDC configuration for the parsed table as the table definition may have
+ * CDC configuration for the parsed tables as the table definitions may have
  * changed.</li>
  * <li>
  * </ul>
@@ -75,11 +83,11 @@ import com.ibm.streams.operator.model.PrimitiveOperator;
  * </p>
  */
 
-@PrimitiveOperator(name = "CDCParse", namespace = "com.ibm.streamsx.cdc", description = "Operator which parses the incoming raw tuples and converts them into the output tuple specific for the table configured in the operator.")
+@PrimitiveOperator(name = "CDCParse", namespace = "com.ibm.streamsx.cdc", description = "Operator which parses the incoming raw tuples and converts them into the output tuple specific for the table, or tables, configured in the operator.")
 @InputPorts({
 		@InputPortSet(description = "Port that ingests tuples", cardinality = 1, optional = false, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
 @OutputPorts({
-		@OutputPortSet(description = "Port that produces tuples", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
+		@OutputPortSet(description = "Ports that produce tuples, one for every parsed table in the order of the qualifiedTableNames parameter", cardinality = -1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
 @Icons(location16 = "icons/CDCParse_16x16.png", location32 = "icons/CDCParse_32x32.png")
 @Libraries(value = { "opt/downloaded/*" })
 public class CDCParse extends AbstractOperator {
@@ -104,6 +112,29 @@ public class CDCParse extends AbstractOperator {
 		return separator;
 	}
 
+	/**
+	 * Parameter escapeData. Must be set to true if the user exit escapes the
+	 * special characters in the column values (escapeData=true in
+	 * CDCStreams.properties). The columns are then split on the separator
+	 * character only where it is not escaped and the escaped characters are
+	 * restored, so that column values can contain separators and new lines.
+	 * The separator parameter must specify a single character.
+	 */
+	protected boolean escapeData = false;
+
+	// Scanner that locates the columns in the data field; it holds the
+	// columns of the tuple being processed, so every thread has its own
+	private ThreadLocal<FieldScanner> fieldScanner;
+
+	@Parameter(description = "Set to true if the user exit escapes special characters in the column values (escapeData property). The separator must then be a single character.", name = "escapeData", optional = true)
+	public void setEscapeData(boolean escapeData) {
+		this.escapeData = escapeData;
+	}
+
+	public boolean getEscapeData() {
+		return escapeData;
+	}
+
 	/**
 	 * Parameter cdcExportXml. This parameter identifies the XML file that holds
 	 * the exported CDC subscription. You can use an exported subscription if
@@ -184,10 +215,13 @@ public class CDCParse extends AbstractOperator {
 	 * Parameter qualifiedTableName. The parameter is converted to uppercase
 	 * during initialization as the entries coming from CDC will have uppercase
 	 * table names.
+	 * 
+	 * This parameter is mutually exclusive with the qualifiedTableNames
+	 * parameter.
 	 */
 	protected String qualifiedTableName = "";
 
-	@Parameter(description = "Table to be parsed: schema.tablename", name = "qualifiedTableName", optional = false)
+	@Parameter(description = "Table to be parsed: schema.tablename", name = "qualifiedTableName", optional = true)
 	public void setQualifiedTableName(String qualifiedTableName) {
 		this.qualifiedTableName = qualifiedTableName.toUpperCase();
 	}
@@ -196,6 +230,28 @@ public class CDCParse extends AbstractOperator {
 		return qualifiedTableName;
 	}
 
+	/**
+	 * Parameter qualifiedTableNames. Lists the tables to be parsed by one
+	 * operator; the tuples of every table are submitted to the output port
+	 * with the same position as the table in the list. The table names are
+	 * converted to uppercase.
+	 * 
+	 * This parameter is mutually exclusive with the qualifiedTableName
+	 * parameter.
+	 */
+	protected List<String> qualifiedTableNames = new ArrayList<String>();
+
+	@Parameter(description = "Tables to be parsed: schema.tablename, one for every output port", name = "qualifiedTableNames", optional = true)
+	public void setQualifiedTableNames(List<String> qualifiedTableNames) {
+		this.qualifiedTableNames = new ArrayList<String>();
+		for (String tableName : qualifiedTableNames)
+			this.qualifiedTableNames.add(tableName.toUpperCase());
+	}
+
+	public List<String> getQualifiedTableNames() {
+		return qualifiedTableNames;
+	}
+
 	/**
 	 * Parameter beforeImagePrefix. Defines the prefix for the tuple fields
 	 * identifying the before-image of the table columns. Default is "b_"
@@ -243,8 +299,33 @@ public class CDCParse extends AbstractOperator {
 		return fillDeleteAfterImage;
 	}
 
-	protected HashMap<String, Integer> outputData = new HashMap<String, Integer>();
-	protected HashMap<String, Integer> outputDeletedRecord = new HashMap<String, Integer>();
+	/**
+	 * Parameter conversionErrorPolicy. Determines what happens if a column
+	 * value cannot be converted to the type of the output tuple attribute it is
+	 * mapped to: "default" sets the attribute to the default value of its type,
+	 * "warn" does the same but logs a warning (once per attribute) and "fail"
+	 * terminates the operator. Empty values are always converted to the default
+	 * value of the type.
+	 */
+	protected String conversionErrorPolicy = ColumnConverter.POLICY_DEFAULT;
+
+	@Parameter(description = "Action if a column value cannot be converted to the type of its attribute: default (set the default value of the type), warn (same, but log a warning) or fail (terminate the operator). Default is default.", name = "conversionErrorPolicy", optional = true)
+	public void setConversionErrorPolicy(String conversionErrorPolicy) {
+		this.conversionErrorPolicy = conversionErrorPolicy.toLowerCase();
+	}
+
+	public String getConversionErrorPolicy() {
+		return conversionErrorPolicy;
+	}
+
+	// Mapping of every parsed table, by qualified table name
+	protected HashMap<String, TableMapping> tables = new HashMap<String, TableMapping>();
+
+	// Indexes of the input tuple attributes, resolved during initialization
+	private int metadataIndex;
+	private int tableNameIndex;
+	private int entryTypeIndex;
+	private int dataIndex;
 
 	/**
 	 * Initialize this operator. Called once before any tuples are processed.
@@ -276,6 +357,72 @@ public class CDCParse extends AbstractOperator {
 		if (!getAccessServerConnectionDocument().isEmpty() && subscription.isEmpty())
 			throw new Exception(
 					"Subscription must be specified if the mapped columns are to be" + " retrieved through CHCCLP.");
+		// Escaped data is split on a single separator character; accept it
+		// as a literal or as an escaped regular expression character
+		if (escapeData) {
+			char separatorCharacter;
+			if (separator.length() == 1)
+				separatorCharacter = separator.charAt(0);
+			else if (separator.length() == 2 && separator.charAt(0) == '\\')
+				separatorCharacter = separator.charAt(1);
+			else
+				throw new Exception("The separator parameter must specify a single character if escapeData is true"
+						+ " in the CDCParse operator.");
+			if (separatorCharacter == CDCProtocol.ESCAPE_CHARACTER)
+				throw new Exception("The separator must not be the escape character if escapeData is true"
+						+ " in the CDCParse operator.");
+			final char scannerSeparator = separatorCharacter;
+			fieldScanner = new ThreadLocal<FieldScanner>() {
+				protected FieldScanner initialValue() {
+					return new FieldScanner(scannerSeparator, true);
+				}
+			};
+		} else {
+			final String scannerSeparator = separator;
+			fieldScanner = new ThreadLocal<FieldScanner>() {
+				protected FieldScanner initialValue() {
+					return FieldScanner.create(scannerSeparator);
+				}
+			};
+		}
+		// Report an invalid separator expression now rather than with the
+		// first tuple
+		fieldScanner.get();
+		// Check that exactly one of qualifiedTableName and qualifiedTableNames
+		// has been specified, with one table for every output port
+		if (qualifiedTableName.isEmpty() == qualifiedTableNames.isEmpty())
+			throw new Exception("Either the qualifiedTableName or the qualifiedTableNames parameter"
+					+ " must be specified in the CDCParse operator.");
+		List<String> tableNames = qualifiedTableName.isEmpty() ? qualifiedTableNames
+				: Collections.singletonList(qualifiedTableName);
+		if (tableNames.size() != operatorContext.getNumberOfStreamingOutputs())
+			throw new Exception("The CDCParse operator has " + operatorContext.getNumberOfStreamingOutputs()
+					+ " output ports, but " + tableNames.size()
+					+ " tables to be parsed. Every table must have its own output port.");
+		for (int t = 0; t < tableNames.size(); t++) {
+			String tableName = tableNames.get(t);
+			if (tables.containsKey(tableName))
+				throw new Exception("Table " + tableName + " has been specified more than once in the"
+						+ " qualifiedTableNames parameter of the CDCParse operator.");
+			tables.put(tableName, new TableMapping(tableName, t, getOutput(t)));
+		}
+		// Resolve the input attributes once rather than by name for every tuple
+		StreamSchema inputSchema = operatorContext.getStreamingInputs().get(0).getStreamSchema();
+		Attribute metadataAttribute = inputSchema.getAttribute(0);
+		if (metadataAttribute.getType().getMetaType() != MetaType.TUPLE || inputSchema.getAttribute("data") == null)
+			throw new Exception("The input port of the CDCParse operator must have a cdcMetadata tuple as first"
+					+ " attribute and a data attribute.");
+		StreamSchema metadataSchema = ((TupleType) metadataAttribute.getType()).getTupleSchema();
+		if (metadataSchema.getAttribute("txTableName") == null || metadataSchema.getAttribute("txEntryType") == null)
+			throw new Exception("The cdcMetadata attribute of the input port of the CDCParse operator must have the"
+					+ " txTableName and txEntryType attributes.");
+		metadataIndex = metadataAttribute.getIndex();
+		tableNameIndex = metadataSchema.getAttributeIndex("txTableName");
+		entryTypeIndex = metadataSchema.getAttributeIndex("txEntryType");
+		dataIndex = inputSchema.getAttributeIndex("data");
+		if (!ColumnConverter.isValidPolicy(conversionErrorPolicy))
+			throw new Exception("The conversionErrorPolicy parameter must be default, warn or fail"
+					+ " in the CDCParse operator.");
 		// Now, map the table columns to the tuple fields
 		mapColumnsToTuple();
 		LOGGER.log(TraceLevel.TRACE, "CDCParse operator initialized, ready to receive tuples");
@@ -315,44 +462,48 @@ public class CDCParse extends AbstractOperator {
 	@Override
 	public final void process(StreamingInput<Tuple> inputStream, Tuple tuple) throws Exception {
 
-		// Create a new tuple for output port 0
-		StreamingOutput<OutputTuple> outStream = getOutput(0);
-		OutputTuple outTuple = outStream.newTuple();
-		LOGGER.log(TraceLevel.TRACE, "Processing " + tuple);
+		// Only render the tuple when tracing is on, this runs for every tuple
+		if (LOGGER.isTraceEnabled())
+			LOGGER.log(TraceLevel.TRACE, "Processing " + tuple);
 
-		Tuple cdcMetadata = tuple.getTuple(0);
+		Tuple cdcMetadata = tuple.getTuple(metadataIndex);
 
-		// Check that the tuple table matches the configured table name.
-		String txTableName = cdcMetadata.getString("txTableName");
-		if (txTableName.startsWith("*")) {
+		// Find the mapping of the table of the tuple
+		String txTableName = cdcMetadata.getString(tableNameIndex);
+		TableMapping table = tables.get(txTableName);
+		if (table != null) {
+			// Create a new tuple for the output port of the table
+			StreamingOutput<OutputTuple> outStream = table.getOutput();
+			OutputTuple outTuple = outStream.newTuple();
+			// Copy across all matching attributes, including the empty ones
+			outTuple.assign(tuple);
+			// Locate only the mapped columns in the data field
+			// Use one compiled mapping for the whole tuple, even if the
+			// subscription is remapped concurrently
+			TableMapping.CompiledMapping mapping = table.getCompiledMapping();
+			FieldScanner scanner = fieldScanner.get();
+			scanner.scan(tuple.getString(dataIndex), mapping.getNeededFields());
+			// If the before image of the delete record must populate the
+			// regular fields, use the mapping with the delete image overlay
+			boolean delete = fillDeleteAfterImage && CDCProtocol.getEntryTypeCode(
+					cdcMetadata.getString(entryTypeIndex)) == CDCProtocol.ENTRY_TYPE_DELETE;
+			int[] fieldIndexes = mapping.getFieldIndexes(delete);
+			ColumnConverter[] converters = mapping.getConverters(delete);
+			for (int i = 0; i < fieldIndexes.length; i++)
+				scanner.convert(fieldIndexes[i], converters[i], outTuple);
+			// Submit new tuple to the output port of the table
+			outStream.submit(outTuple);
+		} else if (txTableName.startsWith("*")) {
 			// If the subscription has been restarted, update the
 			// column-to-tuple mapping
 			if (txTableName.equals("***INITIALIZE***")) {
 				mapColumnsToTuple();
 			}
-		} else if (txTableName.equals(qualifiedTableName)) {
-			// Copy across all matching attributes, including the empty ones
-			outTuple.assign(tuple);
-			String[] data = tuple.getString("data").split(separator, -1);
-			for (String k : outputData.keySet()) {
-				outTuple.setString(k, data[outputData.get(k)]);
-			}
-			// If the before image of the delete record must populate the
-			// regular fields, do so
-			if (fillDeleteAfterImage) {
-				if (cdcMetadata.getString("txEntryType").equals("D")) {
-					for (String k : outputDeletedRecord.keySet()) {
-						outTuple.setString(k, data[outputDeletedRecord.get(k)]);
-					}
-				}
-			}
-			// Submit new tuple to output port 0
-			outStream.submit(outTuple);
 		} else {
 			if (!invalidTableMessageSent) {
 				LOGGER.log(TraceLevel.WARN,
 						"CDCParse operator received a data record for an out of scope table (" + txTableName
-								+ "), while expecting entries for table " + qualifiedTableName
+								+ "), while expecting entries for tables " + tables.keySet()
 								+ ". Out of scope tuples are ignored by CDCParse. Consider using a Split operator "
 								+ "to prevent out of scope tuples being handled by CDCParse. "
 								+ "No more warnings regarding out of scope tuples will be sent.");
@@ -391,8 +542,23 @@ public class CDCParse extends AbstractOperator {
 		super.shutdown();
 	}
 
-	private void mapColumnsToTuple() throws Exception {
-		StreamSchema outputSchema = operatorContext.getStreamingOutputs().get(0).getStreamSchema();
+	private synchronized void mapColumnsToTuple() throws Exception {
+		// Retrieve the selected columns of all parsed tables at once
+		HashMap<String, ArrayList<String>> selectedColumnsByTable;
+		if (!getCdcExportXml().isEmpty())
+			selectedColumnsByTable = getColumnsFromExportXml(cdcExportXml, tables.keySet());
+		else
+			selectedColumnsByTable = getColumnsFromChcclp(tables.keySet());
+		for (TableMapping table : tables.values()) {
+			ArrayList<String> selectedColumns = selectedColumnsByTable.get(table.getQualifiedTableName());
+			if (selectedColumns == null)
+				selectedColumns = new ArrayList<String>();
+			mapColumnsToTuple(table, selectedColumns);
+		}
+	}
+
+	private void mapColumnsToTuple(TableMapping table, ArrayList<String> selectedColumns) throws Exception {
+		StreamSchema outputSchema = table.getOutput().getStreamSchema();
 		String outputTuple = "<";
 		for (String attrName : outputSchema.getAttributeNames()) {
 			if (!outputTuple.equals("<"))
@@ -401,12 +567,11 @@ public class CDCParse extends AbstractOperator {
 			outputTuple += " " + attrName;
 		}
 		outputTuple += ">";
-		LOGGER.log(TraceLevel.TRACE, "Output tuple for CDCParse operator is " + outputTuple);
-		ArrayList<String> selectedColumns;
-		if (!getCdcExportXml().isEmpty())
-			selectedColumns = getColumnsFromExportXml(cdcExportXml, qualifiedTableName);
-		else
-			selectedColumns = getColumnsFromChcclp();
+		LOGGER.log(TraceLevel.TRACE, "Output tuple for table " + table.getQualifiedTableName() + " (port "
+				+ table.getPort() + ") of CDCParse operator is " + outputTuple);
+		table.clear();
+		HashMap<String, Integer> outputData = table.outputData;
+		HashMap<String, Integer> outputDeletedRecord = table.outputDeletedRecord;
 
 		// Create a mapping of the table columns to the output port attributes,
 		// this
@@ -457,10 +622,20 @@ public class CDCParse extends AbstractOperator {
 				}
 			}
 		}
+
+		// Compile the mapping into arrays and determine the conversion for
+		// every mapped attribute once, so that neither the attribute names nor
+		// their types have to be looked up for every tuple
+		table.compile(conversionErrorPolicy);
 	}
 
-	private ArrayList<String> getColumnsFromChcclp() throws Exception {
-		ArrayList<String> selectedColumns = new ArrayList<String>();
+	/**
+	 * Retrieves the selected columns of the specified tables through CHCCLP
+	 * scripting, connecting to the Access Server only once.
+	 */
+	private HashMap<String, ArrayList<String>> getColumnsFromChcclp(Set<String> qualifiedTableNames)
+			throws Exception {
+		HashMap<String, ArrayList<String>> selectedColumnsByTable = new HashMap<String, ArrayList<String>>();
 		// Now parse the Access Server Connection document
 		LOGGER.log(TraceLevel.TRACE, "Parsing connection document " + accessServerConnectionDocument);
 		DOMParser parser = new DOMParser();
@@ -479,7 +654,6 @@ public class CDCParse extends AbstractOperator {
 		LOGGER.log(TraceLevel.TRACE,
 				"Found the following properties in the connection document: " + "Host=" + accessServerHost + ", Port="
 						+ accessServerPort + ", User=" + accessServerUser + ", Password=" + accessServerPassword);
-		boolean tableFound = false;
 		EmbeddedScript script = new EmbeddedScript();
 		Result result;
 		try {
@@ -502,10 +676,11 @@ public class CDCParse extends AbstractOperator {
 				ResultStringTable table = (ResultStringTable) result;
 				for (int i = 0; i < table.getRowCount(); i++) {
 					String qualifiedTable = table.getValueAt(i, 0);
-					// If the mapped source table matches the qualifiedTableName
-					// parameter, retrieve the columns
-					if (qualifiedTable.equalsIgnoreCase(getQualifiedTableName())) {
-						tableFound = true;
+					// If the mapped source table is one of the parsed tables,
+					// retrieve the columns
+					if (qualifiedTableNames.contains(qualifiedTable.toUpperCase())) {
+						ArrayList<String> selectedColumns = new ArrayList<String>();
+						selectedColumnsByTable.put(qualifiedTable.toUpperCase(), selectedColumns);
 						LOGGER.log(TraceLevel.TRACE, "Table " + qualifiedTable + " found in the subscription");
 						scriptExecute(script, "select table mapping sourceSchema " + qualifiedTable.split("[.]")[0]
 								+ " sourceTable " + qualifiedTable.split("[.]")[1]);
@@ -531,11 +706,13 @@ public class CDCParse extends AbstractOperator {
 			throw new Exception(
 					"Error while retrieving mapped columns through CHCCLP scripting. See previous messages for details.");
 		}
-		if (!tableFound)
-			LOGGER.log(TraceLevel.WARN, "Table mapping for table " + qualifiedTableName
-					+ " not found in datastore, no tuples for this table will be processed");
+		for (String qualifiedTableName : qualifiedTableNames) {
+			if (!selectedColumnsByTable.containsKey(qualifiedTableName))
+				LOGGER.log(TraceLevel.WARN, "Table mapping for table " + qualifiedTableName
+						+ " not found in datastore, no tuples for this table will be processed");
+		}
 
-		return selectedColumns;
+		return selectedColumnsByTable;
 	}
 
 	private void scriptExecute(EmbeddedScript script, String chcclpCommand) throws Exception {
@@ -549,11 +726,12 @@ public class CDCParse extends AbstractOperator {
 	}
 
 	/**
-	 * Retrieves the selected columns from the selected table into an ArrayList.
+	 * Retrieves the selected columns of the specified tables into an ArrayList
+	 * per table, parsing the XML document only once.
 	 */
-	private ArrayList<String> getColumnsFromExportXml(String cdcExportXml, String qualifiedTableName)
-			throws SAXException, IOException, ParserConfigurationException {
-		ArrayList<String> selectedColumns = new ArrayList<String>();
+	private HashMap<String, ArrayList<String>> getColumnsFromExportXml(String cdcExportXml,
+			Set<String> qualifiedTableNames) throws SAXException, IOException, ParserConfigurationException {
+		HashMap<String, ArrayList<String>> selectedColumnsByTable = new HashMap<String, ArrayList<String>>();
 		// Now parse the CDC Export XML document
 		LOGGER.log(TraceLevel.TRACE, "Parsing subscription export XML document " + cdcExportXml);
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -568,14 +746,14 @@ public class CDCParse extends AbstractOperator {
 		LOGGER.log(TraceLevel.TRACE, "Subscription name found in XML document: " + subscriptionName);
 
 		List<Element> tableMappings = Utility.getChildElementsByName(subscriptionElement, "TableMapping");
-		boolean tableFound = false;
 		for (int t = 0; t < tableMappings.size(); t++) {
 			Element tableMapping = tableMappings.get(t);
 
 			String tableName = tableMapping.getAttribute("sourceUser") + "."
 					+ tableMapping.getAttribute("sourceTableName");
-			if (tableName.equalsIgnoreCase(qualifiedTableName)) {
-				tableFound = true;
+			if (qualifiedTableNames.contains(tableName.toUpperCase())) {
+				ArrayList<String> selectedColumns = new ArrayList<String>();
+				selectedColumnsByTable.put(tableName.toUpperCase(), selectedColumns);
 				LOGGER.log(TraceLevel.TRACE, "Found table mapping for table " + tableName);
 
 				List<Element> sourceColumns = Utility.getChildElementsByName(tableMapping, "SourceColumn");
@@ -590,10 +768,12 @@ public class CDCParse extends AbstractOperator {
 				}
 			}
 		}
-		if (!tableFound)
-			LOGGER.log(TraceLevel.WARN, "Table mapping for table " + qualifiedTableName
-					+ " not found in XML file, no tuples for this table will be processed");
-		return selectedColumns;
+		for (String qualifiedTableName : qualifiedTableNames) {
+			if (!selectedColumnsByTable.containsKey(qualifiedTableName))
+				LOGGER.log(TraceLevel.WARN, "Table mapping for table " + qualifiedTableName
+						+ " not found in XML file, no tuples for this table will be processed");
+		}
+		return selectedColumnsByTable;
 	}
 
 }
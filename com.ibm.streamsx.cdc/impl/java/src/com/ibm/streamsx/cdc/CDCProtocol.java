@@ -0,0 +1,247 @@
+package com.ibm.streamsx.cdc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the records exchanged between the CDCStreams user exit and the
+ * CDCSource operator.
+ * <p>
+ * Every record has a type (data, commit, handshake, initialize or finalize)
+ * followed by a number of fields. In the text protocol, the record is a single
+ * line where the fields are separated by the metadata separator. In the binary
+ * protocol every record is a frame:
+ * </p>
+ * <ul>
+ * <li>int32 (big-endian): length of the remainder of the frame</li>
+ * <li>byte: record type</li>
+ * <li>for every field: int32 length followed by the UTF-8 encoded value</li>
+ * </ul>
+ * <p>
+ * When a connection is accepted, CDCSource sends a readiness line that lists
+ * its capabilities. The user exit answers with an initialization record (always
+ * text) that lists the options it has chosen, followed by the identification of
+ * its subscription; all subsequent records use the chosen protocol. Feedback sent to the user exit is always text.
+ * </p>
+ * <p>
+ * If the user exit chose the credit option, CDCSource sends credit lines with
+ * the total number of data records the user exit may have sent so far. The
+ * limit is the number of data records that have been submitted (or, with a
+ * control port, confirmed downstream) plus the credit window of the operator.
+ * </p>
+ * <p>
+ * If the user exit chose the resume option, its initialization record also
+ * holds a session identifier and the position of the last acknowledged
+ * handshake. The position of a record is the number of (uncompressed) bytes of
+ * the session's records that precede it, not counting the initialization
+ * records. CDCSource answers with a resume line holding the position after the
+ * last record it processed for the session, or the position sent by the user
+ * exit if it does not know the session; the user exit continues sending from
+ * that position.
+ * </p>
+ * <p>
+ * If the escape option was chosen, special characters in the column values are
+ * escaped with a backslash: \\ for the backslash, \n and \r for line feed and
+ * carriage return, a backslash followed by the separator for the column
+ * separator and a backslash followed by u and four hexadecimal digits for the
+ * metadata separator. With the text protocol, the metadata fields are escaped in
+ * the same way. The data field is passed on escaped and restored by CDCParse.
+ * </p>
+ */
+public class CDCProtocol {
+
+	// Record types
+	public static final char DATA = 'd';
+	public static final char COMMIT = 'c';
+	public static final char HANDSHAKE = 'h';
+	public static final char INITIALIZE = 'i';
+	public static final char FINALIZE = 'f';
+	public static final char HEARTBEAT = 'k';
+	// Feedback line that grants credit to the user exit
+	public static final char CREDIT = 'w';
+	// Feedback line with the position at which a resumed stream continues
+	public static final char RESUME = 'r';
+
+	// Codes of the entry types (txEntryType) of data records
+	public static final byte ENTRY_TYPE_UNKNOWN = 0;
+	public static final byte ENTRY_TYPE_INSERT = 'I';
+	public static final byte ENTRY_TYPE_UPDATE = 'U';
+	public static final byte ENTRY_TYPE_DELETE = 'D';
+
+	// Options negotiated during the initialization exchange
+	public static final String OPTION_BINARY = "binary";
+	public static final String OPTION_ESCAPE = "escape";
+	public static final String OPTION_HEARTBEAT = "heartbeat";
+	public static final String OPTION_DEFLATE = "deflate";
+	public static final String OPTION_CREDIT = "credit";
+	public static final String OPTION_RESUME = "resume";
+
+	/**
+	 * Capabilities advertised to the user exit in the readiness line
+	 */
+	public static final String CAPABILITIES = OPTION_BINARY + "," + OPTION_ESCAPE + "," + OPTION_HEARTBEAT + ","
+			+ OPTION_DEFLATE + "," + OPTION_RESUME;
+
+	/**
+	 * Capabilities advertised to a user exit that attached to the shared
+	 * memory ring, where compression does not pay off and the ring does not
+	 * outlive the attachment
+	 */
+	public static final String SHARED_MEMORY_CAPABILITIES = OPTION_BINARY + "," + OPTION_ESCAPE + ","
+			+ OPTION_HEARTBEAT;
+
+	// Character that starts an escape sequence
+	public static final char ESCAPE_CHARACTER = '\\';
+
+	// Separator of the options in the initialization records
+	public static final String OPTION_SEPARATOR = ",";
+
+	// Size of the length prefix of frames and fields in the binary protocol
+	public static final int LENGTH_PREFIX_SIZE = 4;
+
+	/**
+	 * Largest frame accepted in the binary protocol; anything bigger is
+	 * considered a corrupt stream
+	 */
+	public static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+	/**
+	 * Checks whether an option is present in a comma-separated list of options.
+	 *
+	 * @param optionList
+	 *            Comma-separated list of options, may be null
+	 * @param option
+	 *            Option to look for
+	 * @return true if the option is in the list
+	 */
+	public static boolean hasOption(String optionList, String option) {
+		if (optionList == null)
+			return false;
+		for (String listedOption : optionList.split(OPTION_SEPARATOR)) {
+			if (listedOption.trim().equalsIgnoreCase(option))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the code of the entry type of a data record ("I", "U" or "D").
+	 *
+	 * @param entryType
+	 *            Entry type as sent by the user exit
+	 * @return Entry type code, ENTRY_TYPE_UNKNOWN if the entry type is not
+	 *         recognized
+	 */
+	public static byte getEntryTypeCode(String entryType) {
+		if (entryType.length() != 1)
+			return ENTRY_TYPE_UNKNOWN;
+		switch (entryType.charAt(0)) {
+		case ENTRY_TYPE_INSERT:
+		case ENTRY_TYPE_UPDATE:
+		case ENTRY_TYPE_DELETE:
+			return (byte) entryType.charAt(0);
+		default:
+			return ENTRY_TYPE_UNKNOWN;
+		}
+	}
+
+	/**
+	 * Restores a value that was escaped by the user exit. A backslash followed
+	 * by n, r or u and four hexadecimal digits is replaced by the line feed,
+	 * carriage return or the Unicode character respectively; a backslash
+	 * followed by any other character is replaced by that character.
+	 *
+	 * @param value
+	 *            Escaped value
+	 * @return Unescaped value
+	 */
+	public static String unescape(String value) {
+		if (value.indexOf(ESCAPE_CHARACTER) < 0)
+			return value;
+		return unescape(value, 0, value.length(), new StringBuilder(value.length())).toString();
+	}
+
+	/**
+	 * Splits an escaped data field into its columns and restores the escaped
+	 * characters of every column. Separators preceded by the escape character
+	 * are part of the column value.
+	 *
+	 * @param data
+	 *            Escaped data field
+	 * @param separator
+	 *            Column separator
+	 * @return Unescaped column values, including trailing empty columns
+	 */
+	public static String[] splitEscaped(String data, char separator) {
+		List<String> columns = new ArrayList<String>();
+		StringBuilder column = new StringBuilder();
+		int length = data.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = data.charAt(i);
+			if (c == ESCAPE_CHARACTER) {
+				i++;
+			} else if (c == separator) {
+				columns.add(unescapeColumn(data, start, i, column));
+				start = i + 1;
+			}
+		}
+		columns.add(unescapeColumn(data, start, length, column));
+		return columns.toArray(new String[columns.size()]);
+	}
+
+	private static String unescapeColumn(String data, int start, int end, StringBuilder column) {
+		int escape = data.indexOf(ESCAPE_CHARACTER, start);
+		if (escape < 0 || escape >= end)
+			return data.substring(start, end);
+		column.setLength(0);
+		return unescape(data, start, end, column).toString();
+	}
+
+	/**
+	 * Appends the unescaped contents of part of a value to a string builder.
+	 *
+	 * @param value
+	 *            Escaped value
+	 * @param start
+	 *            Index of the first character
+	 * @param end
+	 *            Index after the last character
+	 * @param result
+	 *            Builder to which the unescaped characters are appended
+	 * @return The builder
+	 */
+	public static StringBuilder unescape(CharSequence value, int start, int end, StringBuilder result) {
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c != ESCAPE_CHARACTER || i + 1 >= end) {
+				result.append(c);
+				continue;
+			}
+			c = value.charAt(++i);
+			switch (c) {
+			case 'n':
+				result.append('\n');
+				break;
+			case 'r':
+				result.append('\r');
+				break;
+			case 'u':
+				if (i + 4 < end) {
+					try {
+						result.append((char) Integer.parseInt(value.subSequence(i + 1, i + 5).toString(), 16));
+						i += 4;
+						break;
+					} catch (NumberFormatException e) {
+						// Not a Unicode escape, keep the character
+					}
+				}
+				result.append(c);
+				break;
+			default:
+				result.append(c);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,455 @@
+package com.ibm.streamsx.cdc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.ibm.streams.operator.types.RString;
+
+/**
+ * Reads the records sent by the CDCStreams user exit from a channel.
+ * <p>
+ * The reader does not block: bytes are read from the channel with read() when
+ * it is ready (for example when selected for reading) and next() returns the
+ * records that are completely buffered. Incomplete records remain in the buffer
+ * until more bytes have been read.
+ * </p>
+ * <p>
+ * Bytes are read into a reusable direct buffer, which the channel can fill
+ * without an intermediate copy. next() only locates the record boundaries and
+ * the offsets of the fields; a field is only decoded (or copied into an
+ * RString) when it is requested. The reader starts in text mode (one record per
+ * line, fields separated by the metadata separator) and can be switched to the
+ * binary protocol once the initialization record has been received. Both modes
+ * share the same buffer so that no bytes are lost when switching.
+ * </p>
+ * <p>
+ * If the user exit compresses the records that follow the initialization
+ * record, the bytes read from the channel are decompressed into the buffer as
+ * they arrive. The user exit flushes the compression whenever it flushes its
+ * output, so every record sent can be decompressed without waiting for more
+ * data.
+ * </p>
+ * <p>
+ * Field 0 of every record is the record type, the remaining fields are the
+ * record contents; see {@link CDCProtocol}.
+ * </p>
+ */
+public class CDCRecordReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_BUFFER_SIZE = 65536;
+	private static final int INITIAL_FIELD_COUNT = 16;
+	private static final int COMPRESSED_BUFFER_SIZE = 65536;
+
+	private final String metadataSeparator;
+	private final byte[] separatorBytes;
+	private boolean binary = false;
+	private boolean escaped = false;
+	// Decompresses the bytes read from the channel once the user exit has
+	// started compressing
+	private boolean inflateRequested = false;
+	private Inflater inflater = null;
+	private byte[] compressed = null;
+	private ByteBuffer compressedBuffer = null;
+
+	private ByteBuffer buffer;
+	private int start = 0;
+	private int end = 0;
+	// Position up to which the buffer has been scanned for a new line
+	private int scanned = 0;
+	// Number of (decompressed) bytes of the records returned by next()
+	private long consumedBytes = 0;
+
+	// Offsets of the fields of the current record in the buffer
+	private int[] fieldStart = new int[INITIAL_FIELD_COUNT];
+	private int[] fieldEnd = new int[INITIAL_FIELD_COUNT];
+	private int fieldCount = 0;
+	private char recordType;
+	// Buffer into which fields are copied for decoding
+	private byte[] decodeBuffer = new byte[1024];
+
+	public CDCRecordReader(String metadataSeparator) {
+		this(metadataSeparator, INITIAL_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a reader with a larger buffer, so that bulk input such as a file
+	 * is read with fewer and larger reads.
+	 *
+	 * @param bufferSize
+	 *            Initial size of the buffer, which grows when a record does
+	 *            not fit
+	 */
+	public CDCRecordReader(String metadataSeparator, int bufferSize) {
+		this.metadataSeparator = metadataSeparator;
+		this.separatorBytes = metadataSeparator.getBytes(UTF8);
+		this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, INITIAL_BUFFER_SIZE));
+	}
+
+	/**
+	 * Switches between the text and the binary protocol. The switch applies to
+	 * the next record read.
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Indicates whether the user exit escapes special characters; with the
+	 * text protocol this also applies to the metadata fields.
+	 */
+	public void setEscaped(boolean escaped) {
+		this.escaped = escaped;
+	}
+
+	public boolean isEscaped() {
+		return escaped;
+	}
+
+	/**
+	 * Indicates that the bytes that follow the current record are compressed
+	 * with deflate. The switch applies to the next record read.
+	 */
+	public void startInflating() {
+		if (inflater == null)
+			inflateRequested = true;
+	}
+
+	public boolean isInflating() {
+		return inflater != null || inflateRequested;
+	}
+
+	/**
+	 * Releases the resources of the decompression.
+	 */
+	public void close() {
+		if (inflater != null)
+			inflater.end();
+	}
+
+	/**
+	 * Reads the bytes that are available from the channel into the buffer,
+	 * compacting or growing the buffer when needed.
+	 *
+	 * @return Number of bytes read, -1 if the end of the stream was reached
+	 * @throws IOException
+	 *             if the channel could not be read
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		if (inflater != null)
+			return readCompressed(channel);
+		makeRoom();
+		buffer.limit(buffer.capacity()).position(end);
+		int bytesRead = channel.read(buffer);
+		if (bytesRead > 0)
+			end += bytesRead;
+		return bytesRead;
+	}
+
+	/**
+	 * Reads the compressed bytes that are available from the channel and
+	 * decompresses them into the buffer.
+	 *
+	 * @return Number of compressed bytes read, -1 if the end of the stream was
+	 *         reached
+	 */
+	private int readCompressed(ReadableByteChannel channel) throws IOException {
+		compressedBuffer.clear();
+		int bytesRead = channel.read(compressedBuffer);
+		if (bytesRead > 0) {
+			inflater.setInput(compressed, 0, bytesRead);
+			inflate();
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Switches to decompression. The bytes after the current record have
+	 * already been read from the channel and are the first compressed bytes.
+	 * Decompressed bytes are written into a heap buffer, as the inflater does
+	 * not accept direct buffers on all supported Java versions.
+	 */
+	private void switchToInflating() throws IOException {
+		inflateRequested = false;
+		inflater = new Inflater();
+		int pending = end - start;
+		compressed = new byte[Math.max(COMPRESSED_BUFFER_SIZE, pending)];
+		compressedBuffer = ByteBuffer.wrap(compressed);
+		buffer.limit(end).position(start);
+		buffer.get(compressed, 0, pending);
+		buffer = ByteBuffer.allocate(buffer.capacity());
+		start = 0;
+		end = 0;
+		scanned = 0;
+		if (pending > 0) {
+			inflater.setInput(compressed, 0, pending);
+			inflate();
+		}
+	}
+
+	/**
+	 * Decompresses all input of the inflater into the buffer, growing the
+	 * buffer if needed. The inflater may still hold output once all input has
+	 * been consumed, so it is drained until it produces nothing more.
+	 */
+	private void inflate() throws IOException {
+		try {
+			int inflated;
+			do {
+				makeRoom();
+				inflated = inflater.inflate(buffer.array(), buffer.arrayOffset() + end, buffer.capacity() - end);
+				end += inflated;
+				if (inflater.needsDictionary())
+					throw new IOException("Compressed data requires a dictionary");
+			} while (!inflater.finished() && (inflated > 0 || !inflater.needsInput()));
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data received: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Makes room after the buffered bytes, compacting or growing the buffer.
+	 */
+	private void makeRoom() {
+		if (start == end) {
+			start = 0;
+			end = 0;
+			scanned = 0;
+		} else if (start > 0 && end == buffer.capacity()) {
+			buffer.limit(end).position(start);
+			buffer.compact();
+			end -= start;
+			scanned -= start;
+			start = 0;
+		}
+		if (end == buffer.capacity()) {
+			ByteBuffer newBuffer = buffer.isDirect() ? ByteBuffer.allocateDirect(buffer.capacity() * 2)
+					: ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.limit(end).position(0);
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of all records that have been returned by
+	 * next(), counting the decompressed bytes if the records are compressed.
+	 */
+	public long getConsumedBytes() {
+		return consumedBytes;
+	}
+
+	/**
+	 * Returns the number of buffered bytes that do not form a complete record
+	 * yet.
+	 */
+	public int getPendingBytes() {
+		return end - start;
+	}
+
+	/**
+	 * Locates the next complete record in the buffer.
+	 *
+	 * @return true if a record was found, false if no complete record is
+	 *         buffered
+	 * @throws IOException
+	 *             if the buffer contains an invalid frame
+	 */
+	public boolean next() throws IOException {
+		fieldCount = 0;
+		if (inflateRequested)
+			switchToInflating();
+		// Absolute reads are checked against the limit, which decoding moves
+		buffer.limit(end);
+		return binary ? nextFrame() : nextLine();
+	}
+
+	/**
+	 * Returns the type of the current record.
+	 */
+	public char getType() {
+		return recordType;
+	}
+
+	/**
+	 * Returns the number of fields in the current record, including the type.
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Returns a field of the current record; field 0 is the record type. If the
+	 * record does not have the requested field, an empty string is returned.
+	 */
+	public String getField(int index) {
+		if (index >= fieldCount)
+			return "";
+		return decode(fieldStart[index], fieldEnd[index]);
+	}
+
+	/**
+	 * Returns a field of the current record as an RString holding the UTF-8
+	 * bytes of the field, without decoding it.
+	 */
+	public RString getRString(int index) {
+		if (index >= fieldCount)
+			return new RString(new byte[0]);
+		byte[] bytes = new byte[fieldEnd[index] - fieldStart[index]];
+		buffer.limit(fieldEnd[index]).position(fieldStart[index]);
+		buffer.get(bytes);
+		return new RString(bytes);
+	}
+
+	/**
+	 * Returns a metadata field of the current record, restoring the escaped
+	 * characters if the text protocol is used with escaping.
+	 */
+	public String getMetadataField(int index) {
+		String field = getField(index);
+		return (escaped && !binary) ? CDCProtocol.unescape(field) : field;
+	}
+
+	/**
+	 * Returns a metadata field of the current record as an RString. The field
+	 * is only decoded if escaped characters must be restored.
+	 */
+	public RString getMetadataRString(int index) {
+		if (escaped && !binary)
+			return new RString(getMetadataField(index));
+		return getRString(index);
+	}
+
+	/**
+	 * Returns the current record in the format of the text protocol, used for
+	 * feedback and logging.
+	 */
+	public String getRecord() {
+		StringBuilder record = new StringBuilder();
+		for (int f = 0; f < fieldCount; f++) {
+			if (f > 0)
+				record.append(metadataSeparator);
+			record.append(getField(f));
+		}
+		return record.toString();
+	}
+
+	/**
+	 * Finds the line terminated by a new line character and the offsets of its
+	 * fields.
+	 */
+	private boolean nextLine() {
+		int newLine = indexOfNewLine();
+		if (newLine < 0)
+			return false;
+		int lineEnd = newLine;
+		if (lineEnd > start && buffer.get(lineEnd - 1) == '\r')
+			lineEnd--;
+		recordType = lineEnd > start ? (char) (buffer.get(start) & 0xff) : ' ';
+		// Split the line on the metadata separator; trailing empty fields are
+		// dropped like String.split() does
+		int fieldBegin = start;
+		int separatorLength = separatorBytes.length;
+		byte firstSeparatorByte = separatorBytes[0];
+		for (int position = start; position <= lineEnd - separatorLength;) {
+			if (buffer.get(position) == firstSeparatorByte && isSeparatorAt(position)) {
+				addField(fieldBegin, position);
+				position += separatorLength;
+				fieldBegin = position;
+			} else
+				position++;
+		}
+		addField(fieldBegin, lineEnd);
+		while (fieldCount > 1 && fieldEnd[fieldCount - 1] == fieldStart[fieldCount - 1])
+			fieldCount--;
+		consumedBytes += newLine + 1 - start;
+		start = newLine + 1;
+		scanned = start;
+		return true;
+	}
+
+	private boolean isSeparatorAt(int position) {
+		for (int i = 1; i < separatorBytes.length; i++) {
+			if (buffer.get(position + i) != separatorBytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int indexOfNewLine() {
+		for (; scanned < end; scanned++) {
+			if (buffer.get(scanned) == '\n')
+				return scanned;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a length-prefixed frame and the offsets of its length-prefixed
+	 * fields.
+	 */
+	private boolean nextFrame() throws IOException {
+		if (end - start < CDCProtocol.LENGTH_PREFIX_SIZE)
+			return false;
+		int frameLength = buffer.getInt(start);
+		if (frameLength < 1 || frameLength > CDCProtocol.MAX_FRAME_LENGTH)
+			throw new IOException("Invalid frame length " + frameLength + " received");
+		if (end - start < CDCProtocol.LENGTH_PREFIX_SIZE + frameLength)
+			return false;
+		int position = start + CDCProtocol.LENGTH_PREFIX_SIZE;
+		int frameEnd = position + frameLength;
+		recordType = (char) (buffer.get(position) & 0xff);
+		addField(position, position + 1);
+		position++;
+		while (position < frameEnd) {
+			if (position + CDCProtocol.LENGTH_PREFIX_SIZE > frameEnd)
+				throw new IOException("Truncated field length in frame of type " + recordType);
+			int fieldLength = buffer.getInt(position);
+			position += CDCProtocol.LENGTH_PREFIX_SIZE;
+			if (fieldLength < 0 || position + fieldLength > frameEnd)
+				throw new IOException("Invalid field length " + fieldLength + " in frame of type " + recordType);
+			addField(position, position + fieldLength);
+			position += fieldLength;
+		}
+		consumedBytes += frameEnd - start;
+		start = frameEnd;
+		scanned = start;
+		return true;
+	}
+
+	private void addField(int begin, int finish) {
+		if (fieldCount == fieldStart.length) {
+			int[] newFieldStart = new int[fieldCount * 2];
+			int[] newFieldEnd = new int[fieldCount * 2];
+			System.arraycopy(fieldStart, 0, newFieldStart, 0, fieldCount);
+			System.arraycopy(fieldEnd, 0, newFieldEnd, 0, fieldCount);
+			fieldStart = newFieldStart;
+			fieldEnd = newFieldEnd;
+		}
+		fieldStart[fieldCount] = begin;
+		fieldEnd[fieldCount] = finish;
+		fieldCount++;
+	}
+
+	/**
+	 * Decodes a slice of the buffer from UTF-8.
+	 */
+	private String decode(int begin, int finish) {
+		int length = finish - begin;
+		if (length == 0)
+			return "";
+		if (decodeBuffer.length < length)
+			decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+		buffer.limit(finish).position(begin);
+		buffer.get(decodeBuffer, 0, length);
+		return new String(decodeBuffer, 0, length, UTF8);
+	}
+}
@@ -0,0 +1,322 @@
+package com.ibm.streamsx.cdc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Memory-mapped file through which a CDCStreams user exit on the same host
+ * sends its records to the CDCSource operator, as an alternative to a TCP
+ * connection.
+ * <p>
+ * The file holds a header followed by two single-producer/single-consumer
+ * rings: the data ring, written by the user exit and read by CDCSource, and the
+ * feedback ring, written by CDCSource and read by the user exit. Every ring
+ * has a write and a read position in the header, which count the bytes that
+ * have been written and read since the user exit attached; the byte at
+ * position p is at offset p modulo the capacity of the ring. Each position is
+ * only written by one side, so no locking is needed.
+ * </p>
+ * <p>
+ * Every attachment has a generation, which is published in the upper 16 bits
+ * of every position together with its lower 48 bits; the full positions are
+ * restored from the last position seen, as the positions of both sides are
+ * less than a ring apart. A position of another generation is ignored, so
+ * that a user exit that has lost its attachment, but is still finishing a
+ * write, cannot move the positions of the user exit that replaced it.
+ * </p>
+ * <p>
+ * The header is laid out as follows, with the positions on separate cache
+ * lines and all numbers in the native byte order:
+ * <ul>
+ * <li>0: magic number (int32) and 4: layout version (int32)</li>
+ * <li>8: capacity of the data ring and 16: capacity of the feedback ring
+ * (int64)</li>
+ * <li>64: attach request, the token written by a user exit that wants to
+ * attach, 0 when it detaches</li>
+ * <li>128: attached token, the token of the user exit that CDCSource
+ * accepted</li>
+ * <li>192 and 256: write and read position of the data ring</li>
+ * <li>320 and 384: write and read position of the feedback ring</li>
+ * <li>448: generation of the current attachment</li>
+ * </ul>
+ * The data ring starts at HEADER_SIZE, the feedback ring follows it.
+ * </p>
+ * <p>
+ * A position is published after the bytes it covers have been copied, and
+ * read before those bytes are copied. Java 8 has no ordered access to mapped
+ * memory, so a volatile field is written before a position is published and
+ * after it is observed. The JVM follows a volatile write with a full memory
+ * barrier of the processor, which keeps the accesses to the ring on either
+ * side of it in order, also as seen by the other process.
+ * </p>
+ * <p>
+ * CDCSource creates the file and serves one user exit at a time. A user exit
+ * attaches by writing a new token in the attach request; CDCSource then starts
+ * a new generation with its own positions at 0, writes the token as the
+ * attached token and sends its readiness line on the feedback ring. The user
+ * exit starts its positions at 0 once it sees its token. As a channel, the ring
+ * reads from the data ring and writes to the feedback ring without blocking;
+ * closing it ends the attachment of the current user exit.
+ * </p>
+ */
+public class CDCSharedMemoryRing implements ByteChannel {
+
+	public static final int MAGIC = 0x43444352;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 4096;
+	public static final int FEEDBACK_CAPACITY = 65536;
+
+	public static final int MAGIC_OFFSET = 0;
+	public static final int VERSION_OFFSET = 4;
+	public static final int DATA_CAPACITY_OFFSET = 8;
+	public static final int FEEDBACK_CAPACITY_OFFSET = 16;
+	public static final int ATTACH_REQUEST_OFFSET = 64;
+	public static final int ATTACHED_TOKEN_OFFSET = 128;
+	public static final int DATA_WRITE_OFFSET = 192;
+	public static final int DATA_READ_OFFSET = 256;
+	public static final int FEEDBACK_WRITE_OFFSET = 320;
+	public static final int FEEDBACK_READ_OFFSET = 384;
+	public static final int GENERATION_OFFSET = 448;
+
+	// The generation of the attachment is kept in the upper bits of every
+	// position
+	private static final int GENERATION_SHIFT = 48;
+	private static final long POSITION_MASK = (1L << GENERATION_SHIFT) - 1;
+	private static final long MAX_GENERATION = 0xffff;
+
+	// Idle iterations that only yield before the waiting thread parks
+	static final int YIELD_ITERATIONS = 1000;
+	private static final long PARK_NANOS = 50000;
+
+	private final File file;
+	private final MappedByteBuffer mapping;
+	private final ByteBuffer dataRing;
+	private final ByteBuffer feedbackRing;
+	private final int dataCapacity;
+
+	// Positions of this side, also kept in the header
+	private long dataReadPosition = 0;
+	private long feedbackWritePosition = 0;
+	// Last positions of the user exit seen in the header
+	private long dataWritePosition = 0;
+	private long feedbackReadPosition = 0;
+	private long attachedToken = 0;
+	private long generation;
+
+	// Written before publishing and after observing a position
+	private volatile long fence;
+
+	/**
+	 * Creates (or recreates) the file and initializes the header. A user exit
+	 * that was attached to an earlier incarnation of the file is detached.
+	 *
+	 * @param file
+	 *            File to create
+	 * @param dataCapacity
+	 *            Size of the data ring in bytes
+	 */
+	public CDCSharedMemoryRing(File file, int dataCapacity) throws IOException {
+		this.file = file;
+		this.dataCapacity = dataCapacity;
+		long size = (long) HEADER_SIZE + dataCapacity + FEEDBACK_CAPACITY;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			// The file is never shrunk, as a user exit that still maps it
+			// would fail on pages beyond the end of the file
+			if (randomAccessFile.length() < size)
+				randomAccessFile.setLength(size);
+			// The mapping remains valid after the file has been closed
+			mapping = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			randomAccessFile.close();
+		}
+		mapping.order(ByteOrder.nativeOrder());
+		mapping.position(HEADER_SIZE);
+		mapping.limit(HEADER_SIZE + dataCapacity);
+		dataRing = mapping.slice();
+		mapping.limit(HEADER_SIZE + dataCapacity + FEEDBACK_CAPACITY);
+		mapping.position(HEADER_SIZE + dataCapacity);
+		feedbackRing = mapping.slice();
+		mapping.clear();
+		// Generations continue from an earlier incarnation of the file, whose
+		// user exit may still publish positions
+		generation = (mapping.getInt(MAGIC_OFFSET) == MAGIC) ? mapping.getLong(GENERATION_OFFSET) & MAX_GENERATION : 0;
+		// A user exit attached to an earlier incarnation of the file is
+		// detached before the header is rewritten
+		publish(ATTACHED_TOKEN_OFFSET, 0);
+		mapping.putInt(VERSION_OFFSET, VERSION);
+		mapping.putLong(DATA_CAPACITY_OFFSET, dataCapacity);
+		mapping.putLong(FEEDBACK_CAPACITY_OFFSET, FEEDBACK_CAPACITY);
+		mapping.putLong(GENERATION_OFFSET, generation);
+		mapping.putLong(DATA_WRITE_OFFSET, 0);
+		mapping.putLong(DATA_READ_OFFSET, 0);
+		mapping.putLong(FEEDBACK_WRITE_OFFSET, 0);
+		mapping.putLong(FEEDBACK_READ_OFFSET, 0);
+		mapping.putLong(ATTACH_REQUEST_OFFSET, 0);
+		fence = MAGIC;
+		mapping.putInt(MAGIC_OFFSET, MAGIC);
+	}
+
+	private void publish(int offset, long value) {
+		fence = value;
+		mapping.putLong(offset, value);
+	}
+
+	private long observe(int offset) {
+		long value = mapping.getLong(offset);
+		fence = value;
+		return value;
+	}
+
+	private void publishPosition(int offset, long position) {
+		publish(offset, (generation << GENERATION_SHIFT) | (position & POSITION_MASK));
+	}
+
+	/**
+	 * Returns the position published by the user exit, or the last position
+	 * seen if the published one belongs to another generation.
+	 */
+	private long observePosition(int offset, long lastPosition) {
+		long value = observe(offset);
+		if (value >>> GENERATION_SHIFT != generation)
+			return lastPosition;
+		return lastPosition + ((value - lastPosition) & POSITION_MASK);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the token of the user exit that wants to attach, or 0 if there
+	 * is none.
+	 */
+	public long getAttachRequest() {
+		return observe(ATTACH_REQUEST_OFFSET);
+	}
+
+	/**
+	 * Returns the token of the attached user exit, 0 if none is attached.
+	 */
+	public long getAttachedToken() {
+		return attachedToken;
+	}
+
+	/**
+	 * Accepts the user exit that requested to attach with the given token. The
+	 * rings are emptied by starting a new generation, the user exit starts
+	 * writing once it sees its token.
+	 */
+	public void attach(long token) {
+		generation = generation % MAX_GENERATION + 1;
+		dataReadPosition = 0;
+		feedbackWritePosition = 0;
+		dataWritePosition = 0;
+		feedbackReadPosition = 0;
+		publish(GENERATION_OFFSET, generation);
+		publishPosition(DATA_READ_OFFSET, 0);
+		publishPosition(FEEDBACK_WRITE_OFFSET, 0);
+		attachedToken = token;
+		publish(ATTACHED_TOKEN_OFFSET, token);
+	}
+
+	/**
+	 * Returns the number of bytes in the data ring that have not been read.
+	 */
+	public long getAvailableBytes() {
+		dataWritePosition = observePosition(DATA_WRITE_OFFSET, dataWritePosition);
+		return dataWritePosition - dataReadPosition;
+	}
+
+	/**
+	 * Copies the available bytes of the data ring into the buffer, as far as
+	 * they fit.
+	 *
+	 * @return Number of bytes copied, 0 if the ring is empty
+	 */
+	public int read(ByteBuffer destination) throws IOException {
+		if (attachedToken == 0)
+			return -1;
+		int length = (int) Math.min(getAvailableBytes(), destination.remaining());
+		int copied = 0;
+		while (copied < length) {
+			int offset = (int) ((dataReadPosition + copied) % dataCapacity);
+			int chunk = Math.min(length - copied, dataCapacity - offset);
+			dataRing.limit(offset + chunk).position(offset);
+			destination.put(dataRing);
+			copied += chunk;
+		}
+		if (copied > 0) {
+			dataReadPosition += copied;
+			publishPosition(DATA_READ_OFFSET, dataReadPosition);
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies bytes into the feedback ring, as far as they fit.
+	 *
+	 * @return Number of bytes copied, 0 if the ring is full
+	 */
+	public int write(ByteBuffer source) throws IOException {
+		if (attachedToken == 0)
+			throw new IOException("No user exit attached to " + file);
+		feedbackReadPosition = observePosition(FEEDBACK_READ_OFFSET, feedbackReadPosition);
+		long free = FEEDBACK_CAPACITY - (feedbackWritePosition - feedbackReadPosition);
+		int length = (int) Math.min(free, source.remaining());
+		int copied = 0;
+		while (copied < length) {
+			int offset = (int) ((feedbackWritePosition + copied) % FEEDBACK_CAPACITY);
+			int chunk = Math.min(length - copied, FEEDBACK_CAPACITY - offset);
+			ByteBuffer part = source.duplicate();
+			part.limit(part.position() + chunk);
+			feedbackRing.clear().position(offset);
+			feedbackRing.put(part);
+			source.position(source.position() + chunk);
+			copied += chunk;
+		}
+		if (copied > 0) {
+			feedbackWritePosition += copied;
+			publishPosition(FEEDBACK_WRITE_OFFSET, feedbackWritePosition);
+		}
+		return copied;
+	}
+
+	/**
+	 * Waits briefly for the user exit: yields for the first idle iterations so
+	 * that new records are picked up with the lowest latency, then parks the
+	 * thread between polls.
+	 *
+	 * @param idleIterations
+	 *            Number of consecutive polls that found nothing to do
+	 */
+	public static void idle(int idleIterations) {
+		if (idleIterations < YIELD_ITERATIONS)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(PARK_NANOS);
+	}
+
+	/**
+	 * Returns whether a user exit is attached.
+	 */
+	public boolean isOpen() {
+		return attachedToken != 0;
+	}
+
+	/**
+	 * Ends the attachment of the current user exit, which fails its next
+	 * write.
+	 */
+	public void close() {
+		attachedToken = 0;
+		publish(ATTACHED_TOKEN_OFFSET, 0);
+	}
+}
@@ -1,13 +1,27 @@
 /* Generated by Streams Studio: October 8, 2014 6:07:19 AM EDT */
 package com.ibm.streamsx.cdc;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.log4j.Logger;
 
@@ -19,7 +33,7 @@ import com.ibm.streams.operator.StreamingData.Punctuation;
 import com.ibm.streams.operator.StreamingInput;
 import com.ibm.streams.operator.StreamingOutput;
 import com.ibm.streams.operator.Tuple;
-import com.ibm.streams.operator.Type;
+import com.ibm.streams.operator.meta.TupleType;
 import com.ibm.streams.operator.log4j.TraceLevel;
 import com.ibm.streams.operator.model.Icons;
 import com.ibm.streams.operator.model.InputPortSet;
@@ -55,12 +69,64 @@ import com.ibm.streams.operator.types.RString;
  * concurrently with each other, which lead to these methods being called
  * concurrently by different threads.
  * </p>
+ * <p>
+ * The operator accepts up to maxCon connections from CDCStreams user exits
+ * (subscriptions) on the same port. All connections are served by a single
+ * thread using a selector; the records of every connection are processed in
+ * the order in which they were received and handshakes are acknowledged on the
+ * connection they were received from. If the cdcMetadata tuple has a
+ * txSubscription attribute, it is populated with the identifier of the
+ * subscription that sent the record.
+ * </p>
+ * <p>
+ * Without an input port, handshakes are acknowledged as soon as they are
+ * received, after the preceding records have been submitted. If the operator
+ * has the optional control input port, a handshake is only acknowledged once
+ * it has been confirmed downstream: for every handshake a tuple with the
+ * handshakeSequence (and optionally the txSubscription) is submitted on the
+ * second output port, after the tuples of the preceding records. Once the
+ * downstream operators have processed those tuples, the handshake tuple is
+ * sent to the control port, which acknowledges the handshake and all earlier
+ * handshakes of the subscription to the user exit.
+ * </p>
+ * <p>
+ * With a creditWindow, user exits that support it may send at most that many
+ * data records beyond the records that have been submitted or, with the
+ * control port, confirmed. The user exit waits for more credit instead of
+ * piling up records in the socket buffers while Streams applies backpressure.
+ * </p>
+ * <p>
+ * When the connection of a user exit that can resume its session is lost, the
+ * operator keeps the state of the session and the position of the last record
+ * it processed. The user exit reconnects, and continues the session from that
+ * position, so that no record is submitted twice or skipped.
+ * </p>
+ * <p>
+ * With the mmapFile parameter, the operator does not listen on a port but
+ * creates a memory-mapped file holding a ring to which a user exit on the same
+ * host writes its records, and a smaller ring for the feedback. The ring is
+ * polled by the thread that would otherwise serve the connections, so records
+ * are picked up without a system call or a copy through the kernel; the
+ * protocol, including the handshakes, is the same as over TCP. One user exit is
+ * attached at a time.
+ * </p>
+ * <p>
+ * With the inputFile parameter, the operator reads the records from a named
+ * pipe written by a user exit with outputType namedpipe, or from a file in
+ * which such records were captured, and submits the same tuples and window
+ * markers as for a connection. A file is read from the start with large reads,
+ * which replays captured changes at full speed; at its end a final marker is
+ * submitted, unless the operator follows the file as it grows. Handshakes are
+ * counted, but cannot be acknowledged as there is no way back to the user
+ * exit.
+ * </p>
  */
 @PrimitiveOperator(name = "CDCSource", namespace = "com.ibm.streamsx.cdc", description = "Java Operator CDCSource")
 @InputPorts({
-		@InputPortSet(description = "Optional input ports", optional = true, controlPort = true, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
+		@InputPortSet(description = "Optional control port that receives the confirmations of handshakes", cardinality = 1, optional = true, controlPort = true, windowingMode = WindowMode.NonWindowed, windowPunctuationInputMode = WindowPunctuationInputMode.Oblivious) })
 @OutputPorts({
-		@OutputPortSet(description = "Port that produces tuples", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating) })
+		@OutputPortSet(description = "Port that produces tuples", cardinality = 1, optional = false, windowPunctuationOutputMode = WindowPunctuationOutputMode.Generating),
+		@OutputPortSet(description = "Optional port that produces a tuple for every handshake that must be confirmed through the control port", cardinality = 1, optional = true, windowPunctuationOutputMode = WindowPunctuationOutputMode.Free) })
 @Icons(location16 = "icons/CDCSource_16x16.png", location32 = "icons/CDCSource_32x32.png")
 public class CDCSource extends AbstractOperator {
 
@@ -68,14 +134,60 @@ public class CDCSource extends AbstractOperator {
 
 	protected OperatorContext operatorContext;
 
-	protected ServerSocket serverSocket;
-	protected Socket connectionSocket;
-	protected BufferedReader fromClient;
-	protected PrintWriter toClient;
+	protected ServerSocketChannel serverChannel;
+	protected Selector selector;
+	protected List<CDCConnection> connections = new ArrayList<CDCConnection>();
+	// Sessions of lost connections that can be resumed, the oldest are
+	// discarded once there are more than maxCon
+	protected Map<String, CDCConnection> suspendedSessions = new LinkedHashMap<String, CDCConnection>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CDCConnection> eldest) {
+			return size() > maxCon;
+		}
+	};
+	protected StreamSchema metadataSchema;
+	protected CDCSourceMetrics metrics;
+
+	// Names of the metadata attributes populated from fields 1 to 5 of a
+	// data record
+	private static final String[] METADATA_ATTRIBUTES = { "txTableName", "txTimestamp", "txId", "txEntryType",
+			"txUser" };
+	// Indexes of the attributes in the output and metadata tuples, resolved
+	// during initialization; -1 if the attribute is not defined
+	private int metadataAttributeIndex;
+	private int dataAttributeIndex;
+	private int[] metadataFieldIndexes = new int[METADATA_ATTRIBUTES.length];
+	private int subscriptionIndex;
+	// Values of the metadata tuple, reused for every data record
+	private java.lang.Object[] metadataValues;
+	// Indexes of the attributes of the handshake and confirmation tuples
+	private int handshakeSequenceIndex;
+	private int handshakeSubscriptionIndex;
+	private int confirmationSequenceIndex;
+	private int confirmationSubscriptionIndex;
+	// Confirmations received on the control port, processed by the thread
+	// that serves the connections
+	private final ConcurrentLinkedQueue<HandshakeConfirmation> confirmations = new ConcurrentLinkedQueue<HandshakeConfirmation>();
+
+	/**
+	 * Handshake confirmation received on the control port; without a
+	 * subscription it applies to all connections.
+	 */
+	private static class HandshakeConfirmation {
+		final String subscription;
+		final long sequence;
+
+		HandshakeConfirmation(String subscription, long sequence) {
+			this.subscription = subscription;
+			this.sequence = sequence;
+		}
+	}
 
 	protected int port = 1324;
 
-	@Parameter(description = "Port to listen", name = "port", optional = false)
+	@Parameter(description = "Port to listen, required unless mmapFile or inputFile is specified", name = "port", optional = true)
 	public void setPort(int port) {
 		this.port = port;
 	}
@@ -86,7 +198,7 @@ public class CDCSource extends AbstractOperator {
 
 	protected int maxCon = 1;
 
-	@Parameter(description = "Maximum number of connection", name = "maxCon", optional = true)
+	@Parameter(description = "Maximum number of concurrent connections (subscriptions)", name = "maxCon", optional = true)
 	public void setMaxCon(int maxCon) {
 		this.maxCon = maxCon;
 	}
@@ -106,22 +218,193 @@ public class CDCSource extends AbstractOperator {
 		return metadataSeparator;
 	}
 
+	protected int creditWindow = 0;
+
+	@Parameter(description = "Maximum number of data records a user exit may send beyond the records that have been submitted or, with a control port, confirmed; 0 (the default) does not limit the user exits", name = "creditWindow", optional = true)
+	public void setCreditWindow(int creditWindow) {
+		this.creditWindow = creditWindow;
+	}
+
+	public int getCreditWindow() {
+		return creditWindow;
+	}
+
+	protected String mmapFile = null;
+
+	@Parameter(description = "Memory-mapped file through which a user exit on the same host sends its records instead of connecting to the port; the operator creates the file and serves one user exit at a time", name = "mmapFile", optional = true)
+	public void setMmapFile(String mmapFile) {
+		this.mmapFile = mmapFile;
+	}
+
+	public String getMmapFile() {
+		return mmapFile;
+	}
+
+	protected int mmapRingBytes = 16 * 1024 * 1024;
+
+	@Parameter(description = "Size in bytes of the ring in the mmapFile that holds the records sent by the user exit, 16777216 (16 MB) by default", name = "mmapRingBytes", optional = true)
+	public void setMmapRingBytes(int mmapRingBytes) {
+		this.mmapRingBytes = mmapRingBytes;
+	}
+
+	public int getMmapRingBytes() {
+		return mmapRingBytes;
+	}
+
+	// Smallest ring accepted for the mmapFile
+	private static final int MIN_RING_BYTES = 65536;
+
+	protected CDCSharedMemoryRing ring;
+
+	protected String inputFile = null;
+
+	@Parameter(description = "Named pipe or file from which the records written by a user exit with outputType namedpipe are read instead of listening on the port; a file is read from the start, which replays the captured changes", name = "inputFile", optional = true)
+	public void setInputFile(String inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	public String getInputFile() {
+		return inputFile;
+	}
+
+	protected boolean followInputFile = false;
+
+	@Parameter(description = "Whether to keep reading a regular inputFile as it grows when its end has been reached, instead of submitting a final marker; named pipes are always followed. Default is false", name = "followInputFile", optional = true)
+	public void setFollowInputFile(boolean followInputFile) {
+		this.followInputFile = followInputFile;
+	}
+
+	public boolean getFollowInputFile() {
+		return followInputFile;
+	}
+
+	protected int inputBufferBytes = 4 * 1024 * 1024;
+
+	@Parameter(description = "Size in bytes of the reads from the inputFile, 4194304 (4 MB) by default", name = "inputBufferBytes", optional = true)
+	public void setInputBufferBytes(int inputBufferBytes) {
+		this.inputBufferBytes = inputBufferBytes;
+	}
+
+	public int getInputBufferBytes() {
+		return inputBufferBytes;
+	}
+
+	// Time to wait before reading a followed inputFile again once its end has
+	// been reached
+	private static final long FOLLOW_POLL_MS = 10;
+
+	protected FileChannel inputChannel;
+	protected boolean inputIsPipe;
+
 	protected boolean hasInputPort;
+
+	// Time shutdown() waits for the thread that serves the connections to end
+	private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
 	/**
 	 * Thread for calling <code>produceTuples()</code> to produce tuples
 	 */
 	private Thread processThread;
 
-	protected void WaitForClient() throws Exception {
-		if (serverSocket == null)
-			serverSocket = new ServerSocket(port);
-		connectionSocket = serverSocket.accept();
-		LOGGER.log(TraceLevel.TRACE,
-				"New Client connected : " + connectionSocket.getInetAddress() + ":" + connectionSocket.getPort());
-		toClient = new PrintWriter(connectionSocket.getOutputStream(), true);
-		fromClient = new BufferedReader(new InputStreamReader(connectionSocket.getInputStream()));
-		toClient.println("i" + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date()));
-		toClient.flush();
+	/**
+	 * Opens the server channel on which the user exits connect and registers
+	 * it with the selector.
+	 */
+	protected void openServerChannel() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Opens the inputFile. A named pipe is opened for reading and writing,
+	 * which does not wait for a writer and does not reach the end of the
+	 * stream when the user exit closes the pipe; the records of a restarted
+	 * subscription are read from the same channel.
+	 */
+	protected void openInputFile() throws Exception {
+		Path path = Paths.get(inputFile);
+		if (!Files.exists(path) || Files.isDirectory(path))
+			throw new Exception("Input file " + inputFile + " of the CDCSource operator does not exist.");
+		inputIsPipe = !Files.isRegularFile(path);
+		if (inputIsPipe)
+			inputChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		else
+			inputChannel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	/**
+	 * Reports readiness to the user exit of a new connection, listing the
+	 * capabilities of this operator so that the user exit can choose the
+	 * protocol.
+	 */
+	private void sendReadiness(CDCConnection connection, String capabilities) throws IOException {
+		connection.sendFeedback("i" + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date())
+				+ metadataSeparator + capabilities
+				+ (creditWindow > 0 ? CDCProtocol.OPTION_SEPARATOR + CDCProtocol.OPTION_CREDIT : ""));
+	}
+
+	/**
+	 * Accepts a new connection if the maximum number of connections has not
+	 * been reached and reports readiness to the user exit.
+	 */
+	protected void acceptClient() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+			return;
+		if (connections.size() >= maxCon) {
+			LOGGER.log(TraceLevel.WARN, "Connection from " + channel.socket().getInetAddress()
+					+ " refused, the maximum number of connections (" + maxCon + ") has been reached");
+			channel.close();
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		CDCConnection connection = new CDCConnection(channel, key, metadataSeparator);
+		key.attach(connection);
+		connections.add(connection);
+		LOGGER.log(TraceLevel.TRACE, "New Client connected : " + connection.getRemoteAddress() + ", "
+				+ connections.size() + " of maximum " + maxCon + " connections in use");
+		sendReadiness(connection, CDCProtocol.CAPABILITIES);
+	}
+
+	/**
+	 * Accepts the user exit that requested to attach to the shared memory ring
+	 * and reports readiness to it.
+	 */
+	private CDCConnection attachClient(long token) throws IOException {
+		ring.attach(token);
+		CDCConnection connection = new CDCConnection(ring, metadataSeparator);
+		connections.add(connection);
+		LOGGER.log(TraceLevel.TRACE, "New Client attached to " + connection.getRemoteAddress());
+		sendReadiness(connection, CDCProtocol.SHARED_MEMORY_CAPABILITIES);
+		return connection;
+	}
+
+	/**
+	 * Closes a connection after the user exit disconnected or sent invalid
+	 * data. A window marker is submitted as the last transaction of the
+	 * subscription may not have been completed.
+	 */
+	protected void closeClient(CDCConnection connection) throws Exception {
+		LOGGER.log(TraceLevel.TRACE, "Client " + connection.getRemoteAddress() + " (subscription "
+				+ connection.getSubscription() + ") disconnected");
+		if (connection.getReader().getPendingBytes() > 0)
+			LOGGER.log(TraceLevel.WARN, "Incomplete record of " + connection.getReader().getPendingBytes()
+					+ " bytes discarded for subscription " + connection.getSubscription());
+		connection.close();
+		connections.remove(connection);
+		if (connection.getSessionId() != null && !connection.isFinalized()) {
+			LOGGER.log(TraceLevel.TRACE, "Session " + connection.getSessionId() + " of subscription "
+					+ connection.getSubscription() + " can be resumed at position " + connection.getStreamPosition());
+			suspendedSessions.put(connection.getSessionId(), connection);
+		}
+		getOutput(0).punctuate(Punctuation.WINDOW_MARKER);
+		metrics.commitsPunctuated++;
 	}
 
 	/**
@@ -139,7 +422,13 @@ public class CDCSource extends AbstractOperator {
 		this.operatorContext = operatorContext;
 		LOGGER.log(TraceLevel.TRACE, "Operator " + operatorContext.getName() + " initializing in PE: "
 				+ operatorContext.getPE().getPEId() + " in Job: " + operatorContext.getPE().getJobId());
-		LOGGER.log(TraceLevel.TRACE, "Operator " + operatorContext.getName() + " listening at port number " + port);
+		if (inputFile != null)
+			LOGGER.log(TraceLevel.TRACE, "Operator " + operatorContext.getName() + " reading from " + inputFile);
+		else if (mmapFile != null)
+			LOGGER.log(TraceLevel.TRACE, "Operator " + operatorContext.getName() + " reading from memory-mapped file "
+					+ mmapFile);
+		else
+			LOGGER.log(TraceLevel.TRACE, "Operator " + operatorContext.getName() + " listening at port number " + port);
 		// Check if the CDCSource operator has an input port
 		hasInputPort = !operatorContext.getStreamingInputs().isEmpty();
 		// Get the output schema
@@ -154,8 +443,61 @@ public class CDCSource extends AbstractOperator {
 		}
 		outputTuple += ">";
 		LOGGER.log(TraceLevel.TRACE, "Output tuple for CDCSource operator is " + outputTuple);
-		// Start listening on the specified port
-		WaitForClient();
+		// The metadata tuple is built according to the type of the cdcMetadata
+		// attribute, which may include the txSubscription attribute. Resolve
+		// the attributes once so that records are processed by index.
+		metadataAttributeIndex = outputSchema.getAttributeIndex("cdcMetadata");
+		dataAttributeIndex = outputSchema.getAttributeIndex("data");
+		if (metadataAttributeIndex < 0 || dataAttributeIndex < 0)
+			throw new Exception("The output port of the CDCSource operator must have the cdcMetadata and data"
+					+ " attributes, for example by using the cdcDataT type.");
+		metadataSchema = ((TupleType) outputSchema.getAttribute(metadataAttributeIndex).getType()).getTupleSchema();
+		for (int i = 0; i < METADATA_ATTRIBUTES.length; i++)
+			metadataFieldIndexes[i] = metadataSchema.getAttributeIndex(METADATA_ATTRIBUTES[i]);
+		subscriptionIndex = metadataSchema.getAttributeIndex("txSubscription");
+		metadataValues = new java.lang.Object[metadataSchema.getAttributeCount()];
+		// Attributes that are not populated by CDCSource remain empty
+		for (int i = 0; i < metadataValues.length; i++)
+			metadataValues[i] = new RString("");
+		if (maxCon < 1)
+			throw new Exception("Parameter maxCon must be at least 1 in the CDCSource operator.");
+		if (creditWindow < 0)
+			throw new Exception("Parameter creditWindow must not be negative in the CDCSource operator.");
+		if (mmapFile != null && mmapRingBytes < MIN_RING_BYTES)
+			throw new Exception("Parameter mmapRingBytes must be at least " + MIN_RING_BYTES
+					+ " in the CDCSource operator.");
+		if (inputFile != null && mmapFile != null)
+			throw new Exception("Parameters inputFile and mmapFile cannot both be specified in the CDCSource operator.");
+		if (inputFile != null && inputBufferBytes < 1)
+			throw new Exception("Parameter inputBufferBytes must be at least 1 in the CDCSource operator.");
+		// Handshakes confirmed through the control port are passed downstream
+		// on the second output port
+		if (hasInputPort) {
+			if (operatorContext.getNumberOfStreamingOutputs() < 2)
+				throw new Exception("A CDCSource operator with a control port must have a second output port on"
+						+ " which the handshakes to be confirmed are submitted.");
+			StreamSchema handshakeSchema = operatorContext.getStreamingOutputs().get(1).getStreamSchema();
+			StreamSchema confirmationSchema = operatorContext.getStreamingInputs().get(0).getStreamSchema();
+			handshakeSequenceIndex = handshakeSchema.getAttributeIndex("handshakeSequence");
+			handshakeSubscriptionIndex = handshakeSchema.getAttributeIndex("txSubscription");
+			confirmationSequenceIndex = confirmationSchema.getAttributeIndex("handshakeSequence");
+			confirmationSubscriptionIndex = confirmationSchema.getAttributeIndex("txSubscription");
+			if (handshakeSequenceIndex < 0 || confirmationSequenceIndex < 0)
+				throw new Exception("The second output port and the control port of the CDCSource operator must"
+						+ " have an int64 handshakeSequence attribute.");
+			LOGGER.log(TraceLevel.TRACE, "Handshakes will be acknowledged once confirmed on the control port");
+		}
+		// Register the custom metrics, which are published by the processing
+		// thread
+		metrics = new CDCSourceMetrics(operatorContext.getMetrics());
+		// Open the input file, create the shared memory ring or start listening
+		// on the specified port
+		if (inputFile != null)
+			openInputFile();
+		else if (mmapFile != null)
+			ring = new CDCSharedMemoryRing(new File(mmapFile), mmapRingBytes);
+		else
+			openServerChannel();
 		/*
 		 * Create the thread for producing tuples. The thread is created at
 		 * initialize time but started. The thread will be started by
@@ -206,76 +548,427 @@ public class CDCSource extends AbstractOperator {
 	 *             if an error occurs while submitting a tuple
 	 */
 	private void produceTuples() throws Exception {
-		final StreamingOutput<OutputTuple> out = getOutput(0);
-		String messageReceived;
-		while (true) {
+		try {
+			final StreamingOutput<OutputTuple> out = getOutput(0);
+			if (inputChannel != null)
+				readInputFile(out);
+			else if (ring != null)
+				serveRing(out);
+			else
+				serveSockets(out);
+		} finally {
+			// The connections are only used by this thread, which closes them
+			// when it ends
+			for (CDCConnection connection : connections)
+				connection.close();
+			connections.clear();
+		}
+	}
 
-			messageReceived = null;
+	/**
+	 * Serves the connections of the user exits through the selector.
+	 */
+	private void serveSockets(StreamingOutput<OutputTuple> out) throws Exception {
+		while (!Thread.currentThread().isInterrupted()) {
+			long waitStart = System.nanoTime();
 			try {
-				messageReceived = fromClient.readLine();
-			} catch (IOException ignore) {
-			}
-			if (messageReceived == null) {
-				connectionSocket.close();
-				super.getOutput(0).punctuate(Punctuation.WINDOW_MARKER);
-				WaitForClient();
-				continue;
-			}
-			// Get the metadata from the received string and populate the output
-			// tuple
-			String[] messageContent = messageReceived.split(metadataSeparator);
-			char recordType = messageContent[0].charAt(0);
-			StreamSchema metadataSchema = Type.Factory.getStreamSchema(
-					"tuple<rstring txTableName,rstring txTimestamp,rstring txId, rstring txEntryType, rstring txUser>");
-
-			// Now populate the data
-			switch (recordType) {
-			case 'd':// Data
-				LOGGER.log(TraceLevel.TRACE, "Data record received");
-				OutputTuple cdcDataTuple = out.newTuple();
-				java.lang.Object[] metadataArray = { new RString(messageContent[1]), new RString(messageContent[2]),
-						new RString(messageContent[3]), new RString(messageContent[4]),
-						new RString(messageContent[5]) };
-				Tuple cdcMetadata = metadataSchema.getTuple(metadataArray);
-				cdcDataTuple.setTuple("cdcMetadata", cdcMetadata);
-				// tuple.setString("txId", messageContent[3]);
-				// tuple.setString("txEntryType", messageContent[4]);
-				// tuple.setString("txUser", messageContent[5]);
-				cdcDataTuple.setString("data", messageContent[6]);
-				out.submit(cdcDataTuple);
-				break;
-			case 'c':// Commit
-				LOGGER.log(TraceLevel.TRACE, "Commit record received");
-				out.punctuate(Punctuation.WINDOW_MARKER);
+				selector.select();
+			} catch (ClosedSelectorException e) {
 				break;
-			case 'i':// Initialize
-				LOGGER.log(TraceLevel.TRACE, "Initialization tuple received");
-				// out.submit(cdcDataTuple);
-				break;
-			case 'f':// Final
-				LOGGER.log(TraceLevel.TRACE, "Final tuple received");
+			}
+			// The selector is closed by shutdown()
+			if (!selector.isOpen())
 				break;
-			case 'h':// Handshake
-				LOGGER.log(TraceLevel.TRACE, "Handshake received");
-				if (!hasInputPort) {
-					toClient.println(messageReceived + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date()));
-					toClient.flush();
+			metrics.addReadWaitTime(System.nanoTime() - waitStart);
+			Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+			while (selectedKeys.hasNext()) {
+				SelectionKey key = selectedKeys.next();
+				selectedKeys.remove();
+				if (!key.isValid())
+					continue;
+				if (key.isAcceptable()) {
+					acceptClient();
+					continue;
 				}
-				// TODO: If there is an input port, wait until one of the
-				// downstream operators has confirmed and only then send the
-				// confirmation back to the CDC user exit to commit the
-				// bookmkark
-				break;
+				CDCConnection connection = (CDCConnection) key.attachment();
+				try {
+					if (key.isWritable())
+						connection.flushFeedback();
+					if (key.isReadable()) {
+						long readStart = System.nanoTime();
+						int bytesRead = connection.read();
+						long processStart = System.nanoTime();
+						metrics.addReadWaitTime(processStart - readStart);
+						if (bytesRead > 0)
+							metrics.bytesReceived += bytesRead;
+						while (connection.getReader().next())
+							processRecord(connection, out);
+						if (!hasInputPort)
+							grantCredit(connection, connection.getDataRecords());
+						metrics.addSubmitTime(System.nanoTime() - processStart);
+						if (bytesRead < 0)
+							closeClient(connection);
+					}
+				} catch (IOException e) {
+					LOGGER.log(TraceLevel.ERROR, "Error while reading from client " + connection.getRemoteAddress()
+							+ " (subscription " + connection.getSubscription() + "): " + e.getMessage());
+					closeClient(connection);
+				}
+			}
+			processConfirmations();
+			metrics.publish(connections.size());
+		}
+	}
+
+	/**
+	 * Serves the user exit attached to the shared memory ring. The ring is
+	 * polled: the thread yields while the user exit is active and only parks
+	 * between polls once nothing has arrived for a while, so that records are
+	 * picked up with the lowest latency.
+	 * <p>
+	 * A user exit attaches by writing a new token in the attach request and
+	 * detaches by clearing it; the records it wrote before detaching are still
+	 * processed. A user exit whose connection was closed by this operator is
+	 * not attached again until it requests so with a new token.
+	 * </p>
+	 */
+	private void serveRing(StreamingOutput<OutputTuple> out) throws Exception {
+		CDCConnection connection = null;
+		long servedToken = 0;
+		int idleIterations = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			boolean busy = false;
+			long request = ring.getAttachRequest();
+			try {
+				if (connection != null && request != servedToken) {
+					while (readRing(connection, out) > 0)
+						;
+					closeClient(connection);
+					connection = null;
+				}
+				if (connection == null && request != 0 && request != servedToken) {
+					servedToken = request;
+					connection = attachClient(request);
+					busy = true;
+				}
+				if (connection != null) {
+					busy |= readRing(connection, out) > 0;
+					if (connection.hasPendingFeedback())
+						connection.flushFeedback();
+				}
+			} catch (IOException e) {
+				if (connection == null)
+					throw e;
+				LOGGER.log(TraceLevel.ERROR, "Error while reading from client " + connection.getRemoteAddress()
+						+ " (subscription " + connection.getSubscription() + "): " + e.getMessage());
+				closeClient(connection);
+			}
+			processConfirmations();
+			// The connection may have been closed while processing
+			if (connection != null && !connections.contains(connection))
+				connection = null;
+			if (busy) {
+				idleIterations = 0;
+				metrics.publish(connections.size());
+			} else {
+				long waitStart = System.nanoTime();
+				CDCSharedMemoryRing.idle(idleIterations);
+				metrics.addReadWaitTime(System.nanoTime() - waitStart);
+				// The wait time is published once the thread starts parking
+				if (idleIterations == CDCSharedMemoryRing.YIELD_ITERATIONS)
+					metrics.publish(connections.size());
+				if (idleIterations <= CDCSharedMemoryRing.YIELD_ITERATIONS)
+					idleIterations++;
+			}
+		}
+	}
+
+	/**
+	 * Reads the records from the inputFile and processes them as if they were
+	 * received on a connection. Reads from a named pipe block until the user
+	 * exit writes; a followed file is polled once its end has been reached. At
+	 * the end of a file that is not followed, the connection is closed, which
+	 * submits a window marker, and a final marker is submitted so that the
+	 * downstream operators complete the replay.
+	 */
+	private void readInputFile(StreamingOutput<OutputTuple> out) throws Exception {
+		CDCConnection connection = new CDCConnection(inputChannel, inputFile, inputBufferBytes, metadataSeparator);
+		connections.add(connection);
+		LOGGER.log(TraceLevel.TRACE, "Reading records from " + (inputIsPipe ? "named pipe " : "file ") + inputFile);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long readStart = System.nanoTime();
+				int bytesRead = connection.read();
+				long processStart = System.nanoTime();
+				metrics.addReadWaitTime(processStart - readStart);
+				if (bytesRead > 0) {
+					metrics.bytesReceived += bytesRead;
+					while (connection.getReader().next())
+						processRecord(connection, out);
+					metrics.addSubmitTime(System.nanoTime() - processStart);
+				} else if (inputIsPipe || followInputFile) {
+					Thread.sleep(FOLLOW_POLL_MS);
+					metrics.addReadWaitTime(System.nanoTime() - processStart);
+				} else
+					break;
+				processConfirmations();
+				metrics.publish(connections.size());
+			}
+		} catch (ClosedByInterruptException e) {
+			// The operator is shutting down
+			return;
+		} catch (InterruptedException e) {
+			return;
+		} catch (IOException e) {
+			LOGGER.log(TraceLevel.ERROR, "Error while reading from " + inputFile + ": " + e.getMessage());
+			closeClient(connection);
+			return;
+		}
+		if (Thread.currentThread().isInterrupted())
+			return;
+		LOGGER.log(TraceLevel.INFO, "End of file " + inputFile + " reached after " + metrics.bytesReceived + " bytes");
+		closeClient(connection);
+		metrics.publish(connections.size());
+		out.punctuate(Punctuation.FINAL_MARKER);
+	}
+
+	/**
+	 * Reads the bytes that are available in the shared memory ring and
+	 * processes the complete records.
+	 *
+	 * @return Number of bytes read
+	 */
+	private int readRing(CDCConnection connection, StreamingOutput<OutputTuple> out) throws Exception {
+		long processStart = System.nanoTime();
+		int bytesRead = connection.read();
+		if (bytesRead <= 0)
+			return 0;
+		metrics.bytesReceived += bytesRead;
+		while (connection.getReader().next())
+			processRecord(connection, out);
+		if (!hasInputPort)
+			grantCredit(connection, connection.getDataRecords());
+		metrics.addSubmitTime(System.nanoTime() - processStart);
+		return bytesRead;
+	}
+
+	/**
+	 * Acknowledges the handshakes that have been confirmed on the control port
+	 * and grants the user exits credit for the confirmed records.
+	 */
+	private void processConfirmations() throws Exception {
+		HandshakeConfirmation confirmation;
+		while ((confirmation = confirmations.poll()) != null) {
+			for (CDCConnection connection : new ArrayList<CDCConnection>(connections)) {
+				if (confirmation.subscription != null && !confirmation.subscription.equals(connection.getSubscription()))
+					continue;
+				try {
+					metrics.handshakesAnswered += connection.confirmHandshakes(confirmation.sequence);
+					grantCredit(connection, connection.getConfirmedDataRecords());
+				} catch (IOException e) {
+					LOGGER.log(TraceLevel.ERROR, "Error while acknowledging handshake to client "
+							+ connection.getRemoteAddress() + " (subscription " + connection.getSubscription()
+							+ "): " + e.getMessage());
+					closeClient(connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extends the credit of a user exit that asked for credit to the creditWindow
+	 * beyond the records that have been submitted or confirmed. New credit is
+	 * only sent once a quarter of the window has been used, to limit the
+	 * feedback traffic.
+	 *
+	 * @param connection
+	 *            Connection of the user exit
+	 * @param processedDataRecords
+	 *            Number of data records of the connection that have been
+	 *            submitted or confirmed
+	 */
+	private void grantCredit(CDCConnection connection, long processedDataRecords) throws IOException {
+		if (creditWindow == 0 || !connection.isCreditRequested())
+			return;
+		long limit = processedDataRecords + creditWindow;
+		if (limit - connection.getGrantedCredit() >= Math.max(1, creditWindow / 4)) {
+			connection.grantCredit(limit);
+			metrics.creditGrants++;
+		}
+	}
 
-			default:
-				LOGGER.log(TraceLevel.ERROR,
-						"Invalid record received; unexpected number of elements (" + messageContent.length
-								+ "). There are probably carriage returns or line feeds in the data. Review the data and consider "
-								+ "using the fixColumns parameter for the user exit to remove the CR/LF and separator characters. "
-								+ "Data received: " + messageReceived);
-				throw new Exception("Unexpected number of elements in data record");
+	/**
+	 * Processes a record received from a user exit.
+	 * 
+	 * @param connection
+	 *            Connection the record was received from
+	 * @param out
+	 *            Output port
+	 * @throws IOException
+	 *             if the record is invalid, the connection must then be closed
+	 * @throws Exception
+	 *             if an error occurs while submitting a tuple
+	 */
+	private void processRecord(CDCConnection connection, StreamingOutput<OutputTuple> out) throws Exception {
+		CDCRecordReader fromClient = connection.getReader();
+		// Get the metadata from the received record and populate the output
+		// tuple
+		char recordType = fromClient.getType();
+
+		// Now populate the data
+		switch (recordType) {
+		case 'd':// Data
+			LOGGER.log(TraceLevel.TRACE, "Data record received");
+			submitData(fromClient, connection.getSubscriptionRString(), out);
+			connection.dataRecordSubmitted();
+			metrics.dataRecords++;
+			break;
+		case 'c':// Commit
+			LOGGER.log(TraceLevel.TRACE, "Commit record received");
+			metrics.commitReceived(fromClient.getMetadataField(2));
+			out.punctuate(Punctuation.WINDOW_MARKER);
+			metrics.commitsPunctuated++;
+			break;
+		case 'i':// Initialize
+			LOGGER.log(TraceLevel.TRACE, "Initialization tuple received");
+			metrics.initializeRecords++;
+			// The options chosen by the user exit determine the protocol
+			// of the records that follow
+			String options = fromClient.getField(3);
+			fromClient.setBinary(CDCProtocol.hasOption(options, CDCProtocol.OPTION_BINARY));
+			fromClient.setEscaped(CDCProtocol.hasOption(options, CDCProtocol.OPTION_ESCAPE));
+			if (CDCProtocol.hasOption(options, CDCProtocol.OPTION_DEFLATE))
+				fromClient.startInflating();
+			connection.setCreditRequested(CDCProtocol.hasOption(options, CDCProtocol.OPTION_CREDIT));
+			// User exits that identify their subscription send it after the
+			// options
+			if (!fromClient.getField(4).isEmpty())
+				connection.setSubscription(fromClient.getField(4));
+			LOGGER.log(TraceLevel.TRACE, "Client " + connection.getRemoteAddress() + " (subscription "
+					+ connection.getSubscription() + ") will send records using the "
+					+ (fromClient.isBinary() ? "binary" : "text") + " protocol"
+					+ (fromClient.isEscaped() ? " with escaped data" : "")
+					+ (fromClient.isInflating() ? ", compressed" : "")
+					+ (connection.isCreditRequested() ? ", limited by a credit of " + creditWindow + " records" : ""));
+			if (CDCProtocol.hasOption(options, CDCProtocol.OPTION_RESUME))
+				resumeSession(connection, fromClient.getField(5), fromClient.getField(6));
+			grantCredit(connection, hasInputPort ? connection.getConfirmedDataRecords() : connection.getDataRecords());
+			break;
+		case 'f':// Final
+			LOGGER.log(TraceLevel.TRACE, "Final tuple received");
+			metrics.finalizeRecords++;
+			connection.setFinalized(true);
+			break;
+		case 'k':// Heartbeat
+			LOGGER.log(TraceLevel.TRACE, "Heartbeat received");
+			metrics.heartbeatRecords++;
+			break;
+		case 'h':// Handshake
+			LOGGER.log(TraceLevel.TRACE, "Handshake received");
+			metrics.handshakeRecords++;
+			if (!hasInputPort) {
+				// Handshakes read from a named pipe or file cannot be answered
+				if (connection.hasFeedbackChannel()) {
+					connection.acknowledgeHandshake(fromClient.getRecord());
+					metrics.handshakesAnswered++;
+				}
+			} else {
+				// The handshake is acknowledged once the downstream operators
+				// have processed the tuples submitted before it and confirmed
+				// it on the control port
+				long sequence = connection.getHandshakeSequence(fromClient.getField(3));
+				connection.addPendingHandshake(sequence, fromClient.getRecord());
+				StreamingOutput<OutputTuple> handshakeOut = getOutput(1);
+				OutputTuple handshakeTuple = handshakeOut.newTuple();
+				handshakeTuple.setLong(handshakeSequenceIndex, sequence);
+				if (handshakeSubscriptionIndex >= 0)
+					handshakeTuple.setObject(handshakeSubscriptionIndex, connection.getSubscriptionRString());
+				handshakeOut.submit(handshakeTuple);
 			}
+			break;
+
+		default:
+			LOGGER.log(TraceLevel.ERROR,
+					"Invalid record received; unexpected number of elements (" + fromClient.getFieldCount()
+							+ "). There are probably carriage returns or line feeds in the data. Review the data and consider "
+							+ "using the fixColumns parameter for the user exit to remove the CR/LF and separator characters. "
+							+ "Data received: " + fromClient.getRecord());
+			throw new IOException("Unexpected number of elements in data record");
+		}
+	}
+
+	/**
+	 * Starts or resumes the session of a user exit that can resume, and
+	 * reports the stream position at which the user exit must continue
+	 * sending. A session is resumed at the position after the last record
+	 * processed for it; an unknown session starts at the position of the last
+	 * handshake acknowledged to the user exit.
+	 * 
+	 * @param connection
+	 *            Connection that sent the initialization record
+	 * @param sessionId
+	 *            Session of the user exit
+	 * @param acknowledgedPosition
+	 *            Stream position of the last acknowledged handshake
+	 * @throws Exception
+	 *             if the position is invalid or an error occurs while
+	 *             closing a connection of the same session
+	 */
+	private void resumeSession(CDCConnection connection, String sessionId, String acknowledgedPosition)
+			throws Exception {
+		long position;
+		try {
+			position = acknowledgedPosition.isEmpty() ? 0 : Long.parseLong(acknowledgedPosition);
+		} catch (NumberFormatException e) {
+			throw new Exception("Invalid stream position " + acknowledgedPosition + " in initialization record");
+		}
+		// The user exit may detect that its connection is lost before this
+		// operator does
+		for (CDCConnection active : new ArrayList<CDCConnection>(connections)) {
+			if (active != connection && sessionId.equals(active.getSessionId()))
+				closeClient(active);
+		}
+		CDCConnection previous = suspendedSessions.remove(sessionId);
+		if (previous != null) {
+			position = previous.getStreamPosition();
+			connection.resume(previous);
+			metrics.sessionsResumed++;
+			LOGGER.log(TraceLevel.INFO, "Client " + connection.getRemoteAddress() + " resumed session " + sessionId
+					+ " of subscription " + connection.getSubscription() + " at position " + position);
+		}
+		connection.startStream(sessionId, position);
+		connection.sendFeedback(CDCProtocol.RESUME + metadataSeparator + Utility.ISO_DATEFORMAT.format(new Date())
+				+ metadataSeparator + position);
+		connection.resendLastAcknowledgement();
+	}
+
+	/**
+	 * Builds the tuple for the data record that is current in the reader and
+	 * submits it.
+	 * 
+	 * @param fromClient
+	 *            Reader positioned on a data record
+	 * @param subscription
+	 *            Identifier of the subscription that sent the record
+	 * @param out
+	 *            Output port
+	 * @throws Exception
+	 *             if an error occurs while submitting the tuple
+	 */
+	protected void submitData(CDCRecordReader fromClient, RString subscription, StreamingOutput<OutputTuple> out)
+			throws Exception {
+		OutputTuple cdcDataTuple = out.newTuple();
+		for (int i = 0; i < metadataFieldIndexes.length; i++) {
+			if (metadataFieldIndexes[i] >= 0)
+				metadataValues[metadataFieldIndexes[i]] = fromClient.getMetadataRString(i + 1);
 		}
+		if (subscriptionIndex >= 0)
+			metadataValues[subscriptionIndex] = subscription;
+		Tuple cdcMetadata = metadataSchema.getTuple(metadataValues);
+		cdcDataTuple.setTuple(metadataAttributeIndex, cdcMetadata);
+		// The data is passed on as the UTF-8 bytes that were received
+		cdcDataTuple.setObject(dataAttributeIndex, fromClient.getRString(6));
+		out.submit(cdcDataTuple);
 	}
 
 	/**
@@ -288,26 +981,45 @@ public class CDCSource extends AbstractOperator {
 	 */
 	@Override
 	public final void process(StreamingInput<Tuple> inputStream, Tuple tuple) throws Exception {
+		String subscription = (confirmationSubscriptionIndex >= 0) ? tuple.getString(confirmationSubscriptionIndex)
+				: null;
+		confirmations.add(new HandshakeConfirmation(subscription, tuple.getLong(confirmationSequenceIndex)));
+		// Confirmations are processed by the thread that serves the connections,
+		// which polls the shared memory ring instead of waiting on the selector
+		if (selector != null)
+			selector.wakeup();
 	}
 
 	/**
 	 * Shutdown this operator, which will interrupt the thread executing the
-	 * <code>produceTuples()</code> method.
+	 * <code>produceTuples()</code> method and wait for it to close the
+	 * connections.
 	 * 
 	 * @throws Exception
 	 *             Operator failure, will cause the enclosing PE to terminate.
 	 */
 	public synchronized void shutdown() throws Exception {
+		OperatorContext context = getOperatorContext();
+		LOGGER.log(TraceLevel.TRACE, "Operator " + context.getName() + " shutting down in PE: "
+				+ context.getPE().getPEId() + " in Job: " + context.getPE().getJobId());
 		if (processThread != null) {
 			processThread.interrupt();
+			if (selector != null)
+				selector.wakeup();
+			processThread.join(SHUTDOWN_TIMEOUT_MS);
+			if (processThread.isAlive())
+				LOGGER.log(TraceLevel.WARN, "Thread serving the connections did not end within "
+						+ SHUTDOWN_TIMEOUT_MS + " milliseconds");
 			processThread = null;
 		}
-		OperatorContext context = getOperatorContext();
-		LOGGER.log(TraceLevel.TRACE, "Operator " + context.getName() + " shutting down in PE: "
-				+ context.getPE().getPEId() + " in Job: " + context.getPE().getJobId());
-		// Close connections
-		connectionSocket.close();
-		serverSocket.close();
+		if (serverChannel != null)
+			serverChannel.close();
+		if (selector != null)
+			selector.close();
+		if (ring != null)
+			ring.close();
+		if (inputChannel != null)
+			inputChannel.close();
 		// Must call super.shutdown()
 		super.shutdown();
 	}
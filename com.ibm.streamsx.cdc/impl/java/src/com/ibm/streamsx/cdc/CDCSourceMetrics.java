@@ -0,0 +1,153 @@
+package com.ibm.streamsx.cdc;
+
+import com.ibm.streams.operator.metrics.Metric;
+import com.ibm.streams.operator.metrics.OperatorMetrics;
+
+/**
+ * Custom metrics of the CDCSource operator, which show in the Streams console
+ * whether the operator is waiting for the user exits or for the downstream
+ * operators.
+ * <p>
+ * The counters are plain fields updated by the thread that processes the
+ * records. They are published to the Streams metrics once for every round of
+ * records read from the connections, so that processing a record costs no
+ * more than incrementing a field.
+ * </p>
+ */
+public class CDCSourceMetrics {
+
+	private static final int TIMESTAMP_LENGTH = "yyyy-mm-dd hh:mm:ss.fffffffff".length();
+
+	// Counters maintained by the processing thread
+	long dataRecords = 0;
+	long commitRecords = 0;
+	long handshakeRecords = 0;
+	long initializeRecords = 0;
+	long finalizeRecords = 0;
+	long heartbeatRecords = 0;
+	long bytesReceived = 0;
+	long commitsPunctuated = 0;
+	long handshakesAnswered = 0;
+	long creditGrants = 0;
+	long sessionsResumed = 0;
+	private long readWaitNanos = 0;
+	private long submitNanos = 0;
+	// Timestamp of the last commit record, only parsed when published
+	private String lastCommitTimestamp = null;
+
+	private final Metric dataRecordsMetric;
+	private final Metric commitRecordsMetric;
+	private final Metric handshakeRecordsMetric;
+	private final Metric initializeRecordsMetric;
+	private final Metric finalizeRecordsMetric;
+	private final Metric heartbeatRecordsMetric;
+	private final Metric bytesReceivedMetric;
+	private final Metric commitsPunctuatedMetric;
+	private final Metric handshakesAnsweredMetric;
+	private final Metric creditGrantsMetric;
+	private final Metric sessionsResumedMetric;
+	private final Metric lastCommitTimestampMetric;
+	private final Metric connectionsMetric;
+	private final Metric readWaitTimeMetric;
+	private final Metric submitTimeMetric;
+
+	/**
+	 * Registers the custom metrics of the operator.
+	 */
+	public CDCSourceMetrics(OperatorMetrics metrics) {
+		dataRecordsMetric = metrics.createCustomMetric("nDataRecords", "Number of data records received",
+				Metric.Kind.COUNTER);
+		commitRecordsMetric = metrics.createCustomMetric("nCommitRecords", "Number of commit records received",
+				Metric.Kind.COUNTER);
+		handshakeRecordsMetric = metrics.createCustomMetric("nHandshakeRecords",
+				"Number of handshake records received", Metric.Kind.COUNTER);
+		initializeRecordsMetric = metrics.createCustomMetric("nInitializeRecords",
+				"Number of initialization records received (subscription starts)", Metric.Kind.COUNTER);
+		finalizeRecordsMetric = metrics.createCustomMetric("nFinalizeRecords",
+				"Number of finalize records received (subscription stops)", Metric.Kind.COUNTER);
+		heartbeatRecordsMetric = metrics.createCustomMetric("nHeartbeatRecords",
+				"Number of heartbeat records received from idle user exits", Metric.Kind.COUNTER);
+		bytesReceivedMetric = metrics.createCustomMetric("nBytesReceived",
+				"Number of bytes received from the user exits", Metric.Kind.COUNTER);
+		commitsPunctuatedMetric = metrics.createCustomMetric("nCommitsPunctuated",
+				"Number of window markers submitted for commits and disconnected subscriptions",
+				Metric.Kind.COUNTER);
+		handshakesAnsweredMetric = metrics.createCustomMetric("nHandshakesAnswered",
+				"Number of handshakes acknowledged to the user exits", Metric.Kind.COUNTER);
+		creditGrantsMetric = metrics.createCustomMetric("nCreditGrants",
+				"Number of times the user exits were granted credit for more data records", Metric.Kind.COUNTER);
+		sessionsResumedMetric = metrics.createCustomMetric("nSessionsResumed",
+				"Number of user exit sessions resumed after a lost connection", Metric.Kind.COUNTER);
+		lastCommitTimestampMetric = metrics.createCustomMetric("lastCommitTimestamp",
+				"Source commit timestamp of the last commit record received, in milliseconds since the epoch",
+				Metric.Kind.TIME);
+		connectionsMetric = metrics.createCustomMetric("nConnections", "Number of connected user exits",
+				Metric.Kind.GAUGE);
+		readWaitTimeMetric = metrics.createCustomMetric("readWaitTimeMs",
+				"Milliseconds spent waiting for and reading data from the user exits", Metric.Kind.COUNTER);
+		submitTimeMetric = metrics.createCustomMetric("submitTimeMs",
+				"Milliseconds spent processing records and submitting tuples", Metric.Kind.COUNTER);
+	}
+
+	/**
+	 * Registers a commit record with the source commit timestamp of the
+	 * transaction.
+	 */
+	void commitReceived(String timestamp) {
+		commitRecords++;
+		lastCommitTimestamp = timestamp;
+	}
+
+	void addReadWaitTime(long nanos) {
+		readWaitNanos += nanos;
+	}
+
+	void addSubmitTime(long nanos) {
+		submitNanos += nanos;
+	}
+
+	/**
+	 * Publishes the counters to the Streams metrics.
+	 *
+	 * @param connections
+	 *            Current number of connections
+	 */
+	void publish(int connections) {
+		dataRecordsMetric.setValue(dataRecords);
+		commitRecordsMetric.setValue(commitRecords);
+		handshakeRecordsMetric.setValue(handshakeRecords);
+		initializeRecordsMetric.setValue(initializeRecords);
+		finalizeRecordsMetric.setValue(finalizeRecords);
+		heartbeatRecordsMetric.setValue(heartbeatRecords);
+		bytesReceivedMetric.setValue(bytesReceived);
+		commitsPunctuatedMetric.setValue(commitsPunctuated);
+		handshakesAnsweredMetric.setValue(handshakesAnswered);
+		creditGrantsMetric.setValue(creditGrants);
+		sessionsResumedMetric.setValue(sessionsResumed);
+		connectionsMetric.setValue(connections);
+		readWaitTimeMetric.setValue(readWaitNanos / 1000000);
+		submitTimeMetric.setValue(submitNanos / 1000000);
+		if (lastCommitTimestamp != null) {
+			long commitTime = parseTimestamp(lastCommitTimestamp);
+			if (commitTime >= 0)
+				lastCommitTimestampMetric.setValue(commitTime);
+			lastCommitTimestamp = null;
+		}
+	}
+
+	/**
+	 * Parses a CDC timestamp (yyyy-mm-dd hh:mm:ss.ffffff...), ignoring the
+	 * fractional digits beyond nanoseconds.
+	 *
+	 * @return Milliseconds since the epoch, or -1 if the timestamp is invalid
+	 */
+	private static long parseTimestamp(String timestamp) {
+		try {
+			String truncated = timestamp.length() > TIMESTAMP_LENGTH ? timestamp.substring(0, TIMESTAMP_LENGTH)
+					: timestamp;
+			return java.sql.Timestamp.valueOf(truncated.trim()).getTime();
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+}
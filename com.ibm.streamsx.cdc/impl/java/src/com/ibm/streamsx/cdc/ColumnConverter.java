@@ -0,0 +1,353 @@
+package com.ibm.streamsx.cdc;
+
+import java.math.BigDecimal;
+
+import org.apache.log4j.Logger;
+
+import com.ibm.streams.operator.Attribute;
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.Type.MetaType;
+import com.ibm.streams.operator.log4j.TraceLevel;
+import com.ibm.streams.operator.types.Timestamp;
+
+/**
+ * Converts the value of a table column to the SPL type of the output tuple
+ * attribute it is mapped to.
+ * <p>
+ * A converter is created once per mapped attribute when the columns are mapped
+ * to the tuple, so that the type of the attribute does not have to be examined
+ * for every tuple. The value is converted directly from the part of the data
+ * field that holds the column, without creating an intermediate string where
+ * possible.
+ * </p>
+ * <p>
+ * Empty values (which is how CDC sends null values) are set to the default
+ * value of the type: 0, false, an empty string or the epoch. What happens with
+ * values that cannot be converted is determined by the conversion error policy:
+ * </p>
+ * <ul>
+ * <li>default: the attribute is set to the default value of the type</li>
+ * <li>warn: as default, but a warning is logged (once per attribute)</li>
+ * <li>fail: an exception is thrown, which terminates the operator</li>
+ * </ul>
+ */
+public abstract class ColumnConverter {
+
+	private static Logger LOGGER = Logger.getLogger(ColumnConverter.class);
+
+	public static final String POLICY_DEFAULT = "default";
+	public static final String POLICY_WARN = "warn";
+	public static final String POLICY_FAIL = "fail";
+
+	protected final int attributeIndex;
+	private final String attributeName;
+	private final String policy;
+	private boolean warningLogged = false;
+
+	protected ColumnConverter(Attribute attribute, String policy) {
+		this.attributeIndex = attribute.getIndex();
+		this.attributeName = attribute.getName();
+		this.policy = policy;
+	}
+
+	/**
+	 * Creates the converter for the type of the attribute.
+	 *
+	 * @param attribute
+	 *            Output tuple attribute
+	 * @param policy
+	 *            Conversion error policy: default, warn or fail
+	 * @return Converter for the attribute
+	 * @throws Exception
+	 *             if the type of the attribute is not supported
+	 */
+	public static ColumnConverter create(Attribute attribute, String policy) throws Exception {
+		MetaType metaType = attribute.getType().getMetaType();
+		switch (metaType) {
+		case RSTRING:
+		case USTRING:
+			return new StringConverter(attribute, policy);
+		case BOOLEAN:
+			return new BooleanConverter(attribute, policy);
+		case INT8:
+		case INT16:
+		case INT32:
+		case INT64:
+			return new IntegerConverter(attribute, policy, metaType);
+		case FLOAT32:
+		case FLOAT64:
+			return new FloatConverter(attribute, policy, metaType);
+		case DECIMAL32:
+		case DECIMAL64:
+		case DECIMAL128:
+			return new DecimalConverter(attribute, policy);
+		case TIMESTAMP:
+			return new TimestampConverter(attribute, policy);
+		default:
+			throw new Exception("Attribute " + attribute.getName() + " has type "
+					+ attribute.getType().getLanguageType() + ", which is not supported by the CDCParse operator."
+					+ " Supported types are rstring, ustring, boolean, int8, int16, int32, int64, float32, float64,"
+					+ " decimal32, decimal64, decimal128 and timestamp.");
+		}
+	}
+
+	/**
+	 * Checks that the policy is one of the supported values.
+	 */
+	public static boolean isValidPolicy(String policy) {
+		return POLICY_DEFAULT.equals(policy) || POLICY_WARN.equals(policy) || POLICY_FAIL.equals(policy);
+	}
+
+	/**
+	 * Sets the attribute from a column value.
+	 *
+	 * @param tuple
+	 *            Output tuple
+	 * @param data
+	 *            String holding the column value
+	 * @param start
+	 *            Index of the first character of the value
+	 * @param end
+	 *            Index after the last character of the value
+	 * @throws Exception
+	 *             if the value cannot be converted and the policy is fail
+	 */
+	public void convert(OutputTuple tuple, String data, int start, int end) throws Exception {
+		if (start == end) {
+			setDefault(tuple);
+			return;
+		}
+		try {
+			set(tuple, data, start, end);
+		} catch (NumberFormatException e) {
+			String value = data.substring(start, end);
+			if (POLICY_FAIL.equals(policy))
+				throw new Exception("Value \"" + value + "\" cannot be converted for attribute " + attributeName + ": "
+						+ e.getMessage());
+			if (POLICY_WARN.equals(policy) && !warningLogged) {
+				LOGGER.log(TraceLevel.WARN, "Value \"" + value + "\" cannot be converted for attribute "
+						+ attributeName + ", the default value is used. No more warnings for this attribute will be"
+						+ " issued.");
+				warningLogged = true;
+			}
+			setDefault(tuple);
+		}
+	}
+
+	/**
+	 * Sets the attribute from a column value
+	 *
+	 * @throws NumberFormatException
+	 *             if the value cannot be converted
+	 */
+	protected abstract void set(OutputTuple tuple, String data, int start, int end);
+
+	/**
+	 * Sets the attribute to the default value of its type
+	 */
+	protected abstract void setDefault(OutputTuple tuple);
+
+	/**
+	 * Parses a decimal integer from part of a string without creating a
+	 * substring.
+	 */
+	static long parseLong(String data, int start, int end) {
+		int position = start;
+		boolean negative = false;
+		char first = data.charAt(position);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			position++;
+			if (position == end)
+				throw new NumberFormatException("No digits");
+		}
+		// Accumulate negatively to be able to represent Long.MIN_VALUE
+		long result = 0;
+		for (; position < end; position++) {
+			int digit = data.charAt(position) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Invalid digit");
+			if (result < (Long.MIN_VALUE + digit) / 10)
+				throw new NumberFormatException("Value out of range");
+			result = result * 10 - digit;
+		}
+		if (!negative) {
+			if (result == Long.MIN_VALUE)
+				throw new NumberFormatException("Value out of range");
+			return -result;
+		}
+		return result;
+	}
+
+	static class StringConverter extends ColumnConverter {
+		StringConverter(Attribute attribute, String policy) {
+			super(attribute, policy);
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			tuple.setString(attributeIndex, (start == 0 && end == data.length()) ? data : data.substring(start, end));
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			tuple.setString(attributeIndex, "");
+		}
+	}
+
+	static class BooleanConverter extends ColumnConverter {
+		BooleanConverter(Attribute attribute, String policy) {
+			super(attribute, policy);
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			int length = end - start;
+			if ((length == 4 && data.regionMatches(true, start, "true", 0, 4))
+					|| (length == 1 && data.charAt(start) == '1'))
+				tuple.setBoolean(attributeIndex, true);
+			else if ((length == 5 && data.regionMatches(true, start, "false", 0, 5))
+					|| (length == 1 && data.charAt(start) == '0'))
+				tuple.setBoolean(attributeIndex, false);
+			else
+				throw new NumberFormatException("Not a boolean value");
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			tuple.setBoolean(attributeIndex, false);
+		}
+	}
+
+	static class IntegerConverter extends ColumnConverter {
+		private final MetaType metaType;
+		private final long minimum;
+		private final long maximum;
+
+		IntegerConverter(Attribute attribute, String policy, MetaType metaType) {
+			super(attribute, policy);
+			this.metaType = metaType;
+			switch (metaType) {
+			case INT8:
+				minimum = Byte.MIN_VALUE;
+				maximum = Byte.MAX_VALUE;
+				break;
+			case INT16:
+				minimum = Short.MIN_VALUE;
+				maximum = Short.MAX_VALUE;
+				break;
+			case INT32:
+				minimum = Integer.MIN_VALUE;
+				maximum = Integer.MAX_VALUE;
+				break;
+			default:
+				minimum = Long.MIN_VALUE;
+				maximum = Long.MAX_VALUE;
+			}
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			long value = parseLong(data, start, end);
+			if (value < minimum || value > maximum)
+				throw new NumberFormatException("Value out of range");
+			switch (metaType) {
+			case INT8:
+				tuple.setByte(attributeIndex, (byte) value);
+				break;
+			case INT16:
+				tuple.setShort(attributeIndex, (short) value);
+				break;
+			case INT32:
+				tuple.setInt(attributeIndex, (int) value);
+				break;
+			default:
+				tuple.setLong(attributeIndex, value);
+			}
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			switch (metaType) {
+			case INT8:
+				tuple.setByte(attributeIndex, (byte) 0);
+				break;
+			case INT16:
+				tuple.setShort(attributeIndex, (short) 0);
+				break;
+			case INT32:
+				tuple.setInt(attributeIndex, 0);
+				break;
+			default:
+				tuple.setLong(attributeIndex, 0);
+			}
+		}
+	}
+
+	static class FloatConverter extends ColumnConverter {
+		private final boolean float32;
+
+		FloatConverter(Attribute attribute, String policy, MetaType metaType) {
+			super(attribute, policy);
+			this.float32 = metaType == MetaType.FLOAT32;
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			double value = Double.parseDouble(data.substring(start, end));
+			if (float32)
+				tuple.setFloat(attributeIndex, (float) value);
+			else
+				tuple.setDouble(attributeIndex, value);
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			if (float32)
+				tuple.setFloat(attributeIndex, 0);
+			else
+				tuple.setDouble(attributeIndex, 0);
+		}
+	}
+
+	static class DecimalConverter extends ColumnConverter {
+		DecimalConverter(Attribute attribute, String policy) {
+			super(attribute, policy);
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			tuple.setBigDecimal(attributeIndex, new BigDecimal(data.substring(start, end)));
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			tuple.setBigDecimal(attributeIndex, BigDecimal.ZERO);
+		}
+	}
+
+	/**
+	 * Converts timestamps in the format yyyy-mm-dd hh:mm:ss[.fffffffff] and
+	 * dates in the format yyyy-mm-dd, interpreted in the time zone of the
+	 * Streams runtime like java.sql.Timestamp does.
+	 */
+	static class TimestampConverter extends ColumnConverter {
+		private static final Timestamp EPOCH = new Timestamp(0, 0);
+		private static final int DATE_LENGTH = 10;
+
+		TimestampConverter(Attribute attribute, String policy) {
+			super(attribute, policy);
+		}
+
+		protected void set(OutputTuple tuple, String data, int start, int end) {
+			String value = data.substring(start, end).trim();
+			java.sql.Timestamp timestamp;
+			try {
+				if (value.length() == DATE_LENGTH)
+					timestamp = java.sql.Timestamp.valueOf(value + " 00:00:00");
+				else
+					timestamp = java.sql.Timestamp.valueOf(value);
+			} catch (IllegalArgumentException e) {
+				throw new NumberFormatException(e.getMessage());
+			}
+			long milliseconds = timestamp.getTime();
+			// Whole seconds, rounding down for timestamps before the epoch
+			long seconds = Math.floorDiv(milliseconds, 1000L);
+			tuple.setTimestamp(attributeIndex, new Timestamp(seconds, timestamp.getNanos()));
+		}
+
+		protected void setDefault(OutputTuple tuple) {
+			tuple.setTimestamp(attributeIndex, EPOCH);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.ibm.streamsx.cdc;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ibm.streams.operator.OutputTuple;
+
+/**
+ * Locates the columns in the data field of a tuple.
+ * <p>
+ * Instead of splitting the whole data field into strings, the scanner only
+ * records the offsets of the columns that are mapped to output attributes and
+ * stops scanning after the highest mapped column, so that unmapped columns
+ * cost no more than a character comparison and no strings are created for
+ * them. Column values are passed to the converters as a part of the data
+ * field.
+ * </p>
+ * <p>
+ * If the separator is a single character (possibly escaped, like the default
+ * "\\|"), the data is scanned for that character without regular expressions.
+ * Other separators are treated as regular expressions, like String.split()
+ * does. If the user exit escapes the data, escaped separators do not end a
+ * column and columns that contain escape sequences are unescaped when they are
+ * converted.
+ * </p>
+ */
+public class FieldScanner {
+
+	private static final String REGEX_METACHARACTERS = ".$|()[{^?*+\\";
+
+	private final char separator;
+	private final boolean escaped;
+	private final Matcher separatorMatcher;
+
+	private String data = "";
+	// Offsets of the needed columns in the data field; a column beyond the
+	// end of the data field is empty
+	private int[] fieldStart = new int[0];
+	private int[] fieldEnd = new int[0];
+	// Indicates if a column contains escape sequences
+	private boolean[] fieldEscaped = new boolean[0];
+	private final StringBuilder unescaped = new StringBuilder();
+
+	/**
+	 * Creates a scanner for a single-character separator.
+	 *
+	 * @param separator
+	 *            Separator character
+	 * @param escaped
+	 *            true if the user exit escapes special characters
+	 */
+	public FieldScanner(char separator, boolean escaped) {
+		this.separator = separator;
+		this.escaped = escaped;
+		this.separatorMatcher = null;
+	}
+
+	/**
+	 * Creates a scanner for a separator regular expression. Escaped data is
+	 * not supported with regular expressions.
+	 */
+	public FieldScanner(Pattern separator) {
+		this.separator = 0;
+		this.escaped = false;
+		this.separatorMatcher = separator.matcher("");
+	}
+
+	/**
+	 * Creates the scanner for a separator parameter, which is a regular
+	 * expression. If the expression matches a single literal character (which
+	 * is when String.split() avoids regular expressions as well), the
+	 * character is scanned for directly.
+	 */
+	public static FieldScanner create(String separator) {
+		if (separator.length() == 1 && REGEX_METACHARACTERS.indexOf(separator.charAt(0)) < 0)
+			return new FieldScanner(separator.charAt(0), false);
+		if (separator.length() == 2 && separator.charAt(0) == '\\'
+				&& !Character.isLetterOrDigit(separator.charAt(1)))
+			return new FieldScanner(separator.charAt(1), false);
+		return new FieldScanner(Pattern.compile(separator));
+	}
+
+	/**
+	 * Scans the data field for the needed columns.
+	 *
+	 * @param data
+	 *            Data field of the tuple
+	 * @param neededFields
+	 *            Indicates for every column up to the highest mapped column
+	 *            whether it is mapped
+	 */
+	public void scan(String data, boolean[] neededFields) {
+		this.data = data;
+		int fieldCount = neededFields.length;
+		if (fieldStart.length < fieldCount) {
+			fieldStart = new int[fieldCount];
+			fieldEnd = new int[fieldCount];
+			fieldEscaped = new boolean[fieldCount];
+		}
+		int field;
+		if (separatorMatcher != null)
+			field = scanPattern(neededFields);
+		else if (escaped)
+			field = scanEscaped(neededFields);
+		else
+			field = scanCharacter(neededFields);
+		// Columns missing from the data field are empty
+		int length = data.length();
+		for (; field < fieldCount; field++) {
+			fieldStart[field] = length;
+			fieldEnd[field] = length;
+			fieldEscaped[field] = false;
+		}
+	}
+
+	/**
+	 * Scans for a literal separator character.
+	 *
+	 * @return Number of columns found, at most the number of needed fields
+	 */
+	private int scanCharacter(boolean[] neededFields) {
+		int fieldCount = neededFields.length;
+		int length = data.length();
+		int field = 0;
+		int begin = 0;
+		while (field < fieldCount) {
+			int end = data.indexOf(separator, begin);
+			if (end < 0)
+				end = length;
+			if (neededFields[field]) {
+				fieldStart[field] = begin;
+				fieldEnd[field] = end;
+				fieldEscaped[field] = false;
+			}
+			field++;
+			if (end == length)
+				break;
+			begin = end + 1;
+		}
+		return field;
+	}
+
+	/**
+	 * Scans for a separator character that is not preceded by the escape
+	 * character.
+	 *
+	 * @return Number of columns found, at most the number of needed fields
+	 */
+	private int scanEscaped(boolean[] neededFields) {
+		int fieldCount = neededFields.length;
+		int length = data.length();
+		int field = 0;
+		int begin = 0;
+		boolean hasEscapes = false;
+		for (int position = 0; field < fieldCount; position++) {
+			if (position == length || data.charAt(position) == separator) {
+				if (neededFields[field]) {
+					fieldStart[field] = begin;
+					fieldEnd[field] = position;
+					fieldEscaped[field] = hasEscapes;
+				}
+				field++;
+				if (position == length)
+					break;
+				begin = position + 1;
+				hasEscapes = false;
+			} else if (data.charAt(position) == CDCProtocol.ESCAPE_CHARACTER) {
+				hasEscapes = true;
+				// The escaped character cannot be a separator
+				if (position + 1 < length)
+					position++;
+			}
+		}
+		return field;
+	}
+
+	/**
+	 * Scans for matches of the separator regular expression.
+	 *
+	 * @return Number of columns found, at most the number of needed fields
+	 */
+	private int scanPattern(boolean[] neededFields) {
+		int fieldCount = neededFields.length;
+		int length = data.length();
+		separatorMatcher.reset(data);
+		int field = 0;
+		int begin = 0;
+		while (field < fieldCount) {
+			int end = length;
+			int next = length;
+			if (separatorMatcher.find()) {
+				end = separatorMatcher.start();
+				next = separatorMatcher.end();
+			}
+			if (neededFields[field]) {
+				fieldStart[field] = begin;
+				fieldEnd[field] = end;
+				fieldEscaped[field] = false;
+			}
+			field++;
+			if (end == length)
+				break;
+			begin = next;
+		}
+		return field;
+	}
+
+	/**
+	 * Converts a column with the converter of the attribute it is mapped to.
+	 *
+	 * @param field
+	 *            Index of the column in the data field
+	 * @param converter
+	 *            Converter of the attribute
+	 * @param tuple
+	 *            Output tuple
+	 * @throws Exception
+	 *             if the value cannot be converted
+	 */
+	public void convert(int field, ColumnConverter converter, OutputTuple tuple) throws Exception {
+		if (fieldEscaped[field]) {
+			unescaped.setLength(0);
+			CDCProtocol.unescape(data, fieldStart[field], fieldEnd[field], unescaped);
+			String value = unescaped.toString();
+			converter.convert(tuple, value, 0, value.length());
+		} else
+			converter.convert(tuple, data, fieldStart[field], fieldEnd[field]);
+	}
+}
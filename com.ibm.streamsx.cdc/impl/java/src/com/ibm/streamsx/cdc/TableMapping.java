@@ -0,0 +1,192 @@
+package com.ibm.streamsx.cdc;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import com.ibm.streams.operator.OutputTuple;
+import com.ibm.streams.operator.StreamSchema;
+import com.ibm.streams.operator.StreamingOutput;
+
+/**
+ * Mapping of the columns of a replicated table to the attributes of the output
+ * port on which the CDCParse operator submits the tuples of the table.
+ * <p>
+ * The mapping is built when the operator is initialized and every time the
+ * subscription is (re-)started. It is then compiled into arrays holding, for
+ * every mapped attribute, the index of the column in the data field and the
+ * converter that sets the attribute (which knows the attribute index), so that
+ * the data of a tuple can be copied into the output tuple with an indexed loop.
+ * For delete records whose before image must populate the regular attributes,
+ * a separate set of arrays is compiled in which the before image columns have
+ * already replaced the after image columns.
+ * </p>
+ * <p>
+ * The compiled arrays are held together in one immutable
+ * {@link CompiledMapping} that is published through a single volatile field,
+ * so a remap that runs while tuples are processed on other threads never hands
+ * out arrays of different generations. Processing keeps the previous mapping
+ * until the new one has been compiled.
+ * </p>
+ */
+public class TableMapping {
+
+	private final String qualifiedTableName;
+	private final int port;
+	private final StreamingOutput<OutputTuple> output;
+
+	// Attribute name to column index in the data field, used while mapping
+	protected HashMap<String, Integer> outputData = new LinkedHashMap<String, Integer>();
+	protected HashMap<String, Integer> outputDeletedRecord = new LinkedHashMap<String, Integer>();
+
+	// Compiled mapping used when processing tuples, replaced as a whole
+	private volatile CompiledMapping compiledMapping = CompiledMapping.EMPTY;
+
+	public TableMapping(String qualifiedTableName, int port, StreamingOutput<OutputTuple> output) {
+		this.qualifiedTableName = qualifiedTableName;
+		this.port = port;
+		this.output = output;
+	}
+
+	public String getQualifiedTableName() {
+		return qualifiedTableName;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public StreamingOutput<OutputTuple> getOutput() {
+		return output;
+	}
+
+	/**
+	 * Removes the current mapping before the columns are mapped again. The
+	 * compiled mapping stays in use until {@link #compile(String)} replaces it.
+	 */
+	public void clear() {
+		outputData.clear();
+		outputDeletedRecord.clear();
+	}
+
+	/**
+	 * Compiles the mapped attributes into the arrays used when processing
+	 * tuples, creates the converter of every mapped attribute and publishes
+	 * the result as the current compiled mapping.
+	 *
+	 * @param conversionErrorPolicy
+	 *            Policy for values that cannot be converted
+	 * @throws Exception
+	 *             if the type of a mapped attribute is not supported
+	 */
+	public void compile(String conversionErrorPolicy) throws Exception {
+		StreamSchema outputSchema = output.getStreamSchema();
+		HashMap<String, ColumnConverter> attributeConverters = new HashMap<String, ColumnConverter>();
+		for (String attrName : outputData.keySet())
+			attributeConverters.put(attrName,
+					ColumnConverter.create(outputSchema.getAttribute(attrName), conversionErrorPolicy));
+		for (String attrName : outputDeletedRecord.keySet()) {
+			if (!attributeConverters.containsKey(attrName))
+				attributeConverters.put(attrName,
+						ColumnConverter.create(outputSchema.getAttribute(attrName), conversionErrorPolicy));
+		}
+
+		int[] fieldIndexes = new int[outputData.size()];
+		ColumnConverter[] converters = new ColumnConverter[outputData.size()];
+		int i = 0;
+		for (String attrName : outputData.keySet()) {
+			fieldIndexes[i] = outputData.get(attrName);
+			converters[i] = attributeConverters.get(attrName);
+			i++;
+		}
+
+		// The before image columns of a delete replace the columns mapped to
+		// the same attributes
+		LinkedHashMap<String, Integer> deleteData = new LinkedHashMap<String, Integer>(outputData);
+		deleteData.putAll(outputDeletedRecord);
+		int[] deleteFieldIndexes = new int[deleteData.size()];
+		ColumnConverter[] deleteConverters = new ColumnConverter[deleteData.size()];
+		i = 0;
+		for (String attrName : deleteData.keySet()) {
+			deleteFieldIndexes[i] = deleteData.get(attrName);
+			deleteConverters[i] = attributeConverters.get(attrName);
+			i++;
+		}
+
+		// Only the mapped columns have to be located in the data field
+		int maxFieldIndex = -1;
+		for (int fieldIndex : deleteFieldIndexes)
+			maxFieldIndex = Math.max(maxFieldIndex, fieldIndex);
+		for (int fieldIndex : fieldIndexes)
+			maxFieldIndex = Math.max(maxFieldIndex, fieldIndex);
+		boolean[] neededFields = new boolean[maxFieldIndex + 1];
+		for (int fieldIndex : deleteFieldIndexes)
+			neededFields[fieldIndex] = true;
+		for (int fieldIndex : fieldIndexes)
+			neededFields[fieldIndex] = true;
+
+		compiledMapping = new CompiledMapping(fieldIndexes, converters, deleteFieldIndexes, deleteConverters,
+				neededFields);
+	}
+
+	/**
+	 * Returns the current compiled mapping. Read it once per tuple so that all
+	 * arrays used for the tuple belong to the same compilation.
+	 */
+	public CompiledMapping getCompiledMapping() {
+		return compiledMapping;
+	}
+
+	/**
+	 * Immutable result of compiling the mapping of a table.
+	 */
+	public static final class CompiledMapping {
+
+		static final CompiledMapping EMPTY = new CompiledMapping(new int[0], new ColumnConverter[0], new int[0],
+				new ColumnConverter[0], new boolean[0]);
+
+		// Compiled mapping for inserts and updates
+		private final int[] fieldIndexes;
+		private final ColumnConverter[] converters;
+		// Compiled mapping for deletes, with the delete image overlay applied
+		private final int[] deleteFieldIndexes;
+		private final ColumnConverter[] deleteConverters;
+		// Columns of the data field that are mapped, up to the highest one
+		private final boolean[] neededFields;
+
+		private CompiledMapping(int[] fieldIndexes, ColumnConverter[] converters, int[] deleteFieldIndexes,
+				ColumnConverter[] deleteConverters, boolean[] neededFields) {
+			this.fieldIndexes = fieldIndexes;
+			this.converters = converters;
+			this.deleteFieldIndexes = deleteFieldIndexes;
+			this.deleteConverters = deleteConverters;
+			this.neededFields = neededFields;
+		}
+
+		/**
+		 * Returns the column index in the data field of every mapped attribute.
+		 *
+		 * @param delete
+		 *            true to get the mapping of a delete record with the before
+		 *            image overlay
+		 */
+		public int[] getFieldIndexes(boolean delete) {
+			return delete ? deleteFieldIndexes : fieldIndexes;
+		}
+
+		/**
+		 * Indicates for every column of the data field up to the highest mapped
+		 * column whether it is mapped to an attribute.
+		 */
+		public boolean[] getNeededFields() {
+			return neededFields;
+		}
+
+		/**
+		 * Returns the converters of the mapped attributes, parallel to the field
+		 * indexes.
+		 */
+		public ColumnConverter[] getConverters(boolean delete) {
+			return delete ? deleteConverters : converters;
+		}
+	}
+}